@@ -29,6 +29,11 @@ public class RFunc {
           MINOR = 1
                   ;
 
+  private final static int
+          PROTOCOL_VERSION = 2,
+          MINIMUM_PROTOCOL_VERSION = 1
+                  ;
+
   /**
    * Gets the version of the library as
    * a string of the form A.B.C where
@@ -41,4 +46,26 @@ public class RFunc {
     return String.format("%d.%d.%d", RELEASE, MAJOR, MINOR);
   }
 
+  /**
+   * Gets the newest version of the wire protocol
+   * spoken by this library. Version 1 is the original
+   * protocol whose handshake carries only the library
+   * version string
+   *
+   * @return the newest protocol version
+   */
+  public static int getProtocolVersion() {
+    return PROTOCOL_VERSION;
+  }
+
+  /**
+   * Gets the oldest version of the wire protocol
+   * this library is still able to speak
+   *
+   * @return the oldest protocol version
+   */
+  public static int getMinimumProtocolVersion() {
+    return MINIMUM_PROTOCOL_VERSION;
+  }
+
 }
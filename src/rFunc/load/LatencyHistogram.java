@@ -0,0 +1,178 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class LatencyHistogram {
+
+  private static final int
+          SUB_BUCKET_BITS = 7,
+          SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS,
+          HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2,
+          INDEX_COUNT = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKET_COUNT
+                  ;
+
+
+  private final AtomicLongArray counts = new AtomicLongArray(INDEX_COUNT);
+
+  /**
+   * Creates an empty histogram. Recorded values are kept with
+   * a relative precision of better than one percent
+   */
+  public LatencyHistogram() {}
+
+  /**
+   * Records a single latency value. This method may be called
+   * concurrently from any number of threads
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+
+    counts.incrementAndGet(indexOf(nanos));
+  }
+
+  /**
+   * Moves all values recorded in this histogram into the
+   * provided histogram, leaving this histogram empty. Values
+   * recorded concurrently are counted in exactly one of the two
+   *
+   * @param into the histogram to receive the values
+   */
+  public void drainInto(LatencyHistogram into) {
+    if (into == null)
+      throw new IllegalArgumentException("Histogram cannot be null");
+
+    for(int k = 0; k < counts.length(); k++) {
+      long count = counts.getAndSet(k, 0);
+      if (count != 0)
+        into.counts.addAndGet(k, count);
+    }
+  }
+
+  /**
+   * Adds all values recorded in the provided histogram
+   * into this histogram
+   *
+   * @param from the histogram whose values are added
+   */
+  public void add(LatencyHistogram from) {
+    if (from == null)
+      throw new IllegalArgumentException("Histogram cannot be null");
+
+    for(int k = 0; k < counts.length(); k++) {
+      long count = from.counts.get(k);
+      if (count != 0)
+        counts.addAndGet(k, count);
+    }
+  }
+
+  /**
+   * Removes all recorded values
+   */
+  public void reset() {
+    for(int k = 0; k < counts.length(); k++) {
+      counts.set(k, 0);
+    }
+  }
+
+  /**
+   * Gets the number of values recorded
+   *
+   * @return the number of values recorded
+   */
+  public long getCount() {
+    long ret = 0;
+    for(int k = 0; k < counts.length(); k++) {
+      ret += counts.get(k);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Gets the value at the provided percentile
+   *
+   * @param percentile a percentile in the range [0, 100]
+   * @return the latency in nanoseconds, or zero if the histogram is empty
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100)
+      throw new IllegalArgumentException("Percentile must be within [0, 100]");
+
+    long total = getCount();
+    if (total == 0)
+      return 0;
+
+    long rank = (long) Math.ceil(percentile / 100.0 * total);
+    if (rank < 1)
+      rank = 1;
+
+    long seen = 0;
+    for(int k = 0; k < counts.length(); k++) {
+      seen += counts.get(k);
+      if (seen >= rank)
+        return highestValueOf(k);
+    }
+
+    return highestValueOf(counts.length() - 1);
+  }
+
+  /**
+   * Gets the largest recorded value
+   *
+   * @return the maximum latency in nanoseconds, or zero if the histogram is empty
+   */
+  public long getMax() {
+    for(int k = counts.length() - 1; k >= 0; k--) {
+      if (counts.get(k) != 0)
+        return highestValueOf(k);
+    }
+
+    return 0;
+  }
+
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT)
+      return (int) value;
+
+    int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> bucket) - HALF_SUB_BUCKET_COUNT;
+
+    return (bucket + 1) * HALF_SUB_BUCKET_COUNT + subBucket;
+  }
+
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT)
+      return index;
+
+    int bucket = index / HALF_SUB_BUCKET_COUNT - 1;
+    int subBucket = index % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+
+    return (((long) subBucket + 1) << bucket) - 1;
+  }
+
+}
@@ -0,0 +1,426 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.load;
+
+import rFunc.method.InvocationException;
+import rFunc.net.Client;
+import rFunc.net.Server;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class LoadGenerator {
+
+  public static final int DEFAULT_PORT = 47000;
+
+
+  /**
+   * Runs the load generator from the command line. If no host
+   * is provided a local server running the default synthetic
+   * workload is started for the duration of the run.
+   *
+   * Options: --host, --port, --connections, --rate (calls per second,
+   * zero for closed loop), --duration (seconds), --interval (seconds)
+   *
+   * @param args command line arguments
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+
+    LoadGenerator generator = new LoadGenerator();
+    String host = null;
+    int port = DEFAULT_PORT;
+
+    for(int k = 0; k < args.length; k++) {
+
+      if (k == args.length - 1)
+        throw new IllegalArgumentException("Missing value for option: " + args[k]);
+
+      switch (args[k]) {
+
+        case "--host":
+          host = args[++k];
+          break;
+
+        case "--port":
+          port = Integer.parseInt(args[++k]);
+          break;
+
+        case "--connections":
+          generator.setConnections(Integer.parseInt(args[++k]));
+          break;
+
+        case "--rate":
+          generator.setRate(Double.parseDouble(args[++k]));
+          break;
+
+        case "--duration":
+          generator.setDuration((long) (Double.parseDouble(args[++k]) * 1000));
+          break;
+
+        case "--interval":
+          generator.setReportInterval((long) (Double.parseDouble(args[++k]) * 1000));
+          break;
+
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[k]);
+
+      }
+    }
+
+    Server server = null;
+
+    if (host == null) {
+      server = new Server();
+      server.log.setTraceSuppressed(true);
+      server.log.setVerboseSuppressed(true);
+      server.log.setInfoSuppressed(true);
+      generator.getWorkload().register(server.environment);
+      server.start(port);
+      host = "127.0.0.1";
+    }
+
+    generator.setIp(host);
+    generator.setPort(port);
+
+    try {
+      generator.run();
+    } finally {
+      if (server != null)
+        server.terminate();
+    }
+
+  }
+
+
+  private String ip;
+  private int port;
+  private int connections = 1;
+  private double rate = 0;
+  private long duration = 10000, reportInterval = 1000;
+  private SyntheticWorkload workload = SyntheticWorkload.getDefault();
+  private PrintStream output = System.out;
+
+  private final LatencyHistogram intervalHistogram = new LatencyHistogram();
+  private final AtomicLong errors = new AtomicLong();
+
+  public LoadGenerator() {}
+
+  /**
+   * Drives the server with the configured workload for the configured
+   * duration, printing throughput and latency percentiles once per
+   * report interval followed by a summary of the whole run.
+   *
+   * When a rate is set, each connection issues calls on a fixed schedule
+   * and latency is measured from the time at which each call was
+   * scheduled rather than when it was actually sent, so that a stalled
+   * server is charged for the calls it delayed.
+   *
+   * @return a histogram of all latencies recorded during the run
+   * @throws IOException
+   */
+  public LatencyHistogram run() throws IOException {
+    if (ip == null || port == 0)
+      throw new IllegalStateException("IP and port values must be set");
+
+    Client[] clients = new Client[connections];
+    for(int k = 0; k < connections; k++) {
+      clients[k] = new Client();
+      clients[k].setIp(ip);
+      clients[k].setPort(port);
+      clients[k].initialize();
+    }
+
+    intervalHistogram.reset();
+    errors.set(0);
+
+    long
+            start = System.nanoTime(),
+            end = start + TimeUnit.MILLISECONDS.toNanos(duration),
+            callInterval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * connections / rate) : 0
+            ;
+
+    Thread[] threads = new Thread[connections];
+    for(int k = 0; k < connections; k++) {
+      Client client = clients[k];
+      Random random = new Random(k);
+      long firstCall = start + callInterval * k / connections;
+
+      threads[k] = new Thread(() -> drive(client, random, firstCall, callInterval, end));
+      threads[k].setDaemon(true);
+      threads[k].start();
+    }
+
+    output.println(rate > 0
+            ? String.format("Open loop: %d connection(s) at %.1f calls/s", connections, rate)
+            : String.format("Closed loop: %d connection(s)", connections));
+    output.println(String.format("%8s %10s %10s %10s %10s %10s %8s", "time(s)", "calls/s", "p50(us)", "p99(us)", "p999(us)", "max(us)", "errors"));
+
+    LatencyHistogram total = new LatencyHistogram(), interval = new LatencyHistogram();
+    long lastReport = start, lastErrors = 0;
+
+    while(lastReport < end) {
+
+      long nextReport = Math.min(lastReport + TimeUnit.MILLISECONDS.toNanos(reportInterval), end);
+      sleepUntil(nextReport);
+
+      interval.reset();
+      intervalHistogram.drainInto(interval);
+      total.add(interval);
+
+      long currentErrors = errors.get();
+      print(String.format("%8.1f", (nextReport - start) / 1e9), interval, nextReport - lastReport, currentErrors - lastErrors);
+
+      lastReport = nextReport;
+      lastErrors = currentErrors;
+    }
+
+    for(Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    intervalHistogram.drainInto(total);
+    print("total", total, System.nanoTime() - start, errors.get());
+
+    return total;
+  }
+
+
+  private void drive(Client client, Random random, long firstCall, long callInterval, long end) {
+
+    long scheduled = firstCall;
+
+    while(true) {
+
+      long intended;
+
+      if (callInterval > 0) {
+        if (scheduled >= end)
+          return;
+        sleepUntil(scheduled);
+        intended = scheduled;
+        scheduled += callInterval;
+      }
+      else {
+        intended = System.nanoTime();
+        if (intended >= end)
+          return;
+      }
+
+      SyntheticWorkload.SyntheticCall call = workload.pick(random);
+
+      try {
+        client.invoke(SyntheticWorkload.NAMESPACE, call.name, call.arguments, false);
+      } catch (IOException | InvocationException e) {
+        errors.incrementAndGet();
+      }
+
+      intervalHistogram.record(System.nanoTime() - intended);
+    }
+  }
+
+  private void print(String label, LatencyHistogram histogram, long elapsedNanos, long errorCount) {
+    output.println(String.format(
+            "%8s %10.1f %10.1f %10.1f %10.1f %10.1f %8d",
+            label,
+            histogram.getCount() * 1e9 / Math.max(elapsedNanos, 1),
+            histogram.getPercentile(50) / 1e3,
+            histogram.getPercentile(99) / 1e3,
+            histogram.getPercentile(99.9) / 1e3,
+            histogram.getMax() / 1e3,
+            errorCount
+      ));
+  }
+
+  private static void sleepUntil(long nanoTime) {
+    long remaining;
+    while((remaining = nanoTime - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+
+  /**
+   * Gets the IP of the server
+   *
+   * @return the IP of the server
+   */
+  public String getIp() {
+    return ip;
+  }
+
+  /**
+   * Sets the IP of the server to be driven
+   *
+   * @param ip string representation of an IP
+   */
+  public void setIp(String ip) {
+    if (ip == null)
+      throw new IllegalArgumentException("Cannot set IP to null");
+    this.ip = ip;
+  }
+
+  /**
+   * Gets the port of the server
+   *
+   * @return the port of the server
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Sets the port of the server to be driven
+   *
+   * @param port port number
+   */
+  public void setPort(int port) {
+    if (port < 1 || port > 65535)
+      throw new IllegalArgumentException("Cannot set port to: " + port);
+    this.port = port;
+  }
+
+  /**
+   * Gets the number of concurrent connections
+   *
+   * @return the number of connections
+   */
+  public int getConnections() {
+    return connections;
+  }
+
+  /**
+   * Sets the number of connections, each driven by its own
+   * client and thread
+   *
+   * @param connections the number of connections
+   */
+  public void setConnections(int connections) {
+    if (connections < 1)
+      throw new IllegalArgumentException("Cannot set connections to: " + connections);
+    this.connections = connections;
+  }
+
+  /**
+   * Gets the target rate in calls per second
+   *
+   * @return the target rate, or zero for closed loop operation
+   */
+  public double getRate() {
+    return rate;
+  }
+
+  /**
+   * Sets the target rate in calls per second across all connections.
+   * A rate of zero drives the server in a closed loop, issuing each
+   * call as soon as the previous one on its connection completes
+   *
+   * @param rate the target rate
+   */
+  public void setRate(double rate) {
+    if (rate < 0 || Double.isNaN(rate) || Double.isInfinite(rate))
+      throw new IllegalArgumentException("Cannot set rate to: " + rate);
+    this.rate = rate;
+  }
+
+  /**
+   * Gets the duration of a run in milliseconds
+   *
+   * @return the duration of a run
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /**
+   * Sets the duration of a run in milliseconds
+   *
+   * @param duration the duration of a run
+   */
+  public void setDuration(long duration) {
+    if (duration < 1)
+      throw new IllegalArgumentException("Cannot set duration to: " + duration);
+    this.duration = duration;
+  }
+
+  /**
+   * Gets the interval between reports in milliseconds
+   *
+   * @return the report interval
+   */
+  public long getReportInterval() {
+    return reportInterval;
+  }
+
+  /**
+   * Sets the interval between reports in milliseconds
+   *
+   * @param reportInterval the report interval
+   */
+  public void setReportInterval(long reportInterval) {
+    if (reportInterval < 1)
+      throw new IllegalArgumentException("Cannot set report interval to: " + reportInterval);
+    this.reportInterval = reportInterval;
+  }
+
+  /**
+   * Gets the workload used to drive the server
+   *
+   * @return the workload
+   */
+  public SyntheticWorkload getWorkload() {
+    return workload;
+  }
+
+  /**
+   * Sets the workload used to drive the server. The server must
+   * have had the same workload registered within its environment
+   *
+   * @param workload the workload
+   */
+  public void setWorkload(SyntheticWorkload workload) {
+    if (workload == null)
+      throw new IllegalArgumentException("Cannot set workload to null");
+    this.workload = workload;
+  }
+
+  /**
+   * Sets the stream to which reports are printed
+   *
+   * @param output the output stream
+   */
+  public void setOutput(PrintStream output) {
+    if (output == null)
+      throw new IllegalArgumentException("Cannot set output to null");
+    this.output = output;
+  }
+
+}
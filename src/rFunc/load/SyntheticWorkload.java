@@ -0,0 +1,174 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.load;
+
+import rFunc.method.ArgumentSpecification;
+import rFunc.method.Environment;
+import rFunc.method.JavaMethod;
+import rFunc.method.MethodSpecification;
+import rFunc.method.Namespace;
+import rFunc.value.StringValue;
+import rFunc.value.Value;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class SyntheticWorkload {
+
+  public static final String NAMESPACE = "load";
+
+  private static final ArgumentSpecification ARGUMENTS = ArgumentSpecification.parse("string payload");
+
+
+  /**
+   * Gets a workload made of a mix of cheap, medium and expensive
+   * calls with small, medium and large payloads, with the cheaper
+   * calls being made the most often
+   *
+   * @return the default workload
+   */
+  public static SyntheticWorkload getDefault() {
+    SyntheticWorkload ret = new SyntheticWorkload();
+
+    ret.add("tiny", 0, 16, 16, 70);
+    ret.add("small", 1000, 256, 64, 20);
+    ret.add("medium", 20000, 2048, 2048, 8);
+    ret.add("large", 200000, 16384, 32768, 2);
+
+    return ret;
+  }
+
+
+  private final LinkedList<SyntheticCall> calls = new LinkedList<>();
+  private int totalWeight = 0;
+
+  /**
+   * Creates an empty workload
+   */
+  public SyntheticWorkload() {}
+
+  /**
+   * Adds a call type to the workload
+   *
+   * @param name the name of the method registered for the call type
+   * @param iterations the amount of work done by the method per call
+   * @param requestLength the length of the string argument sent
+   * @param responseLength the length of the string returned
+   * @param weight the relative rate at which this call type is made
+   */
+  public void add(String name, int iterations, int requestLength, int responseLength, int weight) {
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+    if (iterations < 0 || requestLength < 0 || responseLength < 0)
+      throw new IllegalArgumentException("Iterations and lengths cannot be negative");
+    if (weight < 1)
+      throw new IllegalArgumentException("Weight must be positive");
+    for(SyntheticCall call : calls) {
+      if (call.name.equals(name))
+        throw new IllegalArgumentException("Workload already contains call: " + name);
+    }
+
+    calls.add(new SyntheticCall(name, iterations, requestLength, responseLength, weight));
+    totalWeight += weight;
+  }
+
+  /**
+   * Registers a method for each call type of this workload
+   * within the provided environment
+   *
+   * @param environment the environment into which the methods are registered
+   */
+  public void register(Environment environment) {
+    if (environment == null)
+      throw new IllegalArgumentException("Environment cannot be null");
+
+    environment.addNamespace(NAMESPACE);
+    Namespace namespace = environment.getNamespace(NAMESPACE);
+
+    for(SyntheticCall call : calls) {
+      namespace.add(new JavaMethod(
+              new MethodSpecification(ARGUMENTS, call.name, "Synthetic load method"),
+              values -> call.execute(((StringValue) values[0]).string)
+        ));
+    }
+  }
+
+  /**
+   * Picks a call type at random according to the weights of the call types
+   *
+   * @param random the source of randomness
+   * @return the chosen call type
+   */
+  SyntheticCall pick(Random random) {
+    if (calls.isEmpty())
+      throw new IllegalStateException("Workload contains no calls");
+
+    int point = random.nextInt(totalWeight);
+    for(SyntheticCall call : calls) {
+      point -= call.weight;
+      if (point < 0)
+        return call;
+    }
+
+    return calls.getLast();
+  }
+
+
+  static class SyntheticCall {
+
+    final String name;
+    final int iterations, requestLength, responseLength, weight;
+    final Value[] arguments;
+    private final StringValue response;
+
+    SyntheticCall(String name, int iterations, int requestLength, int responseLength, int weight) {
+      this.name = name;
+      this.iterations = iterations;
+      this.requestLength = requestLength;
+      this.responseLength = responseLength;
+      this.weight = weight;
+
+      arguments = new Value[] { new StringValue(repeat('q', requestLength)) };
+      response = new StringValue(repeat('r', responseLength));
+    }
+
+    StringValue execute(String payload) {
+      int hash = payload.hashCode();
+      for(int k = 0; k < iterations; k++) {
+        hash = hash * 31 + k;
+      }
+
+      return hash == 0 ? new StringValue(response.string) : response;
+    }
+
+    private static String repeat(char c, int length) {
+      StringBuilder sb = new StringBuilder(length);
+      for(int k = 0; k < length; k++) {
+        sb.append(c);
+      }
+
+      return sb.toString();
+    }
+
+  }
+
+}
@@ -247,6 +247,25 @@ public class ArgumentSpecification {
     }
   }
 
+  /**
+   * Checks whether or not the provided arguments are of the
+   * value types of this specification
+   *
+   * @param values the arguments
+   * @return true if the arguments match this specification
+   */
+  public boolean matches(Value[] values) {
+    if (values == null || values.length != array.length)
+      return false;
+
+    for(int k = 0; k < array.length; k++) {
+      if (values[k] == null || values[k].type != array[k])
+        return false;
+    }
+
+    return true;
+  }
+
   /**
    * Checks each value type against the provided value type
    *
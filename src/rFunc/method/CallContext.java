@@ -0,0 +1,246 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.method;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The context of a call being run by a server on behalf of a client.
+ *
+ * While a server invokes a method it attaches a context to the
+ * invoking thread, through which the method can learn how much of
+ * the caller's time budget remains and give up early once the caller
+ * has stopped waiting for the result.
+ *
+ * A call may also be cancelled by its caller. Cancelling a call
+ * interrupts the thread running it and runs any cancel listeners
+ * the method registered, such as one destroying a child process.
+ *
+ * A call made by subscription also carries the stream through which
+ * the method sends values to its subscriber before returning.
+ *
+ * Author:    LeqxLeqx
+ */
+public class CallContext {
+
+  private static final ThreadLocal<CallContext> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Gets the context of the call being run by the current thread
+   *
+   * @return the context, or null if the thread is not running a call
+   */
+  public static CallContext current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Attaches the provided context to the current thread. Should
+   * only be called by a server about to invoke a method
+   *
+   * @param context the context
+   */
+  public static void attach(CallContext context) {
+    if (context == null)
+      throw new IllegalArgumentException("Context cannot be null");
+
+    synchronized (context) {
+      context.thread = Thread.currentThread();
+    }
+    CURRENT.set(context);
+  }
+
+  /**
+   * Detaches any context from the current thread. If the call was
+   * cancelled, the interrupt raised by the cancellation is cleared
+   */
+  public static void detach() {
+    CallContext context = CURRENT.get();
+    CURRENT.remove();
+
+    if (context == null)
+      return;
+
+    synchronized (context) {
+      context.thread = null;
+      if (context.cancelled)
+        Thread.interrupted();
+    }
+  }
+
+
+  private final boolean hasDeadline;
+  private final long deadline;
+
+  private boolean cancelled = false;
+  private Thread thread = null;
+  private final LinkedList<Runnable> cancelListeners = new LinkedList<>();
+  volatile ResultStream stream = null;
+
+  /**
+   * Creates the context of a call without a deadline
+   */
+  public CallContext() {
+    hasDeadline = false;
+    deadline = 0;
+  }
+
+  /**
+   * Creates the context of a call with a deadline
+   *
+   * @param deadline the deadline, as a value of System.nanoTime()
+   */
+  public CallContext(long deadline) {
+    hasDeadline = true;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Gets whether or not the caller set a deadline for the call
+   *
+   * @return true if the call has a deadline
+   */
+  public boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  /**
+   * Gets the time remaining before the deadline of the call
+   *
+   * @param unit the unit of the returned time
+   * @return the remaining time, zero if the deadline has passed, or
+   * Long.MAX_VALUE if the call has no deadline
+   */
+  public long getRemainingTime(TimeUnit unit) {
+    if (!hasDeadline)
+      return Long.MAX_VALUE;
+
+    return unit.convert(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the stream through which the method sends values to its
+   * subscriber, if the call was made by subscription
+   *
+   * @return the result stream, or null if the call was not made by subscription
+   */
+  public ResultStream getStream() {
+    return stream;
+  }
+
+  /**
+   * Opens the stream of a call made by subscription, attaching it to
+   * this context. Should only be called by a server about to run the call
+   *
+   * @param credits the credits initially granted by the subscriber
+   * @param sink the destination of the values
+   * @return the result stream
+   */
+  public ResultStream openStream(int credits, ResultStream.Sink sink) {
+    if (credits < 0)
+      throw new IllegalArgumentException("Credits cannot be negative");
+    if (sink == null)
+      throw new IllegalArgumentException("Sink cannot be null");
+
+    ResultStream stream = new ResultStream(this, credits, sink);
+
+    synchronized (this) {
+      if (this.stream != null)
+        throw new IllegalStateException("Call already has a stream");
+      this.stream = stream;
+    }
+
+    addCancelListener(stream::wake);
+
+    return stream;
+  }
+
+  /**
+   * Gets whether or not the deadline of the call has passed
+   *
+   * @return true if the call has a deadline which has passed
+   */
+  public boolean isExpired() {
+    return hasDeadline && deadline - System.nanoTime() <= 0;
+  }
+
+  /**
+   * Cancels the call, interrupting the thread running it
+   * and running the registered cancel listeners
+   */
+  public void cancel() {
+    Runnable[] listeners;
+
+    synchronized (this) {
+      if (cancelled)
+        return;
+
+      cancelled = true;
+      if (thread != null)
+        thread.interrupt();
+
+      listeners = cancelListeners.toArray(new Runnable[cancelListeners.size()]);
+      cancelListeners.clear();
+    }
+
+    for(Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Gets whether or not the call has been cancelled
+   *
+   * @return true if the call has been cancelled
+   */
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Adds a listener run when the call is cancelled. If the call
+   * has already been cancelled, the listener is run immediately
+   *
+   * @param listener the listener
+   */
+  public void addCancelListener(Runnable listener) {
+    if (listener == null)
+      throw new IllegalArgumentException("Listener cannot be null");
+
+    synchronized (this) {
+      if (!cancelled) {
+        cancelListeners.add(listener);
+        return;
+      }
+    }
+
+    listener.run();
+  }
+
+  /**
+   * Removes a listener added to the call
+   *
+   * @param listener the listener
+   */
+  public synchronized void removeCancelListener(Runnable listener) {
+    cancelListeners.remove(listener);
+  }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.method;
+
+import rFunc.value.BinaryValue;
+import rFunc.value.StringValue;
+import rFunc.value.Value;
+import rFunc.value.ValueType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An executable method which returns the standard output of the
+ * executable rather than its exit code.
+ *
+ * The standard output and standard error of the process are drained
+ * on background threads into bounded buffers, so a process writing
+ * large amounts of output can never block on a full pipe. A process
+ * which runs longer than the call timeout, or which writes more
+ * output than the output limit allows, is killed and the call fails
+ * with an invocation exception. A call made with a deadline is given
+ * no longer than the time remaining before that deadline. A process
+ * which exits with a non-zero exit code also fails the call, the start
+ * of its standard error being given in the exception message. So does a
+ * process whose standard output is still held open by another process
+ * once the deadline has passed, rather than return part of its output.
+ *
+ * Author:    LeqxLeqx
+ */
+public class CapturingExecutableMethod extends Method {
+
+  public static final long DEFAULT_TIMEOUT = 10000;
+  public static final int DEFAULT_MAXIMUM_OUTPUT_LENGTH = 1 << 20;
+  public static final int MAXIMUM_ERROR_LENGTH = 4096;
+
+  private static final long DRAIN_GRACE = 100;
+
+  private static final ExecutorService DRAIN_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "rFunc executable output");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+
+  final File executablePath;
+  private final ValueType outputType;
+  private final long timeout;
+  private final int maximumOutputLength;
+
+  /**
+   * Creates a capturing executable method wrapper returning its output
+   * as a string, with the default timeout and output limit
+   *
+   * @param methodSpecification method specification
+   * @param executablePath the path of the executable to be run
+   */
+  public CapturingExecutableMethod(MethodSpecification methodSpecification, File executablePath) {
+    this(methodSpecification, executablePath, ValueType.STRING, DEFAULT_TIMEOUT, DEFAULT_MAXIMUM_OUTPUT_LENGTH);
+  }
+
+  /**
+   * Creates a capturing executable method wrapper
+   *
+   * @param methodSpecification method specification
+   * @param executablePath the path of the executable to be run
+   * @param outputType the type of the returned output, either string or binary
+   * @param timeout the time in milliseconds after which a call is killed
+   * @param maximumOutputLength the maximum length in bytes of the output
+   */
+  public CapturingExecutableMethod(MethodSpecification methodSpecification, File executablePath, ValueType outputType, long timeout, int maximumOutputLength) {
+    super(methodSpecification);
+
+    if (!methodSpecification.argumentSpecification.isAll(ValueType.STRING))
+      throw new IllegalArgumentException("Executable type method argument specification cannot contain non-string value types");
+
+    if (executablePath == null)
+      throw new IllegalArgumentException("Executable path cannot be null");
+    if (outputType != ValueType.STRING && outputType != ValueType.BINARY)
+      throw new IllegalArgumentException("Output type must be string or binary");
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive");
+    if (maximumOutputLength < 0)
+      throw new IllegalArgumentException("Maximum output length cannot be negative");
+
+    this.executablePath = executablePath;
+    this.outputType = outputType;
+    this.timeout = timeout;
+    this.maximumOutputLength = maximumOutputLength;
+  }
+
+  /**
+   * Invokes the method
+   *
+   * @param values Arguments to the method
+   * @return the standard output of the executable
+   * @throws InvocationException if the executable could not be run,
+   * timed out, wrote too much output or exited with a non-zero code
+   */
+  @Override
+  public Value invoke(Value[] values) throws InvocationException {
+
+    String[] arguments = new String[values.length + 1];
+    arguments[0] = executablePath.getAbsolutePath();
+    for(int k = 0; k < values.length; k++) {
+      arguments[k + 1] = values[k].toString();
+    }
+
+    long budget = Math.min(timeout, getCallBudget());
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+    Process process;
+
+    try {
+      process = new ProcessBuilder(arguments).start();
+      process.getOutputStream().close();
+    } catch (IOException e) {
+      throw new InvocationException("Failed to start executable: %s", e.getMessage());
+    }
+
+    OutputBuffer output = new OutputBuffer(process, maximumOutputLength, true);
+    OutputBuffer error = new OutputBuffer(process, MAXIMUM_ERROR_LENGTH, false);
+    Future<?> outputDrain = DRAIN_EXECUTOR.submit(() -> output.drain(process.getInputStream()));
+    Future<?> errorDrain = DRAIN_EXECUTOR.submit(() -> error.drain(process.getErrorStream()));
+
+    int exitCode;
+
+    try {
+
+      if (!process.waitFor(remaining(deadline), TimeUnit.NANOSECONDS)) {
+        ExecutableMethod.destroy(process);
+        throw new InvocationException("Executable timed out after %d ms", budget);
+      }
+
+      exitCode = process.exitValue();
+      if (!await(outputDrain, deadline)) {
+        ExecutableMethod.destroy(process);
+        throw new InvocationException("Executable output not fully read before deadline");
+      }
+      await(errorDrain, deadline);
+
+    } catch (InterruptedException e) {
+
+      ExecutableMethod.destroy(process);
+      Thread.currentThread().interrupt();
+      throw new InvocationException("Executable call interrupted");
+
+    } finally {
+
+      outputDrain.cancel(true);
+      errorDrain.cancel(true);
+
+    }
+
+    if (output.overflowed)
+      throw new InvocationException("Executable output exceeded %d bytes", maximumOutputLength);
+    if (exitCode != 0)
+      throw new InvocationException("Executable exited with code %d: %s", exitCode, error.toString().trim());
+
+    if (outputType == ValueType.BINARY)
+      return new BinaryValue(output.toByteArray());
+    else
+      return new StringValue(output.toString());
+  }
+
+  /**
+   * Gets the type of the value returned by this method
+   *
+   * @return the output type
+   */
+  public ValueType getOutputType() {
+    return outputType;
+  }
+
+  /**
+   * Gets the time in milliseconds after which a call is killed
+   *
+   * @return the timeout
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Gets the maximum length in bytes of the output of a call
+   *
+   * @return the maximum output length
+   */
+  public int getMaximumOutputLength() {
+    return maximumOutputLength;
+  }
+
+
+  private static long getCallBudget() {
+    CallContext context = CallContext.current();
+    return context == null ? Long.MAX_VALUE : context.getRemainingTime(TimeUnit.MILLISECONDS);
+  }
+
+  private static long remaining(long deadline) {
+    return Math.max(0, deadline - System.nanoTime());
+  }
+
+  /**
+   * Waits for a drain to read the rest of the output of a process which
+   * has exited. The drain is given a short grace period even once the
+   * deadline has passed, as the process may have exited just before it
+   *
+   * @return true if all of the output was read, false if it is still
+   * held open, such as by a process the executable left behind
+   */
+  private static boolean await(Future<?> drain, long deadline) throws InterruptedException, InvocationException {
+    try {
+      drain.get(Math.max(remaining(deadline), TimeUnit.MILLISECONDS.toNanos(DRAIN_GRACE)), TimeUnit.NANOSECONDS);
+      return true;
+    } catch (ExecutionException e) {
+      throw new InvocationException("Failed to read executable output: %s", e.getCause().getMessage());
+    } catch (TimeoutException e) {
+      return false;
+    }
+  }
+
+
+  private static class OutputBuffer {
+
+    final Process process;
+    final int limit;
+    final boolean killOnOverflow;
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    volatile boolean overflowed = false;
+
+    OutputBuffer(Process process, int limit, boolean killOnOverflow) {
+      this.process = process;
+      this.limit = limit;
+      this.killOnOverflow = killOnOverflow;
+    }
+
+    Void drain(InputStream is) throws IOException {
+      byte[] chunk = new byte[4096];
+      int read;
+
+      try {
+        while((read = is.read(chunk)) >= 0) {
+          int accepted;
+          synchronized (buffer) {
+            accepted = Math.min(read, limit - buffer.size());
+            buffer.write(chunk, 0, accepted);
+          }
+
+          if (accepted < read && !overflowed) {
+            overflowed = true;
+            if (killOnOverflow) {
+              ExecutableMethod.destroy(process);
+              return null;
+            }
+          }
+        }
+      } finally {
+        is.close();
+      }
+
+      return null;
+    }
+
+    byte[] toByteArray() {
+      synchronized (buffer) {
+        return buffer.toByteArray();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return new String(toByteArray(), StandardCharsets.UTF_8);
+    }
+
+  }
+
+}
@@ -20,6 +20,7 @@ package rFunc.method;
 
 import rFunc.value.Value;
 
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -30,12 +31,17 @@ public class Environment {
 
   private LinkedList<Namespace> namespaces = new LinkedList<>();
 
+  private final int tableIdentifier = new SecureRandom().nextInt() & Integer.MAX_VALUE;
+  private volatile Method[] methodTable = new Method[16];
+  private volatile Namespace[] namespaceTable = new Namespace[16];
+  private int methodTableTop = 0;
+
 
   /**
    * Creates a new environment object
    */
   public Environment() {
-    namespaces.add(new Namespace(""));
+    namespaces.add(new Namespace("", this));
   }
 
 
@@ -117,6 +123,84 @@ public class Environment {
   }
 
 
+  /**
+   * Invokes the method of the provided id with the provided
+   * arguments. Ids are assigned when methods are added to one
+   * of the environment's namespaces and are never reused
+   *
+   * @param methodID the id of the method
+   * @param values arguments to the method
+   * @return the value returned by the method
+   * @throws InvocationException
+   */
+  public Value invoke(int methodID, Value[] values) throws InvocationException {
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+
+    Method[] table = methodTable;
+    Method method = methodID >= 0 && methodID < table.length ? table[methodID] : null;
+
+    if (method == null)
+      throw new InvocationException("No such method id %d", methodID);
+    if (!method.methodSpecification.argumentSpecification.matches(values))
+      throw new InvocationException("Arguments do not match method '%s'", method.methodSpecification);
+
+    return method.invoke(values);
+  }
+
+  /**
+   * Gets the namespace containing the method of the provided id
+   *
+   * @param methodID the id of the method
+   * @return the namespace of the method, or null if no method has the id
+   */
+  public Namespace getNamespaceOf(int methodID) {
+    Namespace[] table = namespaceTable;
+    return methodID >= 0 && methodID < table.length ? table[methodID] : null;
+  }
+
+  /**
+   * Gets the identifier of this environment's method table. Method
+   * ids are only meaningful alongside the identifier of the table
+   * which assigned them, which differs between environments
+   *
+   * @return the method table identifier
+   */
+  public int getTableIdentifier() {
+    return tableIdentifier;
+  }
+
+  synchronized int assignID(Namespace namespace, Method method) {
+    Method[] table = methodTable;
+    Namespace[] namespaces = namespaceTable;
+
+    if (methodTableTop == table.length) {
+      table = Arrays.copyOf(table, table.length * 2);
+      namespaces = Arrays.copyOf(namespaces, namespaces.length * 2);
+    }
+    else {
+      table = table.clone();
+      namespaces = namespaces.clone();
+    }
+
+    table[methodTableTop] = method;
+    namespaces[methodTableTop] = namespace;
+    namespaceTable = namespaces;
+    methodTable = table;
+
+    return methodTableTop++;
+  }
+
+  synchronized void releaseID(int methodID) {
+    Method[] table = methodTable.clone();
+    Namespace[] namespaces = namespaceTable.clone();
+    table[methodID] = null;
+    namespaces[methodID] = null;
+    methodTable = table;
+    namespaceTable = namespaces;
+  }
+
+
   /**
    * Gets an array representing the names of the
    * namespaces
@@ -158,7 +242,7 @@ public class Environment {
    */
   public void addNamespace(String name) {
     if(getNamespace(name) == null) {
-      namespaces.add(new Namespace(name));
+      namespaces.add(new Namespace(name, this));
     }
   }
 
@@ -170,7 +254,7 @@ public class Environment {
   public void removeNamespace(String name) {
     for(int k = 0; k < namespaces.size(); k++) {
       if (namespaces.get(k).name.equals(name)) {
-        namespaces.remove(k);
+        namespaces.remove(k).removeAll();
         k--;
       }
     }
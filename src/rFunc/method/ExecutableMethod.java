@@ -66,10 +66,11 @@ public class ExecutableMethod extends Method {
     }
 
     ProcessBuilder processBuilder = new ProcessBuilder(arguments);
+    Process process = null;
 
     try {
 
-      Process process = processBuilder.start();
+      process = processBuilder.start();
       int ret = process.waitFor();
       return new Int32(ret);
 
@@ -79,9 +80,21 @@ public class ExecutableMethod extends Method {
 
     } catch (InterruptedException e) {
 
+      destroy(process);
       return new Int32(-2);
 
     }
 
   }
+
+  /**
+   * Forcibly destroys the provided process along with any
+   * processes it started, which would otherwise be left running
+   *
+   * @param process the process
+   */
+  static void destroy(Process process) {
+    process.descendants().forEach(ProcessHandle::destroyForcibly);
+    process.destroyForcibly();
+  }
 }
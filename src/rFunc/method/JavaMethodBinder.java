@@ -0,0 +1,263 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.method;
+
+import rFunc.value.BooleanValue;
+import rFunc.value.Float32;
+import rFunc.value.Float64;
+import rFunc.value.Int16;
+import rFunc.value.Int32;
+import rFunc.value.Int64;
+import rFunc.value.Int8;
+import rFunc.value.StringValue;
+import rFunc.value.Value;
+import rFunc.value.ValueType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class JavaMethodBinder {
+
+  private static final Class<?>[] JAVA_TYPES = {
+          boolean.class, byte.class, short.class, int.class, long.class, float.class, double.class, String.class,
+  };
+
+  private static final Class<?>[] VALUE_CLASSES = {
+          BooleanValue.class, Int8.class, Int16.class, Int32.class, Int64.class, Float32.class, Float64.class, StringValue.class,
+  };
+
+  private static final ValueType[] VALUE_TYPES = {
+          ValueType.BOOLEAN, ValueType.INT8, ValueType.INT16, ValueType.INT32, ValueType.INT64, ValueType.FLOAT32, ValueType.FLOAT64, ValueType.STRING,
+  };
+
+  private static final MethodHandle[] UNWRAPPERS = new MethodHandle[JAVA_TYPES.length];
+  private static final MethodHandle[] WRAPPERS = new MethodHandle[JAVA_TYPES.length];
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    try {
+
+      for(int k = 0; k < JAVA_TYPES.length; k++) {
+        String field = JAVA_TYPES[k] == String.class ? "string" : "value";
+
+        UNWRAPPERS[k] = lookup.findGetter(VALUE_CLASSES[k], field, JAVA_TYPES[k])
+                .asType(MethodType.methodType(JAVA_TYPES[k], Value.class));
+
+        WRAPPERS[k] = JAVA_TYPES[k] == String.class
+                ? lookup.findStatic(JavaMethodBinder.class, "wrapString", MethodType.methodType(Value.class, String.class))
+                : lookup.findStatic(Value.class, "get", MethodType.methodType(VALUE_CLASSES[k], JAVA_TYPES[k]))
+                        .asType(MethodType.methodType(Value.class, JAVA_TYPES[k]));
+      }
+
+    } catch (NoSuchFieldException | NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /**
+   * Registers every method of the provided object which is marked with
+   * the RemoteFunction annotation into the namespace. Every such method
+   * must be public and declared by a public class, otherwise nothing is
+   * registered and an IllegalArgumentException naming the method is
+   * thrown. The argument
+   * specification of each method is derived from its parameter types,
+   * which, as with its return type, must each be a primitive type, a String,
+   * or one of the Value classes.
+   *
+   * Each method is called through a method handle which unwraps its
+   * arguments directly from the fields of the values provided and wraps
+   * its return value, so no reflection takes place per call. Argument
+   * names are those of the parameters if the class was compiled with
+   * parameter names retained
+   *
+   * @param namespace the namespace into which the methods are registered
+   * @param target the object whose methods are registered
+   * @return the specifications of the methods registered
+   */
+  public static MethodSpecification[] bind(Namespace namespace, Object target) {
+    return bind(namespace, target, MethodHandles.publicLookup());
+  }
+
+  /**
+   * Registers every method of the provided object which is marked with the
+   * RemoteFunction annotation into the namespace, accessing them through
+   * the provided lookup. Passing a lookup created within the target's own
+   * class allows non-public methods, and methods of non-public classes, to
+   * be registered. If any marked method is not accessible to the lookup,
+   * nothing is registered and an IllegalArgumentException naming the
+   * method is thrown
+   *
+   * @param namespace the namespace into which the methods are registered
+   * @param target the object whose methods are registered
+   * @param lookup the lookup through which the methods are accessed
+   * @return the specifications of the methods registered
+   */
+  public static MethodSpecification[] bind(Namespace namespace, Object target, MethodHandles.Lookup lookup) {
+    if (namespace == null)
+      throw new IllegalArgumentException("Namespace cannot be null");
+    if (target == null)
+      throw new IllegalArgumentException("Target cannot be null");
+    if (lookup == null)
+      throw new IllegalArgumentException("Lookup cannot be null");
+
+    LinkedList<java.lang.reflect.Method> annotated = new LinkedList<>();
+    HashSet<String> signatures = new HashSet<>();
+
+    for(Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+      for(java.lang.reflect.Method m : c.getDeclaredMethods()) {
+        if (
+                m.isAnnotationPresent(RemoteFunction.class) &&
+                !m.isBridge() &&
+                signatures.add(m.getName() + Arrays.toString(m.getParameterTypes()))
+                )
+          annotated.add(m);
+      }
+    }
+
+    annotated.sort(Comparator.comparing(java.lang.reflect.Method::toGenericString));
+
+    LinkedList<JavaMethod> methods = new LinkedList<>();
+    for(java.lang.reflect.Method m : annotated) {
+      methods.add(create(target, m, lookup));
+    }
+
+    for(JavaMethod method : methods) {
+      if (namespace.contains(method.methodSpecification))
+        throw new IllegalArgumentException("Namespace already contains method: " + method.methodSpecification);
+    }
+
+    MethodSpecification[] ret = new MethodSpecification[methods.size()];
+    int top = 0;
+    for(JavaMethod method : methods) {
+      namespace.add(method);
+      ret[top++] = method.methodSpecification;
+    }
+
+    return ret;
+  }
+
+
+  private static JavaMethod create(Object target, java.lang.reflect.Method m, MethodHandles.Lookup lookup) {
+    RemoteFunction annotation = m.getAnnotation(RemoteFunction.class);
+    Parameter[] parameters = m.getParameters();
+
+    ValueType[] valueTypes = new ValueType[parameters.length];
+    String[] names = new String[parameters.length];
+    MethodHandle[] unwrappers = new MethodHandle[parameters.length];
+
+    for(int k = 0; k < parameters.length; k++) {
+      int index = indexOf(parameters[k].getType());
+      if (index == -1)
+        throw new IllegalArgumentException(String.format("Cannot bind parameter '%s' of method '%s'", parameters[k], m));
+
+      valueTypes[k] = VALUE_TYPES[index % VALUE_TYPES.length];
+      names[k] = parameters[k].isNamePresent() ? parameters[k].getName() : String.format("arg%d", k);
+      unwrappers[k] = index < JAVA_TYPES.length
+              ? UNWRAPPERS[index]
+              : MethodHandles.identity(Value.class).asType(MethodType.methodType(parameters[k].getType(), Value.class));
+    }
+
+    int returnIndex = indexOf(m.getReturnType());
+    if (returnIndex == -1 && !Value.class.isAssignableFrom(m.getReturnType()))
+      throw new IllegalArgumentException(String.format("Cannot bind return type of method '%s'", m));
+
+    MethodSpecification spec = new MethodSpecification(
+            new ArgumentSpecification(valueTypes, names),
+            annotation.name().isEmpty() ? m.getName() : annotation.name(),
+            annotation.description()
+      );
+
+    MethodHandle handle;
+    try {
+      handle = lookup.unreflect(m);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(String.format("Cannot bind method '%s' of %s, as it is not accessible to the lookup", m.getName(), m.getDeclaringClass().getName()), e);
+    }
+
+    if (!Modifier.isStatic(m.getModifiers()))
+      handle = handle.bindTo(target);
+
+    handle = MethodHandles.filterArguments(handle, 0, unwrappers);
+
+    if (returnIndex != -1 && returnIndex < JAVA_TYPES.length)
+      handle = MethodHandles.filterReturnValue(handle, WRAPPERS[returnIndex]);
+
+    MethodHandle invoker = handle
+            .asType(MethodType.methodType(Value.class, Collections.nCopies(parameters.length, Value.class)))
+            .asSpreader(Value[].class, parameters.length);
+
+    return new JavaMethod(spec, new BoundMethodInterface(spec, invoker));
+  }
+
+  private static int indexOf(Class<?> type) {
+    for(int k = 0; k < JAVA_TYPES.length; k++) {
+      if (JAVA_TYPES[k] == type)
+        return k;
+    }
+
+    for(int k = 0; k < VALUE_CLASSES.length; k++) {
+      if (VALUE_CLASSES[k] == type)
+        return JAVA_TYPES.length + k;
+    }
+
+    return -1;
+  }
+
+  private static Value wrapString(String string) {
+    return string == null ? null : new StringValue(string);
+  }
+
+
+  private static class BoundMethodInterface implements JavaMethodInterface {
+
+    private final MethodSpecification methodSpecification;
+    private final MethodHandle invoker;
+
+    BoundMethodInterface(MethodSpecification methodSpecification, MethodHandle invoker) {
+      this.methodSpecification = methodSpecification;
+      this.invoker = invoker;
+    }
+
+    @Override
+    public Value invoke(Value[] values) throws InvocationException {
+      try {
+        return (Value) invoker.invokeExact(values);
+      } catch (InvocationException | RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new InvocationException("Method '%s' threw %s", methodSpecification, t);
+      }
+    }
+
+  }
+
+}
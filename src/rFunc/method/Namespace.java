@@ -18,6 +18,7 @@
 
 package rFunc.method;
 
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 
 /**
@@ -28,6 +29,8 @@ public class Namespace {
   public final String name;
 
   private LinkedList<Method> methods = new LinkedList<>();
+  private final IdentityHashMap<Method, Integer> ids = new IdentityHashMap<>();
+  private final Environment environment;
 
   /**
    * Creates an empty namespace of the provided name
@@ -35,10 +38,15 @@ public class Namespace {
    * @param name name of the namespace
    */
   public Namespace(String name) {
+    this(name, null);
+  }
+
+  Namespace(String name, Environment environment) {
     if (name == null)
       throw new IllegalArgumentException("Name cannot be null");
 
     this.name = name;
+    this.environment = environment;
   }
 
   /**
@@ -86,7 +94,7 @@ public class Namespace {
    *
    * @return an array of the method specifications
    */
-  public MethodSpecification[] list() {
+  public synchronized MethodSpecification[] list() {
     LinkedList<MethodSpecification> ret = new LinkedList<>();
 
     for(Method m : methods) {
@@ -96,6 +104,24 @@ public class Namespace {
     return ret.toArray(new MethodSpecification[ret.size()]);
   }
 
+  /**
+   * Lists the ids assigned to the methods contained within the
+   * namespace by its environment, in the same order as list()
+   *
+   * @return an array of the method ids, each -1 if the namespace has no environment
+   */
+  public synchronized int[] listIDs() {
+    int[] ret = new int[methods.size()];
+    int top = 0;
+
+    for(Method m : methods) {
+      Integer id = ids.get(m);
+      ret[top++] = id == null ? -1 : id;
+    }
+
+    return ret;
+  }
+
   /**
    * Gets the method of the indicated name and
    * the argument specification
@@ -117,7 +143,7 @@ public class Namespace {
    * Adds the provided method to this namespace
    * @param method the method to add
    */
-  public void add(Method method) {
+  public synchronized void add(Method method) {
     if (method == null)
       throw new IllegalArgumentException("Method cannot be null");
 
@@ -125,6 +151,8 @@ public class Namespace {
       throw new IllegalArgumentException("Namespace already contains method");
 
     methods.add(method);
+    if (environment != null)
+      ids.put(method, environment.assignID(this, method));
   }
 
 
@@ -148,13 +176,13 @@ public class Namespace {
    * @param name the name of the method to remove
    * @param argSpec argument specification of the method to remove
    */
-  public void remove(String name, ArgumentSpecification argSpec) {
+  public synchronized void remove(String name, ArgumentSpecification argSpec) {
     for(int k = 0; k < methods.size(); k++) {
       if (
           methods.get(k).methodSpecification.argumentSpecification.equals(argSpec) &&
           methods.get(k).methodSpecification.name.equals(name)
           ) {
-        methods.remove(k);
+        release(methods.remove(k));
         k = methods.size();
       }
     }
@@ -163,9 +191,18 @@ public class Namespace {
   /**
    * Removes all the methods from this namespace
    */
-  public void removeAll() {
+  public synchronized void removeAll() {
+    for(Method method : methods) {
+      release(method);
+    }
     methods.clear();
   }
 
+  private void release(Method method) {
+    Integer id = ids.remove(method);
+    if (id != null)
+      environment.releaseID(id);
+  }
+
 
 }
@@ -0,0 +1,247 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.method;
+
+import rFunc.value.Int32;
+import rFunc.value.Value;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An executable method which keeps a pool of long-lived worker
+ * processes rather than starting a new process for every call.
+ *
+ * Each worker is started once and then serves any number of calls
+ * over its standard input and output. A call is written as a single
+ * line holding the arguments separated by tab characters, in which
+ * backslashes, tabs, carriage returns and newlines are escaped as
+ * '\\', '\t', '\r' and '\n'. The worker answers each call with a
+ * single line holding an integer, which is returned as the result of
+ * the call. The standard error of the workers is inherited from the
+ * server process.
+ *
+ * A worker which exits or breaks the protocol is discarded and
+ * replaced by a new one on a later call. At most the configured
+ * number of calls run at once, further calls waiting for a worker
+ * to become free. A worker running a call which is cancelled is
+ * destroyed.
+ *
+ * Author:    LeqxLeqx
+ */
+public class PooledExecutableMethod extends ExecutableMethod {
+
+  private final int maximumWorkers;
+  private final Semaphore permits;
+  private final LinkedBlockingDeque<Worker> idleWorkers = new LinkedBlockingDeque<>();
+  private volatile boolean shutdown = false;
+
+  /**
+   * Creates a pooled executable method wrapper
+   *
+   * @param methodSpecification method specification
+   * @param executablePath the path of the executable run by each worker
+   * @param maximumWorkers the maximum number of workers, and so of concurrent calls
+   */
+  public PooledExecutableMethod(MethodSpecification methodSpecification, File executablePath, int maximumWorkers) {
+    super(methodSpecification, executablePath);
+
+    if (maximumWorkers < 1)
+      throw new IllegalArgumentException("Maximum workers must be positive");
+
+    this.maximumWorkers = maximumWorkers;
+    this.permits = new Semaphore(maximumWorkers, true);
+  }
+
+  /**
+   * Invokes the method on a free worker, starting one if
+   * none is available
+   *
+   * @param values Arguments to the method
+   * @return the result given by the worker, -1 if the worker
+   * failed or could not be started and -2 if interrupted
+   */
+  @Override
+  public Int32 invoke(Value[] values) {
+    if (shutdown)
+      return new Int32(-1);
+
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new Int32(-2);
+    }
+
+    Worker worker = null;
+
+    try {
+
+      worker = obtainWorker();
+
+      Worker callWorker = worker;
+      Runnable cancelListener = callWorker::destroy;
+      CallContext context = CallContext.current();
+      if (context != null)
+        context.addCancelListener(cancelListener);
+
+      int ret;
+      try {
+        ret = callWorker.call(values);
+      } finally {
+        if (context != null)
+          context.removeCancelListener(cancelListener);
+      }
+
+      if (!shutdown) {
+        idleWorkers.addFirst(worker);
+
+        // shutdown may have drained the idle workers between the check
+        // and the add, in which case the worker is taken back out here
+        if (!shutdown || !idleWorkers.remove(worker))
+          worker = null;
+      }
+
+      return new Int32(ret);
+
+    } catch (IOException e) {
+
+      return new Int32(-1);
+
+    } finally {
+      if (worker != null)
+        worker.destroy();
+      permits.release();
+    }
+
+  }
+
+  /**
+   * Stops every worker. Calls made after the method has been
+   * shut down fail
+   */
+  public void shutdown() {
+    shutdown = true;
+
+    Worker worker;
+    while((worker = idleWorkers.pollFirst()) != null) {
+      worker.destroy();
+    }
+  }
+
+  /**
+   * Gets the maximum number of workers
+   *
+   * @return the maximum number of workers
+   */
+  public int getMaximumWorkers() {
+    return maximumWorkers;
+  }
+
+  /**
+   * Gets the number of workers currently waiting for a call
+   *
+   * @return the number of idle workers
+   */
+  public int getIdleWorkerCount() {
+    return idleWorkers.size();
+  }
+
+
+  private Worker obtainWorker() throws IOException {
+    Worker worker;
+
+    while((worker = idleWorkers.pollFirst()) != null) {
+      if (worker.process.isAlive())
+        return worker;
+      worker.destroy();
+    }
+
+    ProcessBuilder processBuilder = new ProcessBuilder(executablePath.getAbsolutePath());
+    processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+    return new Worker(processBuilder.start());
+  }
+
+  static String encode(Value[] values) {
+    StringBuilder sb = new StringBuilder();
+
+    for(int k = 0; k < values.length; k++) {
+      if (k != 0)
+        sb.append('\t');
+
+      String string = values[k].toString();
+      for(int i = 0; i < string.length(); i++) {
+        char c = string.charAt(i);
+        switch (c) {
+          case '\\': sb.append("\\\\"); break;
+          case '\t': sb.append("\\t"); break;
+          case '\r': sb.append("\\r"); break;
+          case '\n': sb.append("\\n"); break;
+          default: sb.append(c);
+        }
+      }
+    }
+
+    return sb.toString();
+  }
+
+
+  private static class Worker {
+
+    final Process process;
+    final BufferedWriter input;
+    final BufferedReader output;
+
+    Worker(Process process) {
+      this.process = process;
+      input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+      output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    int call(Value[] values) throws IOException {
+      input.write(encode(values));
+      input.write('\n');
+      input.flush();
+
+      String line = output.readLine();
+      if (line == null)
+        throw new IOException("Worker exited");
+
+      try {
+        return Integer.parseInt(line.trim());
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed worker response: " + line);
+      }
+    }
+
+    void destroy() {
+      ExecutableMethod.destroy(process);
+    }
+
+  }
+
+}
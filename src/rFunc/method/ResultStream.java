@@ -0,0 +1,151 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.method;
+
+import rFunc.value.Value;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stream through which a method called by subscription sends
+ * values to its subscriber before returning, such as progress updates
+ * or lines of a followed file. Once the method returns, its return
+ * value ends the stream.
+ *
+ * The subscriber grants credits for the values it is ready to take.
+ * Once these are spent, emitting waits until more are granted, so a
+ * slow subscriber holds the method back rather than have its values
+ * pile up in the server.
+ *
+ * Author:    LeqxLeqx
+ */
+public class ResultStream {
+
+  /**
+   * Destination of the values of a stream, such as a connection
+   */
+  public interface Sink {
+
+    void send(Value value) throws IOException;
+
+  }
+
+
+  private final CallContext context;
+  private final Sink sink;
+
+  private long credits;
+  private long emittedCount = 0;
+
+  /**
+   * Creates the stream of a call made by subscription. The stream is
+   * attached to the context of the call by CallContext.openStream
+   *
+   * @param context the context of the call
+   * @param credits the credits initially granted by the subscriber
+   * @param sink the destination of the values
+   */
+  ResultStream(CallContext context, int credits, Sink sink) {
+    this.context = context;
+    this.credits = credits;
+    this.sink = sink;
+  }
+
+  /**
+   * Sends a value to the subscriber, first waiting for a credit if
+   * none remain. Values are received in the order they are emitted
+   *
+   * @param value the value
+   * @throws InvocationException if the subscription is cancelled or lost, or its deadline passes
+   */
+  public void emit(Value value) throws InvocationException {
+    if (value == null)
+      throw new IllegalArgumentException("Value cannot be null");
+
+    synchronized (this) {
+      while(credits == 0 && !context.isCancelled() && !context.isExpired()) {
+        try {
+          if (context.hasDeadline())
+            wait(Math.max(1, context.getRemainingTime(TimeUnit.MILLISECONDS)));
+          else
+            wait();
+        } catch (InterruptedException e) {
+          if (!context.isCancelled()) {
+            Thread.currentThread().interrupt();
+            throw new InvocationException("Interrupted awaiting credits");
+          }
+        }
+      }
+
+      if (context.isCancelled())
+        throw new InvocationException("Subscription cancelled");
+      if (context.isExpired())
+        throw new InvocationException("Subscription expired");
+
+      credits--;
+      emittedCount++;
+    }
+
+    try {
+      sink.send(value);
+    } catch (IOException e) {
+      context.cancel();
+      throw new InvocationException("Subscriber lost: %s", e.getMessage());
+    }
+  }
+
+  /**
+   * Grants the stream more credits, waking a method waiting to emit.
+   * Should only be called by a server on behalf of the subscriber
+   *
+   * @param credits the number of credits granted
+   */
+  public synchronized void grant(int credits) {
+    if (credits <= 0)
+      throw new IllegalArgumentException("Credits must be positive");
+
+    this.credits += credits;
+    notifyAll();
+  }
+
+  /**
+   * Gets the number of values which may be emitted before
+   * the subscriber must grant more credits
+   *
+   * @return the remaining credits
+   */
+  public synchronized long getCredits() {
+    return credits;
+  }
+
+  /**
+   * Gets the number of values emitted to the stream
+   *
+   * @return the emitted count
+   */
+  public synchronized long getEmittedCount() {
+    return emittedCount;
+  }
+
+  synchronized void wake() {
+    notifyAll();
+  }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit on the number of calls a server runs at once.
+ *
+ * The limit follows an additive-increase, multiplicative-decrease rule
+ * driven by the latency of each call. A call completing within the
+ * latency threshold raises the limit by one, provided the limit was
+ * at least half in use. A call exceeding the threshold cuts the limit
+ * by the backoff ratio, once for each episode of congestion: only a
+ * call which started after the previous cut may cut the limit again,
+ * so the calls slowed by a single pause cut it but once. Calls
+ * arriving while the limit is reached are
+ * refused, and the server answers them at once with an overloaded
+ * error rather than letting them queue.
+ *
+ * Author:    LeqxLeqx
+ */
+public class AdmissionController {
+
+  public static final double BACKOFF_RATIO = 0.9;
+  private static final double LATENCY_SMOOTHING = 0.1;
+
+  private final int minimumLimit, maximumLimit;
+  private final long latencyThreshold;
+
+  private double limit;
+  private int inFlight = 0;
+  private double averageLatency = 0;
+  private long lastDecrease = System.nanoTime();
+  private long admittedCount = 0, rejectedCount = 0;
+
+  /**
+   * Creates a new admission controller
+   *
+   * @param initialLimit the limit before any call has completed
+   * @param minimumLimit the lowest the limit may fall to
+   * @param maximumLimit the highest the limit may rise to
+   * @param latencyThreshold the latency in milliseconds above which the limit is cut
+   */
+  public AdmissionController(int initialLimit, int minimumLimit, int maximumLimit, long latencyThreshold) {
+    if (minimumLimit < 1)
+      throw new IllegalArgumentException("Minimum limit must be positive");
+    if (maximumLimit < minimumLimit)
+      throw new IllegalArgumentException("Maximum limit cannot be less than minimum limit");
+    if (initialLimit < minimumLimit || initialLimit > maximumLimit)
+      throw new IllegalArgumentException("Initial limit must be between the minimum and maximum limits");
+    if (latencyThreshold <= 0)
+      throw new IllegalArgumentException("Latency threshold must be positive");
+
+    this.limit = initialLimit;
+    this.minimumLimit = minimumLimit;
+    this.maximumLimit = maximumLimit;
+    this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+  }
+
+  /**
+   * Admits a call if the limit allows it. Each admitted call must
+   * later be released
+   *
+   * @return true if the call was admitted
+   */
+  synchronized boolean tryAcquire() {
+    if (inFlight >= (int) limit) {
+      rejectedCount++;
+      return false;
+    }
+
+    inFlight++;
+    admittedCount++;
+    return true;
+  }
+
+  /**
+   * Releases a completed call, adjusting the limit by its latency
+   *
+   * @param latency the time in nanoseconds since the call started
+   */
+  synchronized void release(long latency) {
+    boolean saturated = inFlight * 2 >= limit;
+    inFlight--;
+
+    averageLatency = averageLatency == 0
+            ? latency
+            : averageLatency + LATENCY_SMOOTHING * (latency - averageLatency);
+
+    long now = System.nanoTime();
+
+    if (latency > latencyThreshold) {
+      if (now - latency - lastDecrease > 0) {
+        limit = Math.max(minimumLimit, limit * BACKOFF_RATIO);
+        lastDecrease = now;
+      }
+    }
+    else if (saturated)
+      limit = Math.min(maximumLimit, limit + 1);
+  }
+
+  /**
+   * Releases an admitted call which was never run, leaving the
+   * limit unchanged
+   */
+  synchronized void release() {
+    inFlight--;
+  }
+
+  /**
+   * Gets the time in milliseconds after which a refused caller
+   * may expect capacity to be available, based on recent latency
+   *
+   * @return the retry-after hint
+   */
+  public synchronized long getRetryAfter() {
+    return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) averageLatency));
+  }
+
+  /**
+   * Gets the current limit on concurrent calls
+   *
+   * @return the limit
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Gets the number of calls currently admitted and not yet released
+   *
+   * @return the number of calls in flight
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Gets the number of calls admitted
+   *
+   * @return the admitted call count
+   */
+  public synchronized long getAdmittedCount() {
+    return admittedCount;
+  }
+
+  /**
+   * Gets the number of calls refused
+   *
+   * @return the rejected call count
+   */
+  public synchronized long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+            "limit %d, in flight %d, admitted %d, rejected %d, average latency %.3f ms",
+            (int) limit,
+            inFlight,
+            admittedCount,
+            rejectedCount,
+            averageLatency / 1e6
+      );
+  }
+
+}
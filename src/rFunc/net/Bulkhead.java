@@ -0,0 +1,148 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An isolated pool of threads on which a server runs the calls
+ * made to a namespace.
+ *
+ * A bulkhead runs at most a fixed number of calls at once and
+ * holds at most a fixed number of further calls waiting for a
+ * thread. Calls beyond that are rejected immediately rather than
+ * queued, so a namespace of slow methods cannot take up the
+ * capacity of the rest of the server.
+ *
+ * Author:    LeqxLeqx
+ */
+public class Bulkhead {
+
+  private final int maximumConcurrency, queueDepth;
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates a new bulkhead
+   *
+   * @param maximumConcurrency the maximum number of calls run at once
+   * @param queueDepth the maximum number of calls waiting to be run
+   */
+  public Bulkhead(int maximumConcurrency, int queueDepth) {
+    if (maximumConcurrency < 1)
+      throw new IllegalArgumentException("Maximum concurrency must be positive");
+    if (queueDepth < 0)
+      throw new IllegalArgumentException("Queue depth cannot be negative");
+
+    this.maximumConcurrency = maximumConcurrency;
+    this.queueDepth = queueDepth;
+
+    BlockingQueue<Runnable> queue = queueDepth == 0
+            ? new SynchronousQueue<>()
+            : new ArrayBlockingQueue<>(queueDepth);
+
+    executor = new ThreadPoolExecutor(
+            maximumConcurrency, maximumConcurrency,
+            60, TimeUnit.SECONDS,
+            queue,
+            runnable -> {
+              Thread thread = new Thread(runnable, "rFunc bulkhead");
+              thread.setDaemon(true);
+              return thread;
+            }
+      );
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Runs the provided call if there is capacity for it
+   *
+   * @param call the call to run
+   * @return true if the call was accepted, false if it was rejected
+   */
+  boolean submit(Runnable call) {
+    try {
+      executor.execute(call);
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejectedCount.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Stops the threads of this bulkhead once the calls
+   * already accepted have completed. Later calls are rejected
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Gets the maximum number of calls run at once
+   *
+   * @return the maximum concurrency
+   */
+  public int getMaximumConcurrency() {
+    return maximumConcurrency;
+  }
+
+  /**
+   * Gets the maximum number of calls waiting to be run
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Gets the approximate number of calls currently running
+   *
+   * @return the number of active calls
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Gets the number of calls currently waiting to be run
+   *
+   * @return the number of queued calls
+   */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Gets the number of calls rejected for lack of capacity
+   *
+   * @return the number of rejected calls
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops a client from calling a server which keeps failing.
+ *
+ * The breaker opens once a number of consecutive calls have failed at
+ * the transport level or been refused as overloaded. While open,
+ * calls fail at once without reaching the server. After a time the
+ * breaker lets a single trial call through: if it succeeds the breaker
+ * closes, and otherwise it opens again
+ *
+ * Author:    LeqxLeqx
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  public static final long DEFAULT_OPEN_TIME = 5000;
+
+
+  private final int failureThreshold;
+  private final long openTime;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt = 0;
+  private boolean trialInFlight = false;
+
+  public CircuitBreaker() {
+    this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+  }
+
+  /**
+   * Creates a circuit breaker
+   *
+   * @param failureThreshold the consecutive failures after which the breaker opens
+   * @param openTime the time in milliseconds the breaker stays open before a trial call
+   */
+  public CircuitBreaker(int failureThreshold, long openTime) {
+    if (failureThreshold < 1)
+      throw new IllegalArgumentException("Failure threshold must be positive");
+    if (openTime < 0)
+      throw new IllegalArgumentException("Open time cannot be negative");
+
+    this.failureThreshold = failureThreshold;
+    this.openTime = openTime;
+  }
+
+  /**
+   * Gets whether or not a call may be made, letting
+   * a trial call through once the open time is over
+   */
+  synchronized boolean allowCall() {
+    switch (state) {
+      case CLOSED:
+        return true;
+
+      case OPEN:
+        if (System.nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(openTime))
+          return false;
+        state = State.HALF_OPEN;
+        trialInFlight = true;
+        return true;
+
+      default:
+        if (trialInFlight)
+          return false;
+        trialInFlight = true;
+        return true;
+    }
+  }
+
+  synchronized void recordSuccess() {
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    trialInFlight = false;
+  }
+
+  /**
+   * Records that a call let through was abandoned without
+   * an outcome, so that it no longer holds the trial
+   */
+  synchronized void recordAbandoned() {
+    trialInFlight = false;
+  }
+
+  synchronized void recordFailure() {
+    consecutiveFailures++;
+    trialInFlight = false;
+
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+    }
+  }
+
+  /**
+   * Gets the state of the breaker
+   *
+   * @return the state
+   */
+  public synchronized State getState() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openTime))
+      return State.HALF_OPEN;
+    return state;
+  }
+
+  /**
+   * Gets the consecutive failures after which the breaker opens
+   *
+   * @return the failure threshold
+   */
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /**
+   * Gets the time in milliseconds the breaker
+   * stays open before a trial call
+   *
+   * @return the open time
+   */
+  public long getOpenTime() {
+    return openTime;
+  }
+
+}
@@ -19,30 +19,85 @@
 package rFunc.net;
 
 import rFunc.method.ArgumentSpecification;
+import rFunc.method.CallContext;
 import rFunc.method.InvocationException;
 import rFunc.method.MethodSpecification;
 import rFunc.method.NamespaceSpecification;
+import rFunc.method.ResultStream;
 import rFunc.net.packet.*;
 import rFunc.value.Value;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Author:    LeqxLeqx
  */
 public class Client {
 
+  private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "rFunc client call");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+    Thread thread = new Thread(runnable, "rFunc client timeout");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    TIMEOUT_SCHEDULER.setRemoveOnCancelPolicy(true);
+  }
 
 
   private String ip;
   private int port;
+  private Path socketPath = null, sharedMemoryPath = null;
+  private WaitStrategy waitStrategy = WaitStrategy.PARK;
+  private Server localServer = null;
+  private Executor localExecutor = null;
   private boolean initialized = false;
+  private final EnumSet<Capability> capabilities = Capability.fromMask(Capability.getSupportedMask());
+  private int compressionThreshold = PacketCompressor.DEFAULT_THRESHOLD;
+  private int callTimeout = 0;
+  private int streamWindow = 64;
+  private volatile RetryPolicy retryPolicy = null;
+  private final ConcurrentHashMap<String, RetryPolicy> methodRetryPolicies = new ConcurrentHashMap<>();
+  private volatile CircuitBreaker circuitBreaker = null;
 
-  private long transactionID = 0;
+  private final AtomicLong transactionID = new AtomicLong();
+
+  private MultiplexedConnection multiplexedConnection = null;
+  private boolean multiplexingRefused = false;
 
   private final LinkedList<NamespaceSpecification> namespaceSpecifications = new LinkedList<>();
+  private final LinkedList<RemoteMethod> remoteMethods = new LinkedList<>();
+
+  /**
+   * Limits on the size of the replies servers may send. Changes
+   * apply to replies read after they are made
+   */
+  public final PacketLimits limits = new PacketLimits();
 
 
   public Client() {
@@ -58,44 +113,84 @@ public class Client {
    */
   public void initialize() throws IOException {
 
-    if (ip == null || port == 0)
-      throw new IllegalStateException("IP and port values must be set");
+    if (!isServerSet())
+      throw new IllegalStateException("IP and port values, a socket path or a local server must be set");
 
     namespaceSpecifications.clear();
+    remoteMethods.clear();
+    close();
+
+    if (localServer != null)
+      loadMethods(packet -> localServer.getResponse(null, packet), true);
+    else {
+      ClientConnection connection = openConnection();
+
+      try {
+        connection.shakeHands();
 
-    ClientConnection connection = new ClientConnection(ip, port);
-    connection.shakeHands();
+        loadMethods(connection::sendAndAwaitReply, connection.hasCapability(Capability.METHOD_IDS));
 
+        connection.close(transactionID.getAndIncrement());
+      } finally {
+        connection.close();
+      }
+    }
+
+    initialized = true;
+  }
+
+  private void loadMethods(Exchange exchange, boolean indexed) throws IOException {
     NamespaceListRequestPacket namespaceListRequestPacket = new NamespaceListRequestPacket();
-    namespaceListRequestPacket.setTransactionID(transactionID++);
+    namespaceListRequestPacket.setTransactionID(transactionID.getAndIncrement());
 
-    Packet namespaceListPacket = connection.sendAndAwaitReply(namespaceListRequestPacket);
+    Packet namespaceListPacket = exchange.sendAndAwaitReply(namespaceListRequestPacket);
 
     if (namespaceListPacket.type != PacketType.NAMESPACE_LIST)
       throw new IOException("Received invalid packet response of type: " + namespaceListPacket.type);
 
     for(String namespaceName : ((NamespaceListPacket) namespaceListPacket).getNames()) {
 
-      FunctionListRequestPacket functionListRequestPacket = new FunctionListRequestPacket(namespaceName);
-      functionListRequestPacket.setTransactionID(transactionID++);
+      NamespaceSpecification nSpec = new NamespaceSpecification(namespaceName);
 
-      Packet functionListPacket = connection.sendAndAwaitReply(functionListRequestPacket);
+      if (indexed) {
 
-      if (functionListPacket.type != PacketType.FUNCTION_LIST)
-        throw new IOException("Received invalid packet response of type: " + functionListPacket.type);
+        FunctionTableRequestPacket functionTableRequestPacket = new FunctionTableRequestPacket(namespaceName);
+        functionTableRequestPacket.setTransactionID(transactionID.getAndIncrement());
 
-      NamespaceSpecification nSpec = new NamespaceSpecification(namespaceName);
+        Packet functionTablePacket = exchange.sendAndAwaitReply(functionTableRequestPacket);
+
+        if (functionTablePacket.type != PacketType.FUNCTION_TABLE)
+          throw new IOException("Received invalid packet response of type: " + functionTablePacket.type);
+
+        FunctionTablePacket table = (FunctionTablePacket) functionTablePacket;
+        MethodSpecification[] methods = table.getMethods();
+        int[] ids = table.getIDs();
+
+        for(int k = 0; k < methods.length; k++) {
+          nSpec.addMethodSpecification(methods[k]);
+          remoteMethods.add(new RemoteMethod(namespaceName, methods[k], table.tableIdentifier, ids[k]));
+        }
 
-      for(MethodSpecification method : ((FunctionListPacket) functionListPacket).getMethods()) {
-        nSpec.addMethodSpecification(method);
       }
+      else {
 
-      namespaceSpecifications.add(nSpec);
-    }
+        FunctionListRequestPacket functionListRequestPacket = new FunctionListRequestPacket(namespaceName);
+        functionListRequestPacket.setTransactionID(transactionID.getAndIncrement());
 
-    connection.close(transactionID++);
+        Packet functionListPacket = exchange.sendAndAwaitReply(functionListRequestPacket);
 
-    initialized = true;
+        if (functionListPacket.type != PacketType.FUNCTION_LIST)
+          throw new IOException("Received invalid packet response of type: " + functionListPacket.type);
+
+        for(MethodSpecification method : ((FunctionListPacket) functionListPacket).getMethods()) {
+          nSpec.addMethodSpecification(method);
+          remoteMethods.add(new RemoteMethod(namespaceName, method, 0, -1));
+        }
+
+      }
+
+      namespaceSpecifications.add(nSpec);
+    }
   }
 
   /**
@@ -147,8 +242,8 @@ public class Client {
   public Value invoke(String namespace, String name, Value[] values, boolean affirmMethodValidity) throws IOException, InvocationException {
     if (!initialized && affirmMethodValidity)
       throw new IllegalStateException("Client must be initialized before methods can be invoked");
-    if (ip == null || port == 0)
-      throw new IllegalStateException("IP and port values must be set");
+    if (!isServerSet())
+      throw new IllegalStateException("IP and port values, a socket path or a local server must be set");
 
     if (namespace == null)
       throw new IllegalArgumentException("Namespace cannot be null");
@@ -160,47 +255,851 @@ public class Client {
       throw new IllegalArgumentException("Values array cannot contain null");
 
 
-    ArgumentSpecification argumentSpecification = ArgumentSpecification.get(values);
-
     if (affirmMethodValidity) {
 
-      MethodSpecification[] mSpecs = getMethodSpecifications(namespace);
-      if (mSpecs == null)
-        throw new IllegalArgumentException("No such namespace: " + namespace);
+      RemoteMethod method = findRemoteMethod(namespace, name, values);
+
+      if (method == null) {
+        if (getMethodSpecifications(namespace) == null)
+          throw new IllegalArgumentException("No such namespace: " + namespace);
+        throw new IllegalArgumentException("No such method: " + name + "(" + ArgumentSpecification.get(values) + ")");
+      }
+
+      return invoke(method, values);
+    }
+
+    return invoke(new RemoteMethod(namespace, new MethodSpecification(ArgumentSpecification.get(values), name, ""), 0, -1), values);
+  }
+
+  /**
+   * Invokes the provided method from the server. If the server
+   * assigned the method an id and the connection supports it,
+   * the method is called by its id alone
+   *
+   * @param method the method, as obtained from getRemoteMethod
+   * @param values the value array to provide to the method as arguments
+   * @return the value returned by the method
+   * @throws IOException
+   * @throws InvocationException
+   */
+  public Value invoke(RemoteMethod method, Value... values) throws IOException, InvocationException {
+    if (!isServerSet())
+      throw new IllegalStateException("IP and port values, a socket path or a local server must be set");
+
+    if (method == null)
+      throw new IllegalArgumentException("Method cannot be null");
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+    if (!method.methodSpecification.argumentSpecification.matches(values))
+      throw new IllegalArgumentException("Values do not match method: " + method);
+
+    long start = System.nanoTime();
+    RetryPolicy policy = getRetryPolicy(qualifiedName(method.namespace, method.methodSpecification.name));
+
+    return invokeWithRetries(policy, start, () -> invokeOnce(method, values, start));
+  }
+
+  private Value invokeOnce(RemoteMethod method, Value[] values, long start) throws IOException, InvocationException {
+    if (localServer != null)
+      return invokeLocally(context -> callLocally(method, values, context), start);
+
+    ClientConnection connection = openConnection();
+    Packet outgoingPacket, incomingPacket = null;
+
+    try {
+      connection.shakeHands();
+
+      if (method.isIndexed() && connection.hasCapability(Capability.METHOD_IDS)) {
+
+        outgoingPacket = new IndexedFunctionCallPacket(method.tableIdentifier, method.methodID, values, remainingTimeout(connection, start));
+        outgoingPacket.setTransactionID(transactionID.getAndIncrement());
+
+        incomingPacket = connection.sendAndAwaitReply(outgoingPacket);
 
-      boolean found = false;
-      for(MethodSpecification mSpec : mSpecs) {
         if (
-                mSpec.name.equals(name) &&
-                mSpec.argumentSpecification.equals(argumentSpecification)
-                )
-          found = true;
+                incomingPacket.type == PacketType.ERROR &&
+                ((ErrorPacket) incomingPacket).errorMessage.equals(IndexedFunctionCallPacket.STALE_TABLE_MESSAGE)
+                ) {
+          method.methodID = -1;
+          incomingPacket = null;
+        }
+      }
+
+      if (incomingPacket == null) {
+
+        outgoingPacket = new FunctionCallPacket(
+                method.namespace,
+                new MethodSpecification(ArgumentSpecification.get(values), method.methodSpecification.name, ""),
+                values,
+                remainingTimeout(connection, start)
+          );
+        outgoingPacket.setTransactionID(transactionID.getAndIncrement());
+
+        incomingPacket = connection.sendAndAwaitReply(outgoingPacket);
+      }
+
+      connection.close(transactionID.getAndIncrement());
+    } finally {
+      connection.close();
+    }
+
+    return returnValueOf(incomingPacket);
+  }
+
+  /**
+   * Invokes a prepared call on the server. The namespace and method
+   * of the call are sent as encoded when the call was prepared, and
+   * the arguments are written by the encoder directly into the
+   * outgoing packet. This is the path taken by generated stubs
+   *
+   * @param call the prepared call
+   * @param encoder the encoder writing the arguments of the call
+   * @return the value returned by the method
+   * @throws IOException
+   * @throws InvocationException
+   */
+  public Value invoke(PreparedCall call, ArgumentEncoder encoder) throws IOException, InvocationException {
+    if (!isServerSet())
+      throw new IllegalStateException("IP and port values, a socket path or a local server must be set");
+
+    long start = System.nanoTime();
+    RetryPolicy policy = getRetryPolicy(qualifiedName(call.namespace, call.methodSpecification.name));
+
+    return invokeWithRetries(policy, start, () -> invokeOnce(call, encoder, start));
+  }
+
+  private Value invokeOnce(PreparedCall call, ArgumentEncoder encoder, long start) throws IOException, InvocationException {
+    if (localServer != null) {
+      Packet packet = new PreparedCallPacket(call, encoder).toFunctionCall();
+      return invokeLocally(context -> returnValueOf(runLocally(packet, context)), start);
+    }
+
+    ClientConnection connection = openConnection();
+    Packet incomingPacket;
+
+    try {
+      connection.shakeHands();
+
+      Packet outgoingPacket = new PreparedCallPacket(call, encoder, remainingTimeout(connection, start));
+      outgoingPacket.setTransactionID(transactionID.getAndIncrement());
+
+      incomingPacket = connection.sendAndAwaitReply(outgoingPacket);
+
+      connection.close(transactionID.getAndIncrement());
+    } finally {
+      connection.close();
+    }
+
+    return returnValueOf(incomingPacket);
+  }
+
+  /**
+   * Invokes the method of the provided name from the server
+   * without waiting for its result
+   *
+   * @param name the method name
+   * @param values the value array to provide to the method as arguments
+   * @return a future completed with the value returned by the method
+   * @see #invokeAsync(RemoteMethod, Value...)
+   */
+  public CompletableFuture<Value> invokeAsync(String name, Value... values) {
+    if (!initialized)
+      throw new IllegalStateException("Client must be initialized before methods can be invoked");
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+
+    String[] split = name.split("\\.", 2);
+    String namespace = split.length == 2 ? split[0] : "";
+    String methodName = split.length == 2 ? split[1] : name;
+
+    RemoteMethod method = findRemoteMethod(namespace, methodName, values);
+    if (method == null)
+      throw new IllegalArgumentException("No such method: " + name + "(" + ArgumentSpecification.get(values) + ")");
+
+    return invokeAsync(method, values);
+  }
+
+  /**
+   * Invokes the provided method from the server without waiting for
+   * its result. Calls are sent over a single long-lived connection on
+   * which many calls may be in flight at once. Cancelling the returned
+   * future, or the call timing out, asks the server to cancel the call.
+   *
+   * If the server does not support multiplexed connections, the call
+   * is made as by invoke on a background thread, and cancelling the
+   * future only abandons the result
+   *
+   * @param method the method, as obtained from getRemoteMethod
+   * @param values the value array to provide to the method as arguments
+   * @return a future completed with the value returned by the method
+   */
+  public CompletableFuture<Value> invokeAsync(RemoteMethod method, Value... values) {
+    if (!isServerSet())
+      throw new IllegalStateException("IP and port values, a socket path or a local server must be set");
+
+    if (method == null)
+      throw new IllegalArgumentException("Method cannot be null");
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+    if (!method.methodSpecification.argumentSpecification.matches(values))
+      throw new IllegalArgumentException("Values do not match method: " + method);
+
+    CompletableFuture<Value> result = new CompletableFuture<>();
+    long start = System.nanoTime();
+
+    RetryPolicy policy = getRetryPolicy(qualifiedName(method.namespace, method.methodSpecification.name));
+    if (policy != null)
+      policy.deposit();
+
+    attemptAsync(method, values, result, start, policy, 1);
+
+    if (callTimeout != 0) {
+      int timeout = callTimeout;
+      ScheduledFuture<?> timer = TIMEOUT_SCHEDULER.schedule(
+              () -> result.completeExceptionally(new SocketTimeoutException(String.format("Call timed out after %d milliseconds", timeout))),
+              timeout,
+              TimeUnit.MILLISECONDS
+        );
+      result.whenComplete((value, error) -> timer.cancel(false));
+    }
+
+    return result;
+  }
+
+  /**
+   * Subscribes to the values streamed by the method of the provided
+   * name from the server
+   *
+   * @param name the method name
+   * @param values the value array to provide to the method as arguments
+   * @return the subscription
+   * @throws IOException
+   * @see #subscribe(RemoteMethod, Value...)
+   */
+  public Subscription subscribe(String name, Value... values) throws IOException {
+    if (!initialized)
+      throw new IllegalStateException("Client must be initialized before methods can be invoked");
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+
+    String[] split = name.split("\\.", 2);
+    String namespace = split.length == 2 ? split[0] : "";
+    String methodName = split.length == 2 ? split[1] : name;
+
+    RemoteMethod method = findRemoteMethod(namespace, methodName, values);
+    if (method == null)
+      throw new IllegalArgumentException("No such method: " + name + "(" + ArgumentSpecification.get(values) + ")");
+
+    return subscribe(method, values);
+  }
+
+  /**
+   * Subscribes to the values streamed by the provided method from the
+   * server, rather than polling it with repeated calls. The method
+   * sends values through the result stream of its call context until
+   * it returns or the subscription is closed, and never more than the
+   * stream window ahead of those taken from the subscription.
+   *
+   * Subscriptions are made over the same long-lived connection as
+   * invokeAsync, and require a server supporting streaming. They are
+   * not subject to the call timeout, retry policies or circuit breaker
+   *
+   * @param method the method, as obtained from getRemoteMethod
+   * @param values the value array to provide to the method as arguments
+   * @return the subscription
+   * @throws IOException if the server cannot be reached or does not support streaming
+   */
+  public Subscription subscribe(RemoteMethod method, Value... values) throws IOException {
+    if (!isServerSet())
+      throw new IllegalStateException("IP and port values, a socket path or a local server must be set");
+
+    if (method == null)
+      throw new IllegalArgumentException("Method cannot be null");
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+    if (!method.methodSpecification.argumentSpecification.matches(values))
+      throw new IllegalArgumentException("Values do not match method: " + method);
+
+    int window = streamWindow;
+    Subscription subscription = new Subscription(window);
+
+    if (localServer != null) {
+      subscribeLocally(method, values, subscription);
+      return subscription;
+    }
+
+    MultiplexedConnection connection = getMultiplexedConnection();
+    if (connection == null || !connection.hasCapability(Capability.STREAMING))
+      throw new IOException("Server " + describeServer() + " does not support streaming");
+
+    long callTransactionID = connection.nextTransactionID();
+    SubscribePacket packet = new SubscribePacket(
+            newCall(method, values, connection.hasCapability(Capability.METHOD_IDS)),
+            window
+      );
+    packet.setTransactionID(callTransactionID);
+
+    subscription.bind(
+            credits -> connection.grant(callTransactionID, credits),
+            () -> connection.cancel(callTransactionID)
+      );
+    connection.subscribe(packet, subscription);
+
+    return subscription;
+  }
+
+  private void subscribeLocally(RemoteMethod method, Value[] values, Subscription subscription) {
+    CallContext context = new CallContext();
+    ResultStream stream = context.openStream(subscription.getWindow(), subscription::receive);
+    subscription.bind(stream::grant, context::cancel);
+
+    Packet packet = newCall(method, values, true);
+    packet.setTransactionID(transactionID.getAndIncrement());
+
+    Executor executor = localExecutor != null ? localExecutor : ASYNC_EXECUTOR;
+    try {
+      executor.execute(() -> subscription.complete(localServer.subscribeLocal(packet, context)));
+    } catch (RejectedExecutionException e) {
+      subscription.fail(new IOException("Local executor rejected the subscription", e));
+    }
+  }
+
+  private static Packet newCall(RemoteMethod method, Value[] values, boolean indexed) {
+    if (indexed && method.isIndexed())
+      return new IndexedFunctionCallPacket(method.tableIdentifier, method.methodID, values);
+
+    return new FunctionCallPacket(
+            method.namespace,
+            new MethodSpecification(ArgumentSpecification.get(values), method.methodSpecification.name, ""),
+            values
+      );
+  }
+
+  private void attemptAsync(RemoteMethod method, Value[] values, CompletableFuture<Value> result, long start, RetryPolicy policy, int attempt) {
+    if (result.isDone())
+      return;
+
+    CircuitBreaker breaker = circuitBreaker;
+    if (breaker != null && !breaker.allowCall()) {
+      result.completeExceptionally(new CircuitOpenException("Circuit open to server " + describeServer()));
+      return;
+    }
+
+    CompletableFuture<Value> call = new CompletableFuture<>();
+    result.whenComplete((value, error) -> call.cancel(true));
+
+    call.whenComplete((value, error) -> {
+      Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+      if (breaker != null)
+        recordOutcome(breaker, cause);
+
+      if (cause == null) {
+        result.complete(value);
+        return;
+      }
+
+      long backoff = result.isDone() ? -1 : getBackoff(policy, attempt, cause, start);
+      if (backoff < 0)
+        result.completeExceptionally(cause);
+      else
+        TIMEOUT_SCHEDULER.schedule(
+                () -> attemptAsync(method, values, result, start, policy, attempt + 1),
+                backoff,
+                TimeUnit.MILLISECONDS
+          );
+    });
+
+    if (localServer != null) {
+      invokeLocallyAsync(context -> callLocally(method, values, context), call, start);
+      return;
+    }
+
+    MultiplexedConnection connection;
+    try {
+      connection = getMultiplexedConnection();
+    } catch (IOException e) {
+      call.completeExceptionally(e);
+      return;
+    }
+
+    if (connection == null) {
+      ASYNC_EXECUTOR.execute(() -> {
+        try {
+          call.complete(invokeOnce(method, values, start));
+        } catch (Throwable t) {
+          call.completeExceptionally(t);
+        }
+      });
+    }
+    else
+      sendAsync(connection, method, values, call, start);
+  }
+
+  private void sendAsync(MultiplexedConnection connection, RemoteMethod method, Value[] values, CompletableFuture<Value> result, long start) {
+    long callTransactionID = connection.nextTransactionID();
+    boolean indexed = method.isIndexed() && connection.hasCapability(Capability.METHOD_IDS);
+
+    int timeout = 0;
+    if (callTimeout != 0 && connection.hasCapability(Capability.DEADLINES))
+      timeout = (int) Math.max(1, callTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    Packet outgoingPacket = indexed
+            ? new IndexedFunctionCallPacket(method.tableIdentifier, method.methodID, values, timeout)
+            : new FunctionCallPacket(
+                    method.namespace,
+                    new MethodSpecification(ArgumentSpecification.get(values), method.methodSpecification.name, ""),
+                    values,
+                    timeout
+              );
+    outgoingPacket.setTransactionID(callTransactionID);
+
+    result.whenComplete((value, error) -> {
+      if (error != null)
+        connection.cancel(callTransactionID);
+    });
+
+    connection.call(outgoingPacket).whenComplete((incomingPacket, error) -> {
+      if (error != null) {
+        result.completeExceptionally(error);
+        return;
+      }
+
+      if (
+              indexed &&
+              incomingPacket.type == PacketType.ERROR &&
+              ((ErrorPacket) incomingPacket).errorMessage.equals(IndexedFunctionCallPacket.STALE_TABLE_MESSAGE)
+              ) {
+        method.methodID = -1;
+        sendAsync(connection, method, values, result, start);
+        return;
+      }
+
+      try {
+        result.complete(returnValueOf(incomingPacket));
+      } catch (IOException | InvocationException e) {
+        result.completeExceptionally(e);
+      }
+    });
+  }
+
+  private synchronized MultiplexedConnection getMultiplexedConnection() throws IOException {
+    if (multiplexingRefused)
+      return null;
+    if (multiplexedConnection != null && multiplexedConnection.isOpen())
+      return multiplexedConnection;
+
+    MultiplexedConnection connection = new MultiplexedConnection(openTransport(), getCapabilityMask(), compressionThreshold, limits);
+
+    try {
+      connection.shakeHands();
+    } catch (IOException e) {
+      connection.close();
+      throw e;
+    }
+
+    if (!connection.hasCapability(Capability.MULTIPLEXING)) {
+      multiplexingRefused = true;
+      connection.close(connection.nextTransactionID());
+      return null;
+    }
+
+    connection.start();
+    multiplexedConnection = connection;
+
+    return connection;
+  }
+
+  /**
+   * Closes the long-lived connection used by asynchronous calls, if
+   * one is open. Calls still in flight on it fail. A new connection
+   * is opened by the next asynchronous call
+   */
+  public synchronized void close() {
+    multiplexingRefused = false;
+
+    if (multiplexedConnection == null)
+      return;
+
+    try {
+      multiplexedConnection.close(multiplexedConnection.nextTransactionID());
+    } catch (IOException e) {
+      multiplexedConnection.close();
+    }
+
+    multiplexedConnection = null;
+  }
+
+  /**
+   * Gets whether or not the long-lived connection used by asynchronous
+   * calls is open, so that a call made now is sent without first
+   * connecting to the server
+   *
+   * @return true if the connection is open
+   */
+  public synchronized boolean isConnected() {
+    return multiplexedConnection != null && multiplexedConnection.isOpen();
+  }
+
+  /**
+   * Makes the attempts of a call, as many as the retry policy allows,
+   * each passing through the circuit breaker. An attempt closes its
+   * connection before failing, so no connection is left open to the
+   * server while backing off
+   */
+  private Value invokeWithRetries(RetryPolicy policy, long start, Attempt attempt) throws IOException, InvocationException {
+    if (policy != null)
+      policy.deposit();
+
+    for(int i = 1;; i++) {
+      try {
+        return invokeThroughBreaker(attempt);
+      } catch (IOException | InvocationException e) {
+        long backoff = getBackoff(policy, i, e, start);
+        if (backoff < 0)
+          throw e;
+
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted awaiting retry");
+        }
+      }
+    }
+  }
+
+  private Value invokeThroughBreaker(Attempt attempt) throws IOException, InvocationException {
+    CircuitBreaker breaker = circuitBreaker;
+    if (breaker == null)
+      return attempt.call();
+    if (!breaker.allowCall())
+      throw new CircuitOpenException("Circuit open to server " + describeServer());
+
+    Throwable failure = null;
+    try {
+      return attempt.call();
+    } catch (Throwable t) {
+      failure = t;
+      throw t;
+    } finally {
+      recordOutcome(breaker, failure);
+    }
+  }
+
+  /**
+   * Gets the time in milliseconds to wait before retrying after the
+   * failure of the numbered attempt of a call, or -1 if the call is
+   * not to be retried
+   */
+  private long getBackoff(RetryPolicy policy, int attempt, Throwable failure, long start) {
+    if (policy == null || !policy.shouldRetry(attempt, failure))
+      return -1;
+
+    long backoff = policy.getBackoff(attempt, failure);
+    if (callTimeout != 0 && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + backoff >= callTimeout)
+      return -1;
+
+    return backoff;
+  }
+
+  /**
+   * Records the outcome of a call with the circuit breaker. Errors
+   * raised by the method show the server to be working, while a
+   * transport failure or an overloaded reply shows it is not
+   */
+  private static void recordOutcome(CircuitBreaker breaker, Throwable failure) {
+    if (failure instanceof IOException || failure instanceof OverloadedException)
+      breaker.recordFailure();
+    else if (failure == null || failure instanceof InvocationException)
+      breaker.recordSuccess();
+    else
+      breaker.recordAbandoned();
+  }
+
+  private boolean isServerSet() {
+    return localServer != null || sharedMemoryPath != null || socketPath != null || (ip != null && port != 0);
+  }
+
+  /**
+   * Opens a connection for the exchanges of a single attempt. If the
+   * connection cannot be set up, the transport beneath it is closed
+   * before the attempt fails, so that retries leave nothing open
+   */
+  private ClientConnection openConnection() throws IOException {
+    Transport transport = openTransport();
+
+    try {
+      return new ClientConnection(transport, getCapabilityMask(), compressionThreshold, limits);
+    } catch (IOException | RuntimeException e) {
+      try {
+        transport.close();
+      } catch (IOException ce) {}
+      throw e;
+    }
+  }
+
+  private Transport openTransport() throws IOException {
+    if (sharedMemoryPath != null)
+      return SharedMemoryTransport.connect(sharedMemoryPath, waitStrategy);
+    if (socketPath != null)
+      return UnixSocketTransport.connect(socketPath);
+
+    Socket socket = new Socket(ip, port);
+    try {
+      return new SocketTransport(socket);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private String describeServer() {
+    if (localServer != null)
+      return "local server";
+    if (sharedMemoryPath != null)
+      return sharedMemoryPath.toString();
+    return socketPath != null ? socketPath.toString() : ip + ":" + port;
+  }
+
+  private static String qualifiedName(String namespace, String name) {
+    return namespace.isEmpty() ? name : namespace + "." + name;
+  }
+
+  private interface Attempt {
+    Value call() throws IOException, InvocationException;
+  }
+
+  private interface Exchange {
+    Packet sendAndAwaitReply(Packet packet) throws IOException;
+  }
+
+  private interface LocalCall {
+    Value call(CallContext context) throws IOException, InvocationException;
+  }
+
+  /**
+   * Makes a call to the local server, on the local executor if one is
+   * set and otherwise on the current thread, waiting for its result
+   */
+  private Value invokeLocally(LocalCall call, long start) throws IOException, InvocationException {
+    CallContext context = newLocalContext(start);
+    Executor executor = localExecutor;
+
+    if (executor == null)
+      return callLocally(call, context);
+
+    CompletableFuture<Value> result = new CompletableFuture<>();
+    invokeLocallyAsync(call, result, context);
+
+    try {
+      if (callTimeout == 0)
+        return result.get();
+      return result.get(context.getRemainingTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      context.cancel();
+      throw new SocketTimeoutException(String.format("Call timed out after %d milliseconds", callTimeout));
+    } catch (InterruptedException e) {
+      context.cancel();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted awaiting call");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof InvocationException)
+        throw (InvocationException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw (Error) cause;
+    }
+  }
+
+  private void invokeLocallyAsync(LocalCall call, CompletableFuture<Value> result, long start) {
+    invokeLocallyAsync(call, result, newLocalContext(start));
+  }
+
+  /**
+   * Makes a call to the local server on the local executor, or on the
+   * shared pool of the client if none is set. Completing the future
+   * exceptionally, as when it is cancelled, cancels the call
+   */
+  private void invokeLocallyAsync(LocalCall call, CompletableFuture<Value> result, CallContext context) {
+    Executor executor = localExecutor != null ? localExecutor : ASYNC_EXECUTOR;
+
+    result.whenComplete((value, error) -> {
+      if (error != null)
+        context.cancel();
+    });
+
+    try {
+      executor.execute(() -> {
+        try {
+          result.complete(callLocally(call, context));
+        } catch (Throwable t) {
+          result.completeExceptionally(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(new IOException("Local executor rejected the call", e));
+    }
+  }
+
+  private Value callLocally(LocalCall call, CallContext context) throws IOException, InvocationException {
+    Value value = call.call(context);
+
+    // a reply arriving after the deadline is dropped over a connection as well
+    if (context.isExpired())
+      throw new SocketTimeoutException(String.format("Call timed out after %d milliseconds", callTimeout));
+
+    return value;
+  }
+
+  private CallContext newLocalContext(long start) {
+    return callTimeout == 0
+            ? new CallContext()
+            : new CallContext(start + TimeUnit.MILLISECONDS.toNanos(callTimeout));
+  }
+
+  /**
+   * Calls a method of the local server on the current thread, by its
+   * id if it has one, as the method would be called over a connection
+   */
+  private Value callLocally(RemoteMethod method, Value[] values, CallContext context) throws IOException, InvocationException {
+    Packet response = null;
+
+    if (method.isIndexed()) {
+      response = runLocally(new IndexedFunctionCallPacket(method.tableIdentifier, method.methodID, values), context);
+
+      if (
+              response.type == PacketType.ERROR &&
+              ((ErrorPacket) response).errorMessage.equals(IndexedFunctionCallPacket.STALE_TABLE_MESSAGE)
+              ) {
+        method.methodID = -1;
+        response = null;
       }
+    }
+
+    if (response == null)
+      response = runLocally(
+              new FunctionCallPacket(
+                      method.namespace,
+                      new MethodSpecification(ArgumentSpecification.get(values), method.methodSpecification.name, ""),
+                      values
+                ),
+              context
+        );
+
+    return returnValueOf(response);
+  }
 
-      if (!found)
-        throw new IllegalArgumentException("No such method: " + name + "(" + argumentSpecification + ")");
+  private Packet runLocally(Packet packet, CallContext context) {
+    CallContext outer = CallContext.current();
+    packet.setTransactionID(transactionID.getAndIncrement());
 
+    try {
+      return localServer.invokeLocal(packet, context);
+    } finally {
+      // a method calling the server it runs on carries on under its own context
+      if (outer != null)
+        CallContext.attach(outer);
     }
+  }
+
+  /**
+   * Limits the wait for the reply to a call to what remains of the
+   * call timeout, and gets the budget to send to the server with the
+   * call if the server agreed to receive one
+   */
+  private int remainingTimeout(ClientConnection connection, long start) throws IOException {
+    if (callTimeout == 0)
+      return 0;
 
-    Packet outgoingPacket = new FunctionCallPacket(namespace, new MethodSpecification(argumentSpecification, name, ""), values);
-    outgoingPacket.setTransactionID(transactionID++);
+    long remaining = callTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (remaining <= 0) {
+      connection.close();
+      throw new SocketTimeoutException(String.format("Call timed out after %d milliseconds", callTimeout));
+    }
 
-    ClientConnection connection = new ClientConnection(ip, port);
-    connection.shakeHands();
-    Packet incomingPacket = connection.sendAndAwaitReply(outgoingPacket);
+    connection.transport.setReadTimeout((int) remaining);
 
-    connection.close(transactionID++);
+    return connection.hasCapability(Capability.DEADLINES) ? (int) remaining : 0;
+  }
 
+  static Value returnValueOf(Packet incomingPacket) throws IOException, InvocationException {
     if (incomingPacket.type == PacketType.FUNCTION_RETURN) {
       return ((FunctionReturnPacket) incomingPacket).value;
     }
     else if (incomingPacket.type == PacketType.ERROR) {
-      throw new InvocationException(((ErrorPacket) incomingPacket).errorMessage);
+      ErrorPacket error = (ErrorPacket) incomingPacket;
+      long retryAfter = error.getRetryAfter();
+      if (retryAfter >= 0)
+        throw new OverloadedException(error.errorMessage, retryAfter);
+      throw new InvocationException(error.errorMessage);
     }
     else
       throw new IOException("Server returned invalid packet type: " + incomingPacket.type);
   }
 
+  /**
+   * Gets the method of the provided namespace, name and argument
+   * specification as listed by the server at the time of
+   * initialization
+   *
+   * @param namespace the namespace name
+   * @param name the method name
+   * @param argumentSpecification the argument specification
+   * @return the method, or null if the server listed no such method
+   */
+  public RemoteMethod getRemoteMethod(String namespace, String name, ArgumentSpecification argumentSpecification) {
+    if (!initialized)
+      throw new IllegalStateException("Client must be initialized before methods can be resolved");
+    if (namespace == null)
+      throw new IllegalArgumentException("Namespace cannot be null");
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+    if (argumentSpecification == null)
+      throw new IllegalArgumentException("Argument specification cannot be null");
+
+    for(RemoteMethod method : remoteMethods) {
+      if (
+              method.namespace.equals(namespace) &&
+              method.methodSpecification.name.equals(name) &&
+              method.methodSpecification.argumentSpecification.equals(argumentSpecification)
+              )
+        return method;
+    }
+
+    return null;
+  }
+
+  private RemoteMethod findRemoteMethod(String namespace, String name, Value[] values) {
+    for(RemoteMethod method : remoteMethods) {
+      if (
+              method.namespace.equals(namespace) &&
+              method.methodSpecification.name.equals(name) &&
+              method.methodSpecification.argumentSpecification.matches(values)
+              )
+        return method;
+    }
+
+    return null;
+  }
+
+
+  /**
+   * Gets whether or not the client has been initialized
+   * since its server was last set
+   *
+   * @return true if the client is initialized
+   */
+  public boolean isInitialized() {
+    return initialized;
+  }
 
   /**
    * Gets an array of the namespace representations on the
@@ -244,6 +1143,7 @@ public class Client {
       throw new IllegalArgumentException("Cannot set IP to null");
     this.ip = ip;
     initialized = false;
+    close();
   }
 
   /**
@@ -267,8 +1167,301 @@ public class Client {
       throw new IllegalArgumentException("Cannot set port to: " + port);
     this.port = port;
     initialized = false;
+    close();
+  }
+
+  /**
+   * Gets the path of the Unix domain socket of the server
+   *
+   * @return the socket path, or null if the server is reached over TCP
+   */
+  public Path getSocketPath() {
+    return socketPath;
+  }
+
+  /**
+   * Sets the path of the Unix domain socket of a server on the same
+   * host, as passed to its start method. While a socket path is set,
+   * the client connects through it rather than to the IP and port
+   *
+   * @param socketPath the socket path, or null to connect over TCP
+   */
+  public void setSocketPath(Path socketPath) {
+    this.socketPath = socketPath;
+    initialized = false;
+    close();
+  }
+
+  /**
+   * Gets the directory through which the client connects
+   * to a server over shared memory
+   *
+   * @return the directory, or null if shared memory is not used
+   */
+  public Path getSharedMemoryPath() {
+    return sharedMemoryPath;
   }
 
+  /**
+   * Sets the directory through which the client connects to a server
+   * on the same host over shared memory, as passed to its
+   * startSharedMemory method. While set, this takes the place of the
+   * socket path and of the IP and port. Each connection costs a file
+   * and a mapping to set up, so calls are best made through invokeAsync,
+   * which keeps a single connection open
+   *
+   * @param sharedMemoryPath the directory, or null to not use shared memory
+   */
+  public void setSharedMemoryPath(Path sharedMemoryPath) {
+    this.sharedMemoryPath = sharedMemoryPath;
+    initialized = false;
+    close();
+  }
 
+  /**
+   * Gets how the client waits for the server over shared memory
+   *
+   * @return the wait strategy
+   */
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  /**
+   * Sets how the client waits for the server over shared memory.
+   * The default parks between polls
+   *
+   * @param waitStrategy the wait strategy
+   */
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    if (waitStrategy == null)
+      throw new IllegalArgumentException("Wait strategy cannot be null");
+    this.waitStrategy = waitStrategy;
+    close();
+  }
+
+  /**
+   * Gets the server in this process to which the client makes its calls
+   *
+   * @return the local server, or null if calls are made over a connection
+   */
+  public Server getLocalServer() {
+    return localServer;
+  }
+
+  /**
+   * Sets a server in this process to which the client makes its calls
+   * directly, in place of connecting to a server. Arguments and return
+   * values are handed over as they are rather than encoded, and calls
+   * are run, admitted and answered as they would be over a connection,
+   * so that errors reach the caller the same way. The server need not
+   * be started. While set, this takes the place of any other server
+   *
+   * @param localServer the local server, or null to make calls over a connection
+   */
+  public void setLocalServer(Server localServer) {
+    this.localServer = localServer;
+    initialized = false;
+    close();
+  }
+
+  /**
+   * Gets the executor on which calls to the local server are run
+   *
+   * @return the local executor, or null if none is set
+   */
+  public Executor getLocalExecutor() {
+    return localExecutor;
+  }
+
+  /**
+   * Sets the executor on which calls to the local server are run. With
+   * none set, invoke runs calls on the calling thread and invokeAsync
+   * on a pool shared by all clients
+   *
+   * @param localExecutor the local executor, or null for none
+   */
+  public void setLocalExecutor(Executor localExecutor) {
+    this.localExecutor = localExecutor;
+  }
+
+  /**
+   * Gets the minimum length of packet data compressed
+   * on connections where compression is in use
+   *
+   * @return the compression threshold in bytes
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets the minimum length of packet data compressed on
+   * connections where compression is in use. Smaller frames
+   * are sent as is, as are frames compression does not shrink
+   *
+   * @param compressionThreshold the compression threshold in bytes
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    if (compressionThreshold < 0)
+      throw new IllegalArgumentException("Cannot set compression threshold to: " + compressionThreshold);
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Gets the time in milliseconds a call waits for its reply
+   *
+   * @return the call timeout, or 0 if calls wait indefinitely
+   */
+  public int getCallTimeout() {
+    return callTimeout;
+  }
+
+  /**
+   * Sets the time in milliseconds a call waits for its reply before
+   * failing with a SocketTimeoutException. Servers supporting deadlines
+   * are sent the remaining time with each call, and do not run calls
+   * whose deadline has passed by the time they could be
+   *
+   * @param callTimeout the call timeout, or 0 to wait indefinitely
+   */
+  public void setCallTimeout(int callTimeout) {
+    if (callTimeout < 0)
+      throw new IllegalArgumentException("Cannot set call timeout to: " + callTimeout);
+    this.callTimeout = callTimeout;
+  }
+
+  /**
+   * Gets the number of values a server may stream to a
+   * subscription before the subscriber takes any of them
+   *
+   * @return the stream window
+   */
+  public int getStreamWindow() {
+    return streamWindow;
+  }
+
+  /**
+   * Sets the number of values a server may stream to a subscription
+   * before the subscriber takes any of them, bounding the values
+   * buffered by each subscription. Applies to subscriptions made
+   * after it is set
+   *
+   * @param streamWindow the stream window
+   */
+  public void setStreamWindow(int streamWindow) {
+    if (streamWindow <= 0)
+      throw new IllegalArgumentException("Cannot set stream window to: " + streamWindow);
+    this.streamWindow = streamWindow;
+  }
+
+  /**
+   * Gets the retry policy of calls to methods without a policy of their own
+   *
+   * @return the default retry policy, or null if calls are not retried
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets the retry policy of calls to methods without a policy of
+   * their own. By default calls are not retried
+   *
+   * @param retryPolicy the default retry policy, or null to not retry calls
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Gets the retry policy of calls to the method of the provided name
+   *
+   * @param name the method name, including its namespace
+   * @return the retry policy of the method, or the default policy if it has none
+   */
+  public RetryPolicy getRetryPolicy(String name) {
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+
+    RetryPolicy policy = methodRetryPolicies.get(name);
+    return policy != null ? policy : retryPolicy;
+  }
+
+  /**
+   * Sets the retry policy of calls to the method of the provided
+   * name, in place of the default policy. A policy of a single
+   * attempt stops a method from being retried
+   *
+   * @param name the method name, including its namespace
+   * @param retryPolicy the retry policy, or null to use the default policy
+   */
+  public void setRetryPolicy(String name, RetryPolicy retryPolicy) {
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+
+    if (retryPolicy == null)
+      methodRetryPolicies.remove(name);
+    else
+      methodRetryPolicies.put(name, retryPolicy);
+  }
+
+  /**
+   * Gets the circuit breaker guarding calls to the server
+   *
+   * @return the circuit breaker, or null if there is none
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Sets the circuit breaker guarding calls to the server. While the
+   * breaker is open, calls fail at once with a CircuitOpenException
+   *
+   * @param circuitBreaker the circuit breaker, or null for none
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Gets whether or not the provided capability is
+   * offered to the server during the handshake
+   *
+   * @param capability the capability
+   * @return true if the capability is offered
+   */
+  public boolean isCapabilityEnabled(Capability capability) {
+    if (capability == null)
+      throw new IllegalArgumentException("Capability cannot be null");
+    return capabilities.contains(capability);
+  }
+
+  /**
+   * Sets whether or not the provided capability is offered
+   * to the server during the handshake. A capability is
+   * only used on a connection if both peers offer it, and
+   * capabilities this library does not implement are never
+   * offered. All implemented capabilities are enabled by default
+   *
+   * @param capability the capability
+   * @param b setting
+   */
+  public void setCapabilityEnabled(Capability capability, boolean b) {
+    if (capability == null)
+      throw new IllegalArgumentException("Capability cannot be null");
+
+    if (b)
+      capabilities.add(capability);
+    else
+      capabilities.remove(capability);
+
+    close();
+  }
+
+  int getCapabilityMask() {
+    return Capability.toMask(capabilities);
+  }
 
 }
@@ -19,27 +19,36 @@
 package rFunc.net;
 
 import rFunc.net.packet.Packet;
+import rFunc.net.packet.PacketLimits;
 import rFunc.net.packet.TerminatePacket;
 
 import java.io.IOException;
-import java.net.Socket;
 
 /**
  * Author:    LeqxLeqx
  */
 class ClientConnection extends Connection {
 
-  ClientConnection(String ip, int port) throws IOException {
-    super(new Socket(ip, port));
+  ClientConnection(Transport transport, int capabilities, int compressionThreshold, PacketLimits limits) throws IOException {
+    super(transport, capabilities, compressionThreshold, limits);
   }
 
+  /**
+   * Tells the server the connection is done with, then closes it.
+   * The connection is closed even if the server cannot be told
+   *
+   * @param transID the transaction id of the terminate packet
+   * @throws IOException if the terminate packet cannot be sent
+   */
   void close(long transID) throws IOException {
     TerminatePacket terminatePacket = new TerminatePacket();
     terminatePacket.setTransactionID(transID);
 
-    send(terminatePacket);
-
-    super.close();
+    try {
+      send(terminatePacket);
+    } finally {
+      super.close();
+    }
   }
 
   @Override
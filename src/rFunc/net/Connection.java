@@ -19,14 +19,20 @@
 package rFunc.net;
 
 import rFunc.RFunc;
+import rFunc.net.packet.Capability;
 import rFunc.net.packet.HandshakePacket;
 import rFunc.net.packet.Packet;
+import rFunc.net.packet.PacketCompressor;
+import rFunc.net.packet.PacketLimits;
 import rFunc.net.packet.PacketType;
+import rFunc.net.packet.PongPacket;
+import rFunc.net.packet.WireFormat;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Socket;
 
 /**
  * Author:    LeqxLeqx
@@ -34,20 +40,36 @@ import java.net.Socket;
 abstract class Connection {
 
 
-  final Socket socket;
+  final Transport transport;
   final InputStream inputStream;
   final OutputStream outputStream;
 
+  final int offeredCapabilities;
+  int protocolVersion = 1, capabilities = 0;
+  WireFormat wireFormat = WireFormat.LEGACY;
+
+  final int compressionThreshold;
+  PacketCompressor compressor = null;
+
+  final PacketLimits limits;
+
   boolean handshakeComplete = false;
 
-  Connection(Socket socket) throws IOException {
+  private volatile long lastReceived = System.nanoTime();
 
-    if (socket == null)
-      throw new IllegalArgumentException("Socket for connection cannot be null");
+  Connection(Transport transport, int offeredCapabilities, int compressionThreshold, PacketLimits limits) throws IOException {
 
-    this.socket = socket;
-    inputStream = socket.getInputStream();
-    outputStream = socket.getOutputStream();
+    if (transport == null)
+      throw new IllegalArgumentException("Transport for connection cannot be null");
+    if (limits == null)
+      throw new IllegalArgumentException("Limits for connection cannot be null");
+
+    this.transport = transport;
+    this.offeredCapabilities = offeredCapabilities;
+    this.compressionThreshold = compressionThreshold;
+    this.limits = limits;
+    inputStream = new BufferedInputStream(transport.getInputStream());
+    outputStream = transport.getOutputStream();
 
   }
 
@@ -57,24 +79,80 @@ abstract class Connection {
 
   void close() {
     try {
-      socket.close();
+      transport.close();
     } catch (IOException e) {}
+
+    if (compressor != null)
+      compressor.end();
   }
 
 
+  /**
+   * Opens the handshake, offering the protocol versions and
+   * capabilities of this connection, then reads the answer
+   *
+   * @throws IOException if the handshake fails
+   */
   synchronized void shakeHands() throws IOException {
 
-    privateSend(new HandshakePacket());
+    privateSend(new HandshakePacket(offeredCapabilities));
+    negotiate(awaitHandshake());
+  }
+
+  /**
+   * Reads the handshake opening the connection, then answers it.
+   * A peer predating protocol negotiation is answered with a
+   * handshake just like its own, offering protocol version 1 alone
+   *
+   * @throws IOException if the handshake fails
+   */
+  synchronized void answerHandshake() throws IOException {
+
+    HandshakePacket handshake = awaitHandshake();
+    privateSend(handshake.isLegacy() ? HandshakePacket.createLegacy() : new HandshakePacket(offeredCapabilities));
+    negotiate(handshake);
+  }
+
+  private HandshakePacket awaitHandshake() throws IOException {
     Packet packet = awaitIncomingPacket();
     if (packet.type != PacketType.HANDSHAKE)
       throw new IOException("Error in handshake. Invalid packet type sent by respondent");
-    else if (!((HandshakePacket) packet).isValid())
-      throw new IOException(String.format("Error in handshake. Version mismatch between this library and respondent library (%s != %s)", RFunc.getVersion(), ((HandshakePacket) packet).version));
 
+    return (HandshakePacket) packet;
+  }
+
+  private void negotiate(HandshakePacket handshake) throws IOException {
+
+    protocolVersion = handshake.negotiateProtocolVersion(RFunc.getMinimumProtocolVersion(), RFunc.getProtocolVersion());
+    if (protocolVersion == -1)
+      throw new IOException(String.format(
+              "Error in handshake. No common protocol version between this library and respondent library (%d-%d, %d-%d from %s)",
+              RFunc.getMinimumProtocolVersion(),
+              RFunc.getProtocolVersion(),
+              handshake.minimumProtocolVersion,
+              handshake.maximumProtocolVersion,
+              handshake.version
+        ));
+
+    capabilities = offeredCapabilities & handshake.capabilities & Capability.getSupportedMask();
+    wireFormat = Capability.COMPACT_FRAMING.in(capabilities) ? WireFormat.COMPACT : WireFormat.LEGACY;
+    if (Capability.COMPRESSION.in(capabilities))
+      compressor = new PacketCompressor(compressionThreshold);
 
     handshakeComplete = true;
   }
 
+  /**
+   * Gets whether or not the provided capability was agreed upon
+   * by both peers during the handshake
+   *
+   * @param capability the capability
+   * @return true if the capability is in use on this connection
+   */
+  boolean hasCapability(Capability capability) {
+    return capability.in(capabilities);
+  }
+
 
   boolean incomingDataReady() throws IOException{
     return inputStream.available() > 0;
@@ -99,8 +177,71 @@ abstract class Connection {
     return incoming;
   }
 
+  /**
+   * Waits until the first byte of the next incoming packet is
+   * available, without consuming it. A timeout here leaves the
+   * connection ready to be waited on again
+   *
+   * @throws IOException if the connection times out, fails or is closed
+   */
+  void awaitIncomingData() throws IOException {
+    inputStream.mark(1);
+    if (inputStream.read() < 0)
+      throw new EOFException();
+    inputStream.reset();
+  }
+
+  /**
+   * Reads the next incoming packet without holding the lock used for
+   * sending, so replies may be sent by other threads while this waits.
+   * Only one thread may receive from a connection
+   *
+   * @return the incoming packet
+   * @throws IOException
+   */
+  Packet receive() throws IOException {
+    if (!handshakeComplete)
+      throw new RuntimeException("Cannot receive packet until handshake is complete");
+
+    return awaitIncomingPacket();
+  }
+
   private Packet awaitIncomingPacket() throws IOException{
-    return Packet.parse(inputStream);
+    try {
+      return Packet.parse(inputStream, wireFormat, compressor, limits);
+    } finally {
+      lastReceived = System.nanoTime();
+    }
+  }
+
+  /**
+   * Gets the time at which the last packet was read from this
+   * connection, or at which it was opened if none was read
+   *
+   * @return the time, as of System.nanoTime
+   */
+  long getLastReceived() {
+    return lastReceived;
+  }
+
+  /**
+   * Answers a ping from the peer with a pong. Pings and pongs only
+   * show that the peer is still there, and are of no further use
+   * to whoever received them
+   *
+   * @param packet the packet received
+   * @return true if the packet was a ping or a pong
+   * @throws IOException if the pong cannot be sent
+   */
+  boolean keepAlive(Packet packet) throws IOException {
+    if (packet.type == PacketType.PING) {
+      PongPacket pong = new PongPacket();
+      pong.setTransactionID(packet.getTransactionID());
+      send(pong);
+      return true;
+    }
+
+    return packet.type == PacketType.PONG;
   }
 
   synchronized Packet sendAndAwaitReply(Packet packet) throws IOException {
@@ -108,7 +249,13 @@ abstract class Connection {
       throw new IllegalArgumentException("Packet cannot be null");
 
     privateSend(packet);
-    return awaitIncomingPacket();
+
+    Packet reply;
+    do {
+      reply = awaitIncomingPacket();
+    } while(keepAlive(reply));
+
+    return reply;
   }
 
   synchronized void send(Packet packet) throws IOException {
@@ -119,14 +266,14 @@ abstract class Connection {
   }
 
   private void privateSend(Packet packet) throws IOException{
-    packet.writeData(outputStream);
+    packet.writeData(outputStream, wireFormat, compressor);
   }
 
 
 
   @Override
   public String toString() {
-    return socket.getInetAddress().toString();
+    return transport.toString();
   }
 
 
@@ -0,0 +1,242 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import rFunc.net.packet.CancelPacket;
+import rFunc.net.packet.CreditPacket;
+import rFunc.net.packet.Packet;
+import rFunc.net.packet.PacketLimits;
+import rFunc.net.packet.PacketType;
+import rFunc.net.packet.StreamValuePacket;
+import rFunc.net.packet.SubscribePacket;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived client connection over which any number of calls may
+ * be in flight at once. Replies are read by a background thread and
+ * matched to their calls by transaction id, in whatever order the
+ * server sends them. Values streamed to subscriptions are matched
+ * the same way.
+ *
+ * Author:    LeqxLeqx
+ */
+class MultiplexedConnection extends ClientConnection {
+
+  private final ConcurrentHashMap<Long, CompletableFuture<Packet>> pendingReplies = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+  private final AtomicLong nextTransactionID = new AtomicLong();
+  private final Thread reader = new Thread(this::read, "rFunc client connection");
+  private volatile boolean closed = false;
+
+  MultiplexedConnection(Transport transport, int capabilities, int compressionThreshold, PacketLimits limits) throws IOException {
+    super(transport, capabilities, compressionThreshold, limits);
+
+    reader.setDaemon(true);
+  }
+
+  /**
+   * Starts reading replies. Should be called once
+   * the handshake is complete
+   */
+  void start() {
+    reader.start();
+  }
+
+  boolean isOpen() {
+    return !closed;
+  }
+
+  long nextTransactionID() {
+    return nextTransactionID.getAndIncrement();
+  }
+
+  /**
+   * Gets the number of calls awaiting their reply
+   *
+   * @return the number of calls in flight
+   */
+  int getPendingCount() {
+    return pendingReplies.size();
+  }
+
+  /**
+   * Sends a call, returning a future completed with its reply
+   *
+   * @param packet the call, with its transaction id set
+   * @return the future reply
+   */
+  CompletableFuture<Packet> call(Packet packet) {
+    long transactionID = packet.getTransactionID();
+    CompletableFuture<Packet> reply = new CompletableFuture<>();
+
+    pendingReplies.put(transactionID, reply);
+    if (closed) {
+      pendingReplies.remove(transactionID);
+      reply.completeExceptionally(new IOException("Connection is closed"));
+      return reply;
+    }
+
+    try {
+      send(packet);
+    } catch (IOException e) {
+      pendingReplies.remove(transactionID);
+      reply.completeExceptionally(e);
+      close();
+    }
+
+    return reply;
+  }
+
+  /**
+   * Sends a subscription, passing the values streamed back and
+   * the final reply to the call on to the provided subscription
+   *
+   * @param packet the subscription, with its transaction id set
+   * @param subscription the subscription receiving the values
+   */
+  void subscribe(SubscribePacket packet, Subscription subscription) {
+    long transactionID = packet.getTransactionID();
+
+    subscriptions.put(transactionID, subscription);
+    if (closed) {
+      subscriptions.remove(transactionID);
+      subscription.fail(new IOException("Connection is closed"));
+      return;
+    }
+
+    try {
+      send(packet);
+    } catch (IOException e) {
+      subscriptions.remove(transactionID);
+      subscription.fail(e);
+      close();
+    }
+  }
+
+  /**
+   * Grants a subscription credits for more values
+   *
+   * @param transactionID the transaction id of the subscription
+   * @param credits the number of credits granted
+   */
+  void grant(long transactionID, int credits) {
+    if (!subscriptions.containsKey(transactionID) || closed)
+      return;
+
+    CreditPacket creditPacket = new CreditPacket(credits);
+    creditPacket.setTransactionID(transactionID);
+
+    try {
+      send(creditPacket);
+    } catch (IOException e) {
+      close();
+    }
+  }
+
+  /**
+   * Asks the server to cancel a call still awaiting its reply,
+   * or a subscription. Any reply or value later sent for the
+   * call is discarded
+   *
+   * @param transactionID the transaction id of the call
+   */
+  void cancel(long transactionID) {
+    if (pendingReplies.remove(transactionID) == null && subscriptions.remove(transactionID) == null)
+      return;
+    if (closed)
+      return;
+
+    CancelPacket cancelPacket = new CancelPacket();
+    cancelPacket.setTransactionID(transactionID);
+
+    try {
+      send(cancelPacket);
+    } catch (IOException e) {
+      close();
+    }
+  }
+
+  @Override
+  void close(long transID) throws IOException {
+    closed = true;
+    super.close(transID);
+  }
+
+  @Override
+  void close() {
+    closed = true;
+    super.close();
+  }
+
+  private void read() {
+    IOException failure;
+
+    try {
+
+      while(true) {
+        Packet packet = receive();
+        long transactionID = packet.getTransactionID();
+
+        if (keepAlive(packet))
+          continue;
+
+        if (packet.type == PacketType.STREAM_VALUE) {
+          Subscription subscription = subscriptions.get(transactionID);
+          if (subscription != null)
+            subscription.receive(((StreamValuePacket) packet).value);
+          continue;
+        }
+
+        Subscription subscription = subscriptions.remove(transactionID);
+        if (subscription != null) {
+          subscription.complete(packet);
+          continue;
+        }
+
+        CompletableFuture<Packet> reply = pendingReplies.remove(transactionID);
+        if (reply != null)
+          reply.complete(packet);
+      }
+
+    } catch (IOException e) {
+      failure = e;
+    } catch (RuntimeException e) {
+      failure = new IOException(e);
+    }
+
+    close();
+
+    for(Long transactionID : pendingReplies.keySet()) {
+      CompletableFuture<Packet> reply = pendingReplies.remove(transactionID);
+      if (reply != null)
+        reply.completeExceptionally(failure);
+    }
+
+    for(Long transactionID : subscriptions.keySet()) {
+      Subscription subscription = subscriptions.remove(transactionID);
+      if (subscription != null)
+        subscription.fail(failure);
+    }
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import rFunc.method.InvocationException;
+
+/**
+ * Thrown when a server refuses a call because it is overloaded. The
+ * server gives a hint of how long the caller should wait before
+ * trying again
+ *
+ * Author:    LeqxLeqx
+ */
+public class OverloadedException extends InvocationException {
+
+  private final long retryAfter;
+
+  public OverloadedException(String message, long retryAfter) {
+    super("%s", message);
+
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * Gets the time in milliseconds the server asked
+   * the caller to wait before trying again
+   *
+   * @return the retry-after hint
+   */
+  public long getRetryAfter() {
+    return retryAfter;
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import rFunc.method.MethodSpecification;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class RemoteMethod {
+
+  public final String namespace;
+  public final MethodSpecification methodSpecification;
+
+  final int tableIdentifier;
+  volatile int methodID;
+
+  RemoteMethod(String namespace, MethodSpecification methodSpecification, int tableIdentifier, int methodID) {
+    if (namespace == null)
+      throw new IllegalArgumentException("Namespace cannot be null");
+    if (methodSpecification == null)
+      throw new IllegalArgumentException("Method specification cannot be null");
+
+    this.namespace = namespace;
+    this.methodSpecification = methodSpecification;
+    this.tableIdentifier = tableIdentifier;
+    this.methodID = methodID;
+  }
+
+  /**
+   * Gets whether or not the server assigned this method an id,
+   * allowing it to be called without sending its name and
+   * argument specification
+   *
+   * @return true if the method has an id
+   */
+  public boolean isIndexed() {
+    return methodID >= 0;
+  }
+
+  @Override
+  public String toString() {
+    return namespace.isEmpty()
+            ? methodSpecification.toString()
+            : String.format("%s.%s", namespace, methodSpecification);
+  }
+
+}
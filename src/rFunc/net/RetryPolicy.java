@@ -0,0 +1,189 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import rFunc.method.InvocationException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how soon a client retries a failed call.
+ *
+ * A call is retried after a transport failure or an overloaded reply,
+ * never after an error raised by the method itself. Unless the policy
+ * is for idempotent methods, only failures certain to have happened
+ * before the call reached the method are retried: a refused connection
+ * or an overloaded reply. Waits between attempts grow exponentially and
+ * are drawn at random below that bound, so that clients failing at
+ * once do not retry at once. Retries are drawn from a budget
+ * replenished by a fraction of each call, limiting the extra load
+ * retries put on a struggling server; the budget is shared by every
+ * call made under the policy
+ *
+ * Author:    LeqxLeqx
+ */
+public class RetryPolicy {
+
+  public static final int DEFAULT_MAXIMUM_ATTEMPTS = 3;
+  public static final long DEFAULT_INITIAL_BACKOFF = 50;
+  public static final long DEFAULT_MAXIMUM_BACKOFF = 2000;
+  public static final double DEFAULT_BUDGET = 0.1;
+
+  private static final double MAXIMUM_TOKENS = 10;
+
+
+  private final int maximumAttempts;
+  private final long initialBackoff, maximumBackoff;
+  private final boolean idempotent;
+  private final double budget;
+
+  private double tokens = MAXIMUM_TOKENS;
+
+  /**
+   * Creates a policy for methods which are not idempotent,
+   * with the default attempts, backoff and budget
+   */
+  public RetryPolicy() {
+    this(DEFAULT_MAXIMUM_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAXIMUM_BACKOFF, DEFAULT_BUDGET, false);
+  }
+
+  /**
+   * Creates a retry policy
+   *
+   * @param maximumAttempts the most attempts made of a call, including the first
+   * @param initialBackoff the bound in milliseconds of the wait before the first retry
+   * @param maximumBackoff the bound in milliseconds of the wait before any retry
+   * @param budget the retries allowed for each call made, as a fraction
+   * @param idempotent whether or not calls may be retried after reaching the server
+   */
+  public RetryPolicy(int maximumAttempts, long initialBackoff, long maximumBackoff, double budget, boolean idempotent) {
+    if (maximumAttempts < 1)
+      throw new IllegalArgumentException("Maximum attempts must be positive");
+    if (initialBackoff < 1)
+      throw new IllegalArgumentException("Initial backoff must be positive");
+    if (maximumBackoff < initialBackoff)
+      throw new IllegalArgumentException("Maximum backoff cannot be less than initial backoff");
+    if (budget < 0)
+      throw new IllegalArgumentException("Budget cannot be negative");
+
+    this.maximumAttempts = maximumAttempts;
+    this.initialBackoff = initialBackoff;
+    this.maximumBackoff = maximumBackoff;
+    this.budget = budget;
+    this.idempotent = idempotent;
+  }
+
+  /**
+   * Records that a call was made under this policy,
+   * adding to the retry budget
+   */
+  synchronized void deposit() {
+    tokens = Math.min(MAXIMUM_TOKENS, tokens + budget);
+  }
+
+  /**
+   * Gets whether or not a call is to be retried after the provided
+   * failure of its numbered attempt, taking the retry from the budget
+   */
+  boolean shouldRetry(int attempt, Throwable failure) {
+    if (attempt >= maximumAttempts || !isRetrySafe(failure))
+      return false;
+
+    synchronized (this) {
+      if (tokens < 1)
+        return false;
+      tokens--;
+    }
+
+    return true;
+  }
+
+  private boolean isRetrySafe(Throwable failure) {
+    if (failure instanceof CircuitOpenException)
+      return false;
+    if (failure instanceof ConnectException || failure instanceof OverloadedException)
+      return true;
+    if (failure instanceof InvocationException)
+      return false;
+
+    return idempotent && failure instanceof IOException;
+  }
+
+  /**
+   * Gets the time in milliseconds to wait before retrying after the
+   * provided failure of the numbered attempt of a call
+   */
+  long getBackoff(int attempt, Throwable failure) {
+    long bound = initialBackoff << Math.min(attempt - 1, 30);
+    long backoff = ThreadLocalRandom.current().nextLong(Math.min(bound, maximumBackoff) + 1);
+
+    if (failure instanceof OverloadedException)
+      backoff = Math.max(backoff, ((OverloadedException) failure).getRetryAfter());
+
+    return backoff;
+  }
+
+  /**
+   * Gets the most attempts made of a call, including the first
+   *
+   * @return the maximum attempts
+   */
+  public int getMaximumAttempts() {
+    return maximumAttempts;
+  }
+
+  /**
+   * Gets the bound in milliseconds of the wait before the first retry
+   *
+   * @return the initial backoff
+   */
+  public long getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  /**
+   * Gets the bound in milliseconds of the wait before any retry
+   *
+   * @return the maximum backoff
+   */
+  public long getMaximumBackoff() {
+    return maximumBackoff;
+  }
+
+  /**
+   * Gets the retries allowed for each call made, as a fraction
+   *
+   * @return the retry budget
+   */
+  public double getBudget() {
+    return budget;
+  }
+
+  /**
+   * Gets whether or not calls may be retried after reaching the server
+   *
+   * @return true if the policy is for idempotent methods
+   */
+  public boolean isIdempotent() {
+    return idempotent;
+  }
+
+}
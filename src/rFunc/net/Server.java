@@ -18,17 +18,27 @@
 
 package rFunc.net;
 
+import rFunc.method.CallContext;
 import rFunc.method.Environment;
 import rFunc.method.InvocationException;
 import rFunc.method.MethodSpecification;
 import rFunc.method.Namespace;
+import rFunc.method.ResultStream;
 import rFunc.net.packet.*;
 import rFunc.value.Value;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -36,14 +46,20 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class Server implements Runnable{
 
+  /**
+   * Time in milliseconds the server waits for a connection before
+   * checking whether it was asked to terminate
+   */
   public static final int SERVER_TIMEOUT = 300;
 
+  private static final int MAXIMUM_REAPER_INTERVAL = 1000;
+
 
 
   public final Environment environment = new Environment();
 
 
-  private ServerSocket serverSocket;
+  private TransportListener listener;
 
   private ReentrantLock runLock = new ReentrantLock();
   private Thread thread = new Thread(this);
@@ -51,8 +67,39 @@ public class Server implements Runnable{
 
   public boolean dirtyMouth = false;
 
+  private final EnumSet<Capability> capabilities = Capability.fromMask(Capability.getSupportedMask());
+  private int compressionThreshold = PacketCompressor.DEFAULT_THRESHOLD;
+  private int maximumOutstandingCalls = 256, maximumPendingBytes = 1 << 20;
+  private int idleTimeout = 60000, readTimeout = 10000;
+
+  private final Set<ServerConnection> connections = ConcurrentHashMap.newKeySet();
+  private final ExecutorService connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "rFunc connection");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ExecutorService callExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "rFunc call");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ScheduledThreadPoolExecutor reaper = new ScheduledThreadPoolExecutor(1, runnable -> {
+    Thread thread = new Thread(runnable, "rFunc reaper");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+  private volatile AdmissionController admissionController = null;
+  private final AtomicLong expiredCallCount = new AtomicLong();
+
   public final ServerLog log = new ServerLog();
 
+  /**
+   * Limits on the size of the packets clients may send. Changes
+   * apply to packets read after they are made
+   */
+  public final PacketLimits limits = new PacketLimits();
+
   public Server() {}
 
   /**
@@ -67,6 +114,8 @@ public class Server implements Runnable{
 
     log.addInfo("Server thread started");
 
+    scheduleReaper();
+
     do {
 
       synchronized (this) {
@@ -75,54 +124,463 @@ public class Server implements Runnable{
 
       if (er) continue;
 
-      boolean serverWaiting = true;
-
       try {
 
         log.addVerbose("Awaiting connection...");
-        Socket socket = serverSocket.accept();
-        serverWaiting = false;
+        Transport transport = listener.accept(SERVER_TIMEOUT);
+        connectionExecutor.execute(() -> serve(transport));
 
-        socket.setSoTimeout(SERVER_TIMEOUT); // should do good things...
-        ServerConnection connection = new ServerConnection(this, socket);
-        log.addTrace(String.format("Connected to '%s'", connection.toString()));
+      } catch (SocketTimeoutException e) {
+        log.addVerbose(String.format("Connection timed out after '%s' milliseconds", SERVER_TIMEOUT));
+      } catch (Exception e) {
+        log.addException(e);
+        if (dirtyMouth)
+          e.printStackTrace();
+        continue;
+      }
 
-        log.addTrace("Performing connection handshake...");
-        connection.shakeHands();
-        log.addTrace("Connection handshake complete");
+    } while(!er);
 
-        Packet incomingPacket;
-        do {
-          log.addTrace("Awaiting incoming packet...");
-          incomingPacket = connection.awaitIncomingPacket(true);
-          log.addTrace("Received and replied to incoming packet");
-        } while (incomingPacket.type != PacketType.TERMINATE);
+    try {
+      listener.close();
+    } catch (IOException e) {
+      log.addException(e);
+    }
 
-        log.addTrace(String.format("Closing connection '%s'", connection.toString()));
-        connection.close();
-        log.addTrace("Connection successfully closed");
+    for(ServerConnection connection : connections) {
+      connection.close();
+    }
+    reaper.shutdownNow();
+    connectionExecutor.shutdown();
+    callExecutor.shutdown();
 
+    for(Bulkhead bulkhead : bulkheads.values()) {
+      bulkhead.shutdown();
+    }
 
-      } catch (SocketTimeoutException e) {
-        if (serverWaiting)
-          log.addVerbose(String.format("Connection timed out after '%s' milliseconds", SERVER_TIMEOUT));
-        else {
-          log.addException(e);
+
+    runLock.unlock();
+
+    log.addInfo("Server thread completed");
+
+  }
+
+  private void serve(Transport transport) {
+    ServerConnection connection = null;
+
+    try {
+
+      transport.setReadTimeout(getReadTimeout());
+      connection = new ServerConnection(this, transport);
+      connections.add(connection);
+      log.addTrace(String.format("Connected to '%s'", connection.toString()));
+
+      log.addTrace("Performing connection handshake...");
+      connection.answerHandshake();
+      log.addTrace(String.format(
+              "Connection handshake complete (protocol %d, capabilities %s)",
+              connection.protocolVersion,
+              Capability.fromMask(connection.capabilities)
+        ));
+
+      Packet incomingPacket;
+      while(true) {
+        if (connection.awaitCapacity())
+          log.addVerbose(String.format("Resumed reading from '%s' once within its budgets", connection.toString()));
+
+        log.addTrace("Awaiting incoming packet...");
+        try {
+          connection.awaitIncomingData();
+        } catch (SocketTimeoutException e) {
+          continue;
         }
-      } catch (Exception e) {
+
+        try {
+          incomingPacket = connection.receive();
+        } catch (PacketLimitException e) {
+          log.addWarning(String.format("Closing connection '%s' after a packet exceeding its limits: %s", connection.toString(), e.getMessage()));
+          if (e.transactionID != -1) {
+            ErrorPacket rejection = new ErrorPacket(e.getMessage());
+            rejection.setTransactionID(e.transactionID);
+            reply(connection, rejection);
+          }
+          break;
+        }
+
+        if (incomingPacket.type == PacketType.TERMINATE)
+          break;
+        if (connection.keepAlive(incomingPacket))
+          continue;
+        dispatch(connection, incomingPacket, System.nanoTime());
+      }
+
+      connection.cancelStreams();
+      connection.awaitOutstandingCalls();
+
+      log.addTrace(String.format("Closing connection '%s'", connection.toString()));
+      if (connection.compressor != null)
+        log.addVerbose(String.format("Compression statistics for '%s': %s", connection.toString(), connection.compressor));
+
+
+    } catch (SocketTimeoutException e) {
+      log.addVerbose(String.format("Connection timed out after '%s' milliseconds within a packet", getReadTimeout()));
+    } catch (Exception e) {
+      if (!terminateRequested() && (connection == null || !connection.isReaped())) {
         log.addException(e);
         if (dirtyMouth)
           e.printStackTrace();
+      }
+    } finally {
+
+      if (connection != null) {
+        connections.remove(connection);
+        connection.cancelStreams();
+        connection.close();
+        log.addTrace("Connection successfully closed");
+      }
+      else {
+        try {
+          transport.close();
+        } catch (IOException e) {}
+      }
+
+    }
+  }
+
+  private void dispatch(ServerConnection connection, Packet packet, long received) {
+    if (packet.type == PacketType.CANCEL) {
+      cancel(connection, packet.getTransactionID());
+      return;
+    }
+
+    if (packet.type == PacketType.SUBSCRIBE) {
+      subscribe(connection, (SubscribePacket) packet);
+      return;
+    }
+
+    if (packet.type == PacketType.CREDIT) {
+      credit(connection, (CreditPacket) packet);
+      return;
+    }
+
+    if (!isCall(packet)) {
+      reply(connection, getResponse(connection, packet));
+      log.addTrace("Received and replied to incoming packet");
+      return;
+    }
+
+    String namespace = getCallNamespace(packet);
+    Bulkhead bulkhead = namespace == null ? null : bulkheads.get(namespace);
+
+    AdmissionController admission = admissionController;
+    if (admission != null && !admission.tryAcquire()) {
+      log.addWarning("Call rejected as server is overloaded");
+      reject(connection, packet, ErrorPacket.overloaded(admission.getRetryAfter()));
+      return;
+    }
+
+    int timeout = getCallTimeout(packet);
+    CallContext context = timeout == 0
+            ? new CallContext()
+            : new CallContext(received + TimeUnit.MILLISECONDS.toNanos(timeout));
+
+    if (bulkhead == null && !connection.hasCapability(Capability.MULTIPLEXING)) {
+      respond(connection, packet, admission, context);
+      log.addTrace("Received and replied to incoming packet");
+      return;
+    }
+
+    long transactionID = packet.getTransactionID();
+    connection.beginCall(transactionID, context);
+
+    Runnable call = () -> {
+      try {
+        respond(connection, packet, admission, context);
+      } finally {
+        connection.endCall(transactionID, context);
+      }
+    };
+
+    if (!submit(bulkhead, call)) {
+      connection.endCall(transactionID, context);
+      if (admission != null)
+        admission.release();
+      log.addWarning(String.format("Call rejected as namespace '%s' is at capacity", namespace));
+      reject(connection, packet, new ErrorPacket(String.format("Namespace '%s' is at capacity", namespace)));
+    }
+  }
+
+  private boolean submit(Bulkhead bulkhead, Runnable call) {
+    if (bulkhead != null)
+      return bulkhead.submit(call);
+
+    try {
+      callExecutor.execute(call);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Runs a call made by subscription, sending the values its method
+   * emits back over the connection as the subscriber grants credits.
+   * As subscriptions may stream for as long as the subscriber wishes,
+   * they are not subject to admission control
+   */
+  private void subscribe(ServerConnection connection, SubscribePacket packet) {
+    if (!connection.hasCapability(Capability.STREAMING) || !connection.hasCapability(Capability.MULTIPLEXING)) {
+      log.addWarning("Subscription rejected as streaming is not in use on the connection");
+      reject(connection, packet, new ErrorPacket("Streaming is not in use on the connection"));
+      return;
+    }
+
+    long transactionID = packet.getTransactionID();
+    String namespace = getCallNamespace(packet.call);
+    Bulkhead bulkhead = namespace == null ? null : bulkheads.get(namespace);
+
+    CallContext context = new CallContext();
+    context.openStream(packet.credits, value -> {
+      StreamValuePacket streamValue = new StreamValuePacket(value);
+      streamValue.setTransactionID(transactionID);
+      connection.send(streamValue);
+    });
+
+    connection.beginCall(transactionID, context);
+
+    Runnable call = () -> {
+      try {
+        log.addInfo(String.format("Streaming call %d to subscriber", transactionID));
+        respond(connection, packet.call, null, context);
+      } finally {
+        connection.endCall(transactionID, context);
+      }
+    };
+
+    if (!submit(bulkhead, call)) {
+      connection.endCall(transactionID, context);
+      log.addWarning(String.format("Subscription rejected as namespace '%s' is at capacity", namespace));
+      reject(connection, packet, new ErrorPacket(String.format("Namespace '%s' is at capacity", namespace)));
+    }
+  }
+
+  private void credit(ServerConnection connection, CreditPacket packet) {
+    CallContext context = connection.getCall(packet.getTransactionID());
+    ResultStream stream = context == null ? null : context.getStream();
+
+    if (stream == null) {
+      log.addTrace(String.format("Ignoring credits for subscription %d which is not in progress", packet.getTransactionID()));
+      return;
+    }
+
+    stream.grant(packet.credits);
+  }
+
+  private void respond(ServerConnection connection, Packet packet, AdmissionController admission, CallContext context) {
+    reply(connection, run(packet, admission, context));
+  }
+
+  /**
+   * Runs a call admitted to the server under the provided context,
+   * getting the response to send back
+   */
+  private Packet run(Packet packet, AdmissionController admission, CallContext context) {
+
+    if (context.isCancelled() || context.isExpired()) {
+      if (admission != null)
+        admission.release();
+
+      ErrorPacket rejection;
+      if (context.isCancelled()) {
+        log.addInfo("Call cancelled before it could be run");
+        rejection = new ErrorPacket(CancelPacket.CANCELLED_MESSAGE);
+      }
+      else {
+        expiredCallCount.incrementAndGet();
+        log.addWarning(String.format("Call expired after %d milliseconds before it could be run", getCallTimeout(packet)));
+        rejection = new ErrorPacket(FunctionCallPacket.DEADLINE_EXCEEDED_MESSAGE);
+      }
+      rejection.setTransactionID(packet.getTransactionID());
+      return rejection;
+    }
+
+    CallContext.attach(context);
+
+    long start = System.nanoTime();
+    Packet response;
+
+    try {
+      response = getResponse(null, packet);
+    } finally {
+      CallContext.detach();
+      if (admission != null)
+        admission.release(System.nanoTime() - start);
+    }
+
+    if (context.isCancelled()) {
+      log.addInfo("Call cancelled while running");
+      response = new ErrorPacket(CancelPacket.CANCELLED_MESSAGE);
+      response.setTransactionID(packet.getTransactionID());
+    }
+
+    return response;
+  }
+
+  /**
+   * Runs a call made by a client in the same process on the current
+   * thread. The call is admitted and run as one received over a
+   * connection, and answered with the same response, but neither is
+   * encoded. Bulkheads only apply to calls received over connections
+   *
+   * @param packet the call
+   * @param context the context of the call
+   * @return the response to the call
+   */
+  Packet invokeLocal(Packet packet, CallContext context) {
+    if (!isCall(packet))
+      throw new IllegalArgumentException("Packet is not a call: " + packet.type);
+
+    AdmissionController admission = admissionController;
+    if (admission != null && !admission.tryAcquire()) {
+      log.addWarning("Call rejected as server is overloaded");
+      return ErrorPacket.overloaded(admission.getRetryAfter());
+    }
+
+    return run(packet, admission, context);
+  }
+
+  /**
+   * Runs a call made by subscription by a client in the same process
+   * on the current thread. The context of the call carries the stream
+   * to the subscriber
+   *
+   * @param packet the call
+   * @param context the context of the call
+   * @return the response to the call, ending the stream
+   */
+  Packet subscribeLocal(Packet packet, CallContext context) {
+    if (!isCall(packet))
+      throw new IllegalArgumentException("Packet is not a call: " + packet.type);
+    if (context.getStream() == null)
+      throw new IllegalArgumentException("Context has no stream");
+
+    return run(packet, null, context);
+  }
+
+  private void cancel(ServerConnection connection, long transactionID) {
+    CallContext context = connection.getCall(transactionID);
+
+    if (context == null) {
+      log.addTrace(String.format("Ignoring cancellation of call %d which is not in progress", transactionID));
+      return;
+    }
+
+    log.addInfo(String.format("Cancelling call %d", transactionID));
+    context.cancel();
+  }
+
+  private void reject(ServerConnection connection, Packet packet, ErrorPacket rejection) {
+    rejection.setTransactionID(packet.getTransactionID());
+    reply(connection, rejection);
+  }
+
+  private void scheduleReaper() {
+    int idleTimeout = getIdleTimeout();
+    long interval = idleTimeout == 0 ? MAXIMUM_REAPER_INTERVAL : Math.max(1, Math.min(MAXIMUM_REAPER_INTERVAL, idleTimeout / 4));
+
+    reaper.schedule(() -> {
+      reap();
+      if (!terminateRequested())
+        scheduleReaper();
+    }, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Closes connections whose clients stayed silent for longer than the
+   * idle timeout. Clients which agreed upon keepalive are pinged once
+   * half the idle timeout has passed, so that only those which do not
+   * answer are closed
+   */
+  private void reap() {
+    int idleTimeout = getIdleTimeout();
+    if (idleTimeout == 0)
+      return;
+
+    long now = System.nanoTime(), timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+
+    for(ServerConnection connection : connections) {
+      if (!connection.isAwaitingClient())
         continue;
+
+      long idle = now - connection.getLastReceived();
+
+      if (idle >= timeout) {
+        log.addVerbose(String.format("Closing connection '%s' idle for %d milliseconds", connection.toString(), TimeUnit.NANOSECONDS.toMillis(idle)));
+        connection.reap();
       }
+      else if (idle >= timeout / 2 && connection.hasCapability(Capability.KEEPALIVE)) {
+        PingPacket ping = connection.nextPing();
+        if (ping != null) {
+          log.addTrace(String.format("Pinging connection '%s' idle for %d milliseconds", connection.toString(), TimeUnit.NANOSECONDS.toMillis(idle)));
+          callExecutor.execute(() -> reply(connection, ping));
+        }
+      }
+    }
+  }
 
-    } while(!er);
+  private static boolean isCall(Packet packet) {
+    switch (packet.type) {
 
+      case FUNCTION_CALL:
+      case TIMED_FUNCTION_CALL:
+      case INDEXED_FUNCTION_CALL:
+      case TIMED_INDEXED_FUNCTION_CALL:
+        return true;
 
-    runLock.unlock();
+      default:
+        return false;
 
-    log.addInfo("Server thread completed");
+    }
+  }
 
+  private static int getCallTimeout(Packet packet) {
+    if (packet instanceof FunctionCallPacket)
+      return ((FunctionCallPacket) packet).timeout;
+    else if (packet instanceof IndexedFunctionCallPacket)
+      return ((IndexedFunctionCallPacket) packet).timeout;
+    else
+      return 0;
+  }
+
+  private String getCallNamespace(Packet packet) {
+    switch (packet.type) {
+
+      case FUNCTION_CALL:
+      case TIMED_FUNCTION_CALL:
+        return ((FunctionCallPacket) packet).namespace;
+
+      case INDEXED_FUNCTION_CALL:
+      case TIMED_INDEXED_FUNCTION_CALL:
+        Namespace namespace = environment.getNamespaceOf(((IndexedFunctionCallPacket) packet).methodID);
+        return namespace == null ? null : namespace.name;
+
+      default:
+        return null;
+
+    }
+  }
+
+  private void reply(ServerConnection connection, Packet packet) {
+    if (packet == null)
+      return;
+
+    try {
+      connection.send(packet);
+    } catch (Exception e) {
+      if (!terminateRequested())
+        log.addException(e);
+      connection.close();
+    }
   }
 
   /**
@@ -185,6 +643,7 @@ public class Server implements Runnable{
     switch (packet.type) {
 
       case FUNCTION_CALL:
+      case TIMED_FUNCTION_CALL:
         ret = functionCall((FunctionCallPacket) packet);
         break;
 
@@ -196,6 +655,15 @@ public class Server implements Runnable{
         ret = functionListRequest((FunctionListRequestPacket) packet);
         break;
 
+      case INDEXED_FUNCTION_CALL:
+      case TIMED_INDEXED_FUNCTION_CALL:
+        ret = indexedFunctionCall((IndexedFunctionCallPacket) packet);
+        break;
+
+      case FUNCTION_TABLE_REQUEST:
+        ret = functionTableRequest((FunctionTableRequestPacket) packet);
+        break;
+
       case TERMINATE:
         ret = null;
         break;
@@ -230,8 +698,96 @@ public class Server implements Runnable{
 
       started = true;
 
-      serverSocket = new ServerSocket(port);
-      serverSocket.setSoTimeout(SERVER_TIMEOUT);
+      listener = new SocketTransport.Listener(port);
+      thread.start();
+
+    } catch (Exception e) {
+      log.addException(e);
+      throw e;
+    }
+
+    log.addInfo("Server successfully started");
+
+  }
+
+  /**
+   * Starts the background process for the server, accepting
+   * connections through shared memory from clients on the same host
+   * which set the same directory. Waiting threads park between polls
+   *
+   * @param directory the directory in which clients offer connections
+   * @throws IOException
+   * @see #startSharedMemory(Path, WaitStrategy)
+   */
+  public void startSharedMemory(Path directory) throws IOException {
+    startSharedMemory(directory, WaitStrategy.PARK);
+  }
+
+  /**
+   * Starts the background process for the server, accepting
+   * connections through shared memory from clients on the same host
+   * which set the same directory. Each connection exchanges packets
+   * through ring buffers in a memory-mapped file, without a system
+   * call per packet. With the spin strategy every open connection
+   * keeps a core busy
+   *
+   * @param directory the directory in which clients offer connections
+   * @param waitStrategy how the threads of the server wait for clients
+   * @throws IOException
+   */
+  public void startSharedMemory(Path directory, WaitStrategy waitStrategy) throws IOException {
+
+    if (directory == null)
+      throw new IllegalArgumentException("Directory cannot be null");
+    if (waitStrategy == null)
+      throw new IllegalArgumentException("Wait strategy cannot be null");
+
+    log.addInfo(String.format("Starting server on shared memory in '%s'...", directory));
+
+    try {
+
+      if (started)
+        throw new IllegalStateException("Cannot start server as it has already been started");
+
+      started = true;
+
+      listener = new SharedMemoryTransport.Listener(directory, waitStrategy);
+      thread.start();
+
+    } catch (Exception e) {
+      log.addException(e);
+      throw e;
+    }
+
+    log.addInfo("Server successfully started");
+
+  }
+
+  /**
+   * Starts the background process for the server, listening on a
+   * Unix domain socket for clients on the same host. Clients connect
+   * by setting the same socket path, and speak the same protocol as
+   * over TCP. The socket file is created on start, so must not exist,
+   * and is removed on termination
+   *
+   * @param socketPath path of the socket file
+   * @throws IOException
+   */
+  public void start(Path socketPath) throws IOException {
+
+    if (socketPath == null)
+      throw new IllegalArgumentException("Socket path cannot be null");
+
+    log.addInfo(String.format("Starting server on socket '%s'...", socketPath));
+
+    try {
+
+      if (started)
+        throw new IllegalStateException("Cannot start server as it has already been started");
+
+      started = true;
+
+      listener = new UnixSocketTransport.Listener(socketPath);
       thread.start();
 
     } catch (Exception e) {
@@ -269,6 +825,38 @@ public class Server implements Runnable{
 
   }
 
+  private Packet indexedFunctionCall(IndexedFunctionCallPacket packet) {
+
+    if (packet.tableIdentifier != environment.getTableIdentifier()) {
+      log.addWarning(String.format("Call made against stale method table %d", packet.tableIdentifier));
+      return new ErrorPacket(IndexedFunctionCallPacket.STALE_TABLE_MESSAGE);
+    }
+    if (environment.getNamespaceOf(packet.methodID) == null) {
+      log.addWarning(String.format("Call made against removed method id %d", packet.methodID));
+      return new ErrorPacket(IndexedFunctionCallPacket.STALE_TABLE_MESSAGE);
+    }
+
+    try {
+
+      log.addInfo(String.format("Invoking method %d...", packet.methodID));
+      Value retVal = environment.invoke(packet.methodID, packet.arguments);
+      log.addInfo(String.format("Invocation complete. Returned value: '%s'", retVal));
+
+      return new FunctionReturnPacket(retVal);
+    } catch (InvocationException e) {
+
+      log.addWarning(String.format("Invocation exception incurred: %s", e.getMessage()));
+
+      return new ErrorPacket("Invocation exception: " + e.getMessage());
+    } catch (Throwable t) {
+
+      log.addException(t);
+
+      return new ErrorPacket("Server error: " + t.getMessage());
+    }
+
+  }
+
   private Packet namespaceListRequest(NamespaceListRequestPacket packet) {
 
     log.addInfo("Processing namespace list request");
@@ -287,4 +875,235 @@ public class Server implements Runnable{
       return new FunctionListPacket(namespace.list());
   }
 
+  private Packet functionTableRequest(FunctionTableRequestPacket packet) {
+    Namespace namespace = environment.getNamespace(packet.namespace);
+
+    log.addInfo(String.format("Processing function table request for namespace '%s'", packet.namespace));
+
+    if (namespace == null)
+      return new FunctionTablePacket(environment.getTableIdentifier(), new int[0], new MethodSpecification[0]);
+
+    synchronized (namespace) {
+      return new FunctionTablePacket(environment.getTableIdentifier(), namespace.listIDs(), namespace.list());
+    }
+  }
+
+  /**
+   * Gets the bulkhead on which calls to the provided namespace are run
+   *
+   * @param namespace the namespace name
+   * @return the bulkhead of the namespace, or null if its calls run on the connection thread
+   */
+  public Bulkhead getBulkhead(String namespace) {
+    if (namespace == null)
+      throw new IllegalArgumentException("Namespace cannot be null");
+    return bulkheads.get(namespace);
+  }
+
+  /**
+   * Sets the bulkhead on which calls to the provided namespace are
+   * run. Calls to namespaces without a bulkhead run on the thread of
+   * the connection they arrive on. A bulkhead replaced or removed here
+   * is not shut down, while those set when the server terminates are
+   *
+   * @param namespace the namespace name
+   * @param bulkhead the bulkhead, or null to run calls on the connection thread
+   */
+  public void setBulkhead(String namespace, Bulkhead bulkhead) {
+    if (namespace == null)
+      throw new IllegalArgumentException("Namespace cannot be null");
+
+    if (bulkhead == null)
+      bulkheads.remove(namespace);
+    else
+      bulkheads.put(namespace, bulkhead);
+  }
+
+  /**
+   * Gets the number of calls not run because their deadline
+   * had passed by the time they could be
+   *
+   * @return the expired call count
+   */
+  public long getExpiredCallCount() {
+    return expiredCallCount.get();
+  }
+
+  /**
+   * Gets the admission controller limiting the calls run at once
+   *
+   * @return the admission controller, or null if calls are not limited
+   */
+  public AdmissionController getAdmissionController() {
+    return admissionController;
+  }
+
+  /**
+   * Sets the admission controller limiting the calls run at once
+   * across all connections. Calls beyond its limit are refused with
+   * an overloaded error carrying a retry-after hint
+   *
+   * @param admissionController the admission controller, or null to not limit calls
+   */
+  public void setAdmissionController(AdmissionController admissionController) {
+    this.admissionController = admissionController;
+  }
+
+  /**
+   * Gets the minimum length of packet data compressed
+   * on connections where compression is in use
+   *
+   * @return the compression threshold in bytes
+   */
+  public synchronized int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets the minimum length of packet data compressed on
+   * connections where compression is in use. Smaller frames
+   * are sent as is, as are frames compression does not shrink
+   *
+   * @param compressionThreshold the compression threshold in bytes
+   */
+  public synchronized void setCompressionThreshold(int compressionThreshold) {
+    if (compressionThreshold < 0)
+      throw new IllegalArgumentException("Cannot set compression threshold to: " + compressionThreshold);
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Gets the number of calls read from a connection which may be
+   * outstanding before the server stops reading from it
+   *
+   * @return the maximum outstanding calls per connection
+   */
+  public synchronized int getMaximumOutstandingCalls() {
+    return maximumOutstandingCalls;
+  }
+
+  /**
+   * Sets the number of calls read from a connection which may be
+   * outstanding before the server stops reading from it. Further calls
+   * wait in the transport, holding back the client sending them, until
+   * one completes. Applies to connections accepted after it is set
+   *
+   * @param maximumOutstandingCalls the maximum outstanding calls per connection
+   */
+  public synchronized void setMaximumOutstandingCalls(int maximumOutstandingCalls) {
+    if (maximumOutstandingCalls <= 0)
+      throw new IllegalArgumentException("Cannot set maximum outstanding calls to: " + maximumOutstandingCalls);
+    this.maximumOutstandingCalls = maximumOutstandingCalls;
+  }
+
+  /**
+   * Gets the number of bytes of replies to a connection which may be
+   * pending before the server stops reading from it
+   *
+   * @return the maximum pending reply bytes per connection
+   */
+  public synchronized int getMaximumPendingBytes() {
+    return maximumPendingBytes;
+  }
+
+  /**
+   * Sets the number of bytes of replies to a connection which may be
+   * pending, not yet written as the client is slow to read them,
+   * before the server stops reading from it. Applies to connections
+   * accepted after it is set
+   *
+   * @param maximumPendingBytes the maximum pending reply bytes per connection
+   */
+  public synchronized void setMaximumPendingBytes(int maximumPendingBytes) {
+    if (maximumPendingBytes <= 0)
+      throw new IllegalArgumentException("Cannot set maximum pending bytes to: " + maximumPendingBytes);
+    this.maximumPendingBytes = maximumPendingBytes;
+  }
+
+  /**
+   * Gets the time in milliseconds a client may stay silent before
+   * its connection is closed
+   *
+   * @return the idle timeout, or 0 if idle connections are kept open
+   */
+  public synchronized int getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Sets the time in milliseconds a client may stay silent before its
+   * connection is closed. Clients which agreed upon keepalive are
+   * pinged once half of it has passed, and are only closed if they
+   * do not answer. Without keepalive, a connection is not idle while
+   * a call made over it is in progress
+   *
+   * @param idleTimeout the idle timeout, or 0 to keep idle connections open
+   */
+  public synchronized void setIdleTimeout(int idleTimeout) {
+    if (idleTimeout < 0)
+      throw new IllegalArgumentException("Cannot set idle timeout to: " + idleTimeout);
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Gets the time in milliseconds the server waits for more of a
+   * packet it has started reading before closing the connection
+   *
+   * @return the read timeout, or 0 for no limit
+   */
+  public synchronized int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * Sets the time in milliseconds the server waits for more of a packet
+   * it has started reading before closing the connection. Time between
+   * packets is bounded by the idle timeout instead. Applies to
+   * connections accepted after it is set
+   *
+   * @param readTimeout the read timeout, or 0 for no limit
+   */
+  public synchronized void setReadTimeout(int readTimeout) {
+    if (readTimeout < 0)
+      throw new IllegalArgumentException("Cannot set read timeout to: " + readTimeout);
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Gets whether or not the provided capability is
+   * offered to connecting clients during the handshake
+   *
+   * @param capability the capability
+   * @return true if the capability is offered
+   */
+  public synchronized boolean isCapabilityEnabled(Capability capability) {
+    if (capability == null)
+      throw new IllegalArgumentException("Capability cannot be null");
+    return capabilities.contains(capability);
+  }
+
+  /**
+   * Sets whether or not the provided capability is offered
+   * to connecting clients during the handshake. A capability is
+   * only used on a connection if both peers offer it, and
+   * capabilities this library does not implement are never
+   * offered. All implemented capabilities are enabled by default
+   *
+   * @param capability the capability
+   * @param b setting
+   */
+  public synchronized void setCapabilityEnabled(Capability capability, boolean b) {
+    if (capability == null)
+      throw new IllegalArgumentException("Capability cannot be null");
+
+    if (b)
+      capabilities.add(capability);
+    else
+      capabilities.remove(capability);
+  }
+
+  synchronized int getCapabilityMask() {
+    return Capability.toMask(capabilities);
+  }
+
 }
@@ -18,26 +18,325 @@
 
 package rFunc.net;
 
+import rFunc.method.CallContext;
+import rFunc.net.packet.BufferPool;
+import rFunc.net.packet.Capability;
 import rFunc.net.packet.Packet;
+import rFunc.net.packet.PingPacket;
+import rFunc.net.packet.PooledBuffer;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.util.HashMap;
+import java.util.LinkedList;
 
 /**
+ * A connection accepted by a server.
+ *
+ * The connection keeps two budgets, one of calls it has read but not
+ * yet answered, and one of bytes of replies not yet written. While
+ * either is spent, the server stops reading from the connection, so
+ * that a client sending calls faster than they complete, or reading
+ * replies slower than they are sent, is held back by its transport
+ * rather than have the server buffer on its behalf. Subscriptions
+ * are bounded by their own credits instead, and do not count as
+ * calls here.
+ *
+ * Replies are encoded by the thread sending them, into buffers from
+ * the default pool, then queued. One sending thread at a time writes
+ * what is queued, so the others never wait on a slow reader.
+ *
+ * A connection whose client stays silent for longer than the idle
+ * timeout of the server is closed by the server's reaper. Clients
+ * which agreed upon the keepalive capability are pinged first, and
+ * are only closed if they do not answer.
+ *
  * Author:    LeqxLeqx
  */
 class ServerConnection extends Connection {
 
   final Server server;
 
-  ServerConnection(Server server, Socket socket) throws IOException {
-    super(socket);
+  private final int maximumOutstandingCalls, maximumPendingBytes;
+
+  private final Object callLock = new Object();
+  private int outstandingCalls = 0, streams = 0;
+  private final HashMap<Long, CallContext> calls = new HashMap<>();
+
+  private final LinkedList<PooledBuffer> outbound = new LinkedList<>();
+  private long pendingBytes = 0;
+  private boolean writing = false, failed = false;
+
+  private long pings = 0, pingedSince = 0;
+  private boolean pinged = false;
+  private volatile boolean awaitingData = false, reaped = false;
+
+  ServerConnection(Server server, Transport transport) throws IOException {
+    super(transport, server.getCapabilityMask(), server.getCompressionThreshold(), server.limits);
 
     this.server = server;
+    maximumOutstandingCalls = server.getMaximumOutstandingCalls();
+    maximumPendingBytes = server.getMaximumPendingBytes();
   }
 
   @Override
   Packet getResponse(Packet packet) {
     return server.getResponse(this, packet);
   }
+
+  @Override
+  void send(Packet packet) throws IOException {
+    if (packet == null)
+      throw new IllegalArgumentException("Packet cannot be null");
+
+    PooledBuffer frame;
+    try {
+      frame = packet.encode(wireFormat, compressor);
+    } catch (IOException e) {
+      synchronized (callLock) {
+        if (failed)
+          throw new IOException("Connection failed", e);
+      }
+      throw e;
+    }
+
+    synchronized (callLock) {
+      if (failed) {
+        frame.release();
+        throw new IOException("Connection failed");
+      }
+
+      outbound.add(frame);
+      pendingBytes += frame.getLength();
+
+      if (writing)
+        return;
+      writing = true;
+    }
+
+    write();
+  }
+
+  /**
+   * Writes queued frames until none remain, including those queued
+   * by other threads meanwhile, coalescing them into single writes
+   */
+  private void write() throws IOException {
+    while(true) {
+      PooledBuffer data;
+      int length;
+
+      synchronized (callLock) {
+        if (outbound.isEmpty()) {
+          writing = false;
+          return;
+        }
+
+        if (outbound.size() == 1)
+          data = outbound.removeFirst();
+        else {
+          long batchLength = 0;
+          for(PooledBuffer frame : outbound) {
+            batchLength += frame.getLength();
+          }
+
+          data = BufferPool.getDefault().acquire((int) Math.min(batchLength, Integer.MAX_VALUE - 8));
+          int top = 0;
+          while(!outbound.isEmpty() && top + outbound.getFirst().getLength() <= data.getLength()) {
+            PooledBuffer frame = outbound.removeFirst();
+            System.arraycopy(frame.array(), frame.getOffset(), data.array(), top, frame.getLength());
+            top += frame.getLength();
+            frame.release();
+          }
+        }
+        length = data.getLength();
+      }
+
+      try {
+        outputStream.write(data.array(), data.getOffset(), length);
+        outputStream.flush();
+      } catch (IOException e) {
+        synchronized (callLock) {
+          failed = true;
+          writing = false;
+          for(PooledBuffer frame : outbound) {
+            frame.release();
+          }
+          outbound.clear();
+          pendingBytes = 0;
+          callLock.notifyAll();
+        }
+        throw e;
+      } finally {
+        data.release();
+      }
+
+      synchronized (callLock) {
+        pendingBytes -= length;
+        callLock.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  void close() {
+    synchronized (callLock) {
+      failed = true;
+      callLock.notifyAll();
+    }
+
+    super.close();
+  }
+
+  /**
+   * Waits until the connection is within its budgets of outstanding
+   * calls and pending reply bytes, so that the next packet may be read
+   *
+   * @return true if the connection had to wait
+   * @throws InterruptedException
+   */
+  boolean awaitCapacity() throws InterruptedException {
+    boolean waited = false;
+
+    synchronized (callLock) {
+      while(!failed && (outstandingCalls - streams >= maximumOutstandingCalls || pendingBytes > maximumPendingBytes)) {
+        waited = true;
+        callLock.wait();
+      }
+    }
+
+    return waited;
+  }
+
+  @Override
+  void awaitIncomingData() throws IOException {
+    awaitingData = true;
+
+    try {
+      super.awaitIncomingData();
+    } finally {
+      awaitingData = false;
+    }
+  }
+
+  /**
+   * Gets whether or not the connection is waiting on its client alone,
+   * so that it may be closed if the client stays silent. It is only
+   * while the server waits for the next packet, and not partway
+   * through one, which the read timeout bounds instead, nor while the
+   * server stopped reading from the connection. Without keepalive, it
+   * is not while any call is in progress either, as the client has no
+   * reason to send anything before the reply
+   *
+   * @return true if the connection is waiting on its client
+   */
+  boolean isAwaitingClient() {
+    if (!awaitingData)
+      return false;
+
+    synchronized (callLock) {
+      return outstandingCalls == 0 || hasCapability(Capability.KEEPALIVE);
+    }
+  }
+
+  /**
+   * Creates a ping for the client, unless one was already created
+   * since the last packet was received from it
+   *
+   * @return the ping, or null if the client was already pinged
+   */
+  PingPacket nextPing() {
+    long lastReceived = getLastReceived();
+
+    synchronized (callLock) {
+      if (pinged && pingedSince == lastReceived)
+        return null;
+
+      pinged = true;
+      pingedSince = lastReceived;
+
+      PingPacket ping = new PingPacket();
+      ping.setTransactionID(pings++);
+      return ping;
+    }
+  }
+
+  /**
+   * Closes the connection for having been idle
+   */
+  void reap() {
+    reaped = true;
+    close();
+  }
+
+  /**
+   * Gets whether or not the connection was closed for having been idle
+   *
+   * @return true if the connection was reaped
+   */
+  boolean isReaped() {
+    return reaped;
+  }
+
+  /**
+   * Gets the number of bytes of replies queued but not yet written
+   *
+   * @return the pending byte count
+   */
+  long getPendingBytes() {
+    synchronized (callLock) {
+      return pendingBytes;
+    }
+  }
+
+  void beginCall(long transactionID, CallContext context) {
+    synchronized (callLock) {
+      outstandingCalls++;
+      if (context.getStream() != null)
+        streams++;
+      calls.put(transactionID, context);
+    }
+  }
+
+  void endCall(long transactionID, CallContext context) {
+    synchronized (callLock) {
+      calls.remove(transactionID, context);
+      if (context.getStream() != null)
+        streams--;
+      outstandingCalls--;
+      callLock.notifyAll();
+    }
+  }
+
+  CallContext getCall(long transactionID) {
+    synchronized (callLock) {
+      return calls.get(transactionID);
+    }
+  }
+
+  /**
+   * Cancels the calls made by subscription on this connection,
+   * as no more credits will be granted to them
+   */
+  void cancelStreams() {
+    LinkedList<CallContext> streams = new LinkedList<>();
+
+    synchronized (callLock) {
+      for(CallContext context : calls.values()) {
+        if (context.getStream() != null)
+          streams.add(context);
+      }
+    }
+
+    for(CallContext context : streams) {
+      context.cancel();
+    }
+  }
+
+  void awaitOutstandingCalls() throws InterruptedException {
+    synchronized (callLock) {
+      while(outstandingCalls > 0) {
+        callLock.wait();
+      }
+    }
+  }
 }
@@ -0,0 +1,402 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A transport through a memory-mapped file, for processes on the same
+ * host. The file holds two single-producer, single-consumer ring
+ * buffers, one for each direction. Positions are published with release
+ * stores and read with acquire loads, so packets pass between the
+ * processes without a system call; a peer waiting for data or space
+ * polls as its wait strategy dictates.
+ *
+ * A client connects by creating a file in the directory the server
+ * watches and waiting for the server to mark it accepted. The server
+ * unlinks the file once both peers have it mapped. A peer closing sets
+ * its flag in the file, and the other sees the end of the stream once
+ * it has read what remains
+ *
+ * Author:    LeqxLeqx
+ */
+class SharedMemoryTransport implements Transport {
+
+  static final int DEFAULT_CAPACITY = 1 << 18;
+  static final long CONNECT_TIMEOUT = 1000;
+
+  private static final String FILE_SUFFIX = ".ring";
+  private static final int MAGIC = 0x72465352;
+
+  private static final int
+          MAGIC_OFFSET = 0,
+          CAPACITY_OFFSET = 4,
+          STATE_OFFSET = 8,
+          CLIENT_CLOSED_OFFSET = 12,
+          SERVER_CLOSED_OFFSET = 16,
+          HEADER_LENGTH = 64,
+          HEAD_OFFSET = 0,
+          TAIL_OFFSET = 64,
+          RING_HEADER_LENGTH = 128
+          ;
+
+  private static final int OFFERED = 0, ACCEPTED = 1;
+
+  private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+  private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  /**
+   * Connects to the server watching the provided directory
+   *
+   * @param directory the directory watched by the server
+   * @param waitStrategy how the client waits for the server
+   * @return the transport
+   * @throws ConnectException if no server accepts the connection in time
+   */
+  static SharedMemoryTransport connect(Path directory, WaitStrategy waitStrategy) throws IOException {
+    Path offered;
+    MappedByteBuffer buffer;
+
+    try {
+      Path temporary = Files.createTempFile(directory, "rfunc", ".tmp");
+      buffer = map(temporary, getFileLength(DEFAULT_CAPACITY));
+
+      buffer.putInt(MAGIC_OFFSET, MAGIC);
+      buffer.putInt(CAPACITY_OFFSET, DEFAULT_CAPACITY);
+      INT.setRelease(buffer, STATE_OFFSET, OFFERED);
+
+      // the server only sees the file once it is complete
+      String name = temporary.getFileName().toString();
+      offered = directory.resolve(name.substring(0, name.length() - 4) + FILE_SUFFIX);
+      Files.move(temporary, offered, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      ConnectException refused = new ConnectException(String.format("Cannot connect through '%s': %s", directory, e.getMessage()));
+      refused.initCause(e);
+      throw refused;
+    }
+
+    SharedMemoryTransport transport = new SharedMemoryTransport(buffer, false, waitStrategy, directory.toString());
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT);
+    for(int waits = 0; (int) INT.getAcquire(buffer, STATE_OFFSET) != ACCEPTED; waits++) {
+      if (System.nanoTime() - deadline > 0) {
+        transport.close();
+        Files.deleteIfExists(offered);
+        throw new ConnectException(String.format("No server accepted the connection through '%s'", directory));
+      }
+      WaitStrategy.PARK.idle(waits);
+    }
+
+    return transport;
+  }
+
+  private static MappedByteBuffer map(Path path, long length) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+  }
+
+  private static long getFileLength(int capacity) {
+    return HEADER_LENGTH + 2L * (RING_HEADER_LENGTH + capacity);
+  }
+
+
+  private final MappedByteBuffer buffer;
+  private final int capacity, mask;
+  private final int inputRing, outputRing, closedOffset, peerClosedOffset;
+  private final WaitStrategy waitStrategy;
+  private final String name;
+
+  private long readPosition, writePosition;
+  private volatile int readTimeout = 0;
+  private volatile boolean closed = false;
+
+  private final InputStream inputStream = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return SharedMemoryTransport.this.read(b, off, len);
+    }
+
+    @Override
+    public int available() {
+      return (int) ((long) LONG.getAcquire(buffer, inputRing + TAIL_OFFSET) - readPosition);
+    }
+  };
+
+  private final OutputStream outputStream = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      SharedMemoryTransport.this.write(b, off, len);
+    }
+  };
+
+  private SharedMemoryTransport(MappedByteBuffer buffer, boolean server, WaitStrategy waitStrategy, String name) {
+    this.buffer = buffer;
+    this.waitStrategy = waitStrategy;
+    this.name = name;
+
+    capacity = buffer.getInt(CAPACITY_OFFSET);
+    mask = capacity - 1;
+
+    int clientToServer = HEADER_LENGTH, serverToClient = HEADER_LENGTH + RING_HEADER_LENGTH + capacity;
+    inputRing = server ? clientToServer : serverToClient;
+    outputRing = server ? serverToClient : clientToServer;
+    closedOffset = server ? SERVER_CLOSED_OFFSET : CLIENT_CLOSED_OFFSET;
+    peerClosedOffset = server ? CLIENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET;
+
+    readPosition = (long) LONG.getAcquire(buffer, inputRing + HEAD_OFFSET);
+    writePosition = (long) LONG.getAcquire(buffer, outputRing + TAIL_OFFSET);
+  }
+
+  private int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+
+    int timeout = readTimeout;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    long available;
+
+    for(int waits = 0; (available = (long) LONG.getAcquire(buffer, inputRing + TAIL_OFFSET) - readPosition) == 0; waits++) {
+      if (closed)
+        throw new ClosedChannelException();
+      if (isPeerClosed() && (long) LONG.getAcquire(buffer, inputRing + TAIL_OFFSET) == readPosition)
+        return -1;
+      if (timeout != 0 && System.nanoTime() - deadline > 0)
+        throw new SocketTimeoutException("Read timed out");
+      if (Thread.currentThread().isInterrupted())
+        throw new InterruptedIOException("Interrupted awaiting data");
+
+      waitStrategy.idle(waits);
+    }
+
+    int length = (int) Math.min(len, available);
+    int index = (int) (readPosition & mask), first = Math.min(length, capacity - index);
+    int data = inputRing + RING_HEADER_LENGTH;
+
+    buffer.get(data + index, b, off, first);
+    buffer.get(data, b, off + first, length - first);
+
+    readPosition += length;
+    LONG.setRelease(buffer, inputRing + HEAD_OFFSET, readPosition);
+
+    return length;
+  }
+
+  private void write(byte[] b, int off, int len) throws IOException {
+    int data = outputRing + RING_HEADER_LENGTH;
+
+    while(len > 0) {
+      long free;
+      for(int waits = 0; (free = capacity - (writePosition - (long) LONG.getAcquire(buffer, outputRing + HEAD_OFFSET))) == 0; waits++) {
+        if (closed)
+          throw new ClosedChannelException();
+        if (isPeerClosed())
+          throw new EOFException("Connection closed by peer");
+        if (Thread.currentThread().isInterrupted())
+          throw new InterruptedIOException("Interrupted awaiting space");
+
+        waitStrategy.idle(waits);
+      }
+
+      int length = (int) Math.min(len, free);
+      int index = (int) (writePosition & mask), first = Math.min(length, capacity - index);
+
+      buffer.put(data + index, b, off, first);
+      buffer.put(data, b, off + first, length - first);
+
+      writePosition += length;
+      LONG.setRelease(buffer, outputRing + TAIL_OFFSET, writePosition);
+
+      off += length;
+      len -= length;
+    }
+  }
+
+  private boolean isPeerClosed() {
+    return (int) INT.getAcquire(buffer, peerClosedOffset) != 0;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  @Override
+  public void setReadTimeout(int timeout) {
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout cannot be negative");
+    readTimeout = timeout;
+  }
+
+  @Override
+  public void close() {
+    if (closed)
+      return;
+
+    closed = true;
+    INT.setRelease(buffer, closedOffset, 1);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Accepts connections offered in a directory
+   */
+  static class Listener implements TransportListener {
+
+    private final Path directory;
+    private final WaitStrategy waitStrategy;
+    private final WatchService watchService;
+    private final LinkedList<Path> offered = new LinkedList<>();
+
+    /**
+     * Watches the provided directory for offered connections,
+     * creating the directory if it does not exist
+     *
+     * @param directory the directory
+     * @param waitStrategy how the server waits for clients
+     */
+    Listener(Path directory, WaitStrategy waitStrategy) throws IOException {
+      this.directory = directory;
+      this.waitStrategy = waitStrategy;
+
+      Files.createDirectories(directory);
+      watchService = directory.getFileSystem().newWatchService();
+      directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+    }
+
+    @Override
+    public SharedMemoryTransport accept(int timeout) throws IOException {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+      while(true) {
+        while(!offered.isEmpty()) {
+          SharedMemoryTransport transport = accept(offered.removeFirst());
+          if (transport != null)
+            return transport;
+        }
+
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0)
+          throw new SocketTimeoutException("Accept timed out");
+
+        WatchKey key;
+        try {
+          key = watchService.poll(remaining, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted awaiting connection");
+        } catch (ClosedWatchServiceException e) {
+          throw new ClosedChannelException();
+        }
+        if (key == null)
+          continue;
+
+        for(WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            try (Stream<Path> files = Files.list(directory)) {
+              files.forEach(offered::add);
+            }
+          }
+          else
+            offered.add(directory.resolve((Path) event.context()));
+        }
+        key.reset();
+      }
+    }
+
+    private SharedMemoryTransport accept(Path path) throws IOException {
+      if (!path.getFileName().toString().endsWith(FILE_SUFFIX))
+        return null;
+
+      MappedByteBuffer buffer;
+      try {
+        buffer = map(path, HEADER_LENGTH);
+        int capacity = buffer.getInt(CAPACITY_OFFSET);
+        if (
+                buffer.getInt(MAGIC_OFFSET) != MAGIC ||
+                (int) INT.getAcquire(buffer, STATE_OFFSET) != OFFERED ||
+                capacity <= 0 ||
+                Integer.bitCount(capacity) != 1
+                )
+          return null;
+        buffer = map(path, getFileLength(capacity));
+      } catch (NoSuchFileException e) {
+        // abandoned by a client which gave up waiting
+        return null;
+      }
+
+      // both peers have the file mapped, so its name is no longer needed
+      Files.deleteIfExists(path);
+      INT.setRelease(buffer, STATE_OFFSET, ACCEPTED);
+
+      return new SharedMemoryTransport(buffer, true, waitStrategy, path.toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+      watchService.close();
+    }
+
+  }
+
+}
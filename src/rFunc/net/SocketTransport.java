@@ -0,0 +1,104 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A transport over a TCP socket
+ *
+ * Author:    LeqxLeqx
+ */
+class SocketTransport implements Transport {
+
+  final Socket socket;
+
+  SocketTransport(Socket socket) throws IOException {
+    if (socket == null)
+      throw new IllegalArgumentException("Socket cannot be null");
+
+    this.socket = socket;
+
+    // packets are small and written whole, so waiting to coalesce them
+    // only delays a packet written right after another, such as a cancel
+    // followed by a call, until the peer's delayed acknowledgement
+    socket.setTcpNoDelay(true);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  @Override
+  public void setReadTimeout(int timeout) throws IOException {
+    socket.setSoTimeout(timeout);
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+
+  @Override
+  public String toString() {
+    return socket.getInetAddress().toString();
+  }
+
+  /**
+   * Accepts connections on a TCP port
+   */
+  static class Listener implements TransportListener {
+
+    private final ServerSocket serverSocket;
+
+    Listener(int port) throws IOException {
+      serverSocket = new ServerSocket(port);
+    }
+
+    @Override
+    public SocketTransport accept(int timeout) throws IOException {
+      serverSocket.setSoTimeout(timeout);
+      Socket socket = serverSocket.accept();
+
+      try {
+        return new SocketTransport(socket);
+      } catch (IOException e) {
+        socket.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import rFunc.method.InvocationException;
+import rFunc.net.packet.Packet;
+import rFunc.value.Value;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * A subscription to the values streamed by a call, as made by
+ * Client.subscribe. Values are received in the background into a
+ * buffer holding at most one window of them, and taken in order by
+ * next. As values are taken, the server is granted credits for more,
+ * so a subscriber which stops taking values stops the method
+ * streaming them.
+ *
+ * Once the method returns, next returns null and the return value
+ * of the method completes the result. Closing the subscription
+ * before then asks the server to cancel the call.
+ *
+ * Author:    LeqxLeqx
+ */
+public class Subscription implements AutoCloseable {
+
+  private final int window;
+  private final LinkedList<Value> values = new LinkedList<>();
+  private final CompletableFuture<Value> result = new CompletableFuture<>();
+
+  private IntConsumer creditor = null;
+  private Runnable canceller = null;
+  private int taken = 0;
+
+  Subscription(int window) {
+    if (window <= 0)
+      throw new IllegalArgumentException("Window must be positive");
+
+    this.window = window;
+  }
+
+  /**
+   * Sets how credits are granted to the server, and how the call is
+   * cancelled. Should be called before the subscription is made
+   */
+  synchronized void bind(IntConsumer creditor, Runnable canceller) {
+    this.creditor = creditor;
+    this.canceller = canceller;
+  }
+
+  synchronized void receive(Value value) {
+    if (result.isDone())
+      return;
+
+    values.add(value);
+    notifyAll();
+  }
+
+  void complete(Packet reply) {
+    try {
+      complete(Client.returnValueOf(reply), null);
+    } catch (IOException | InvocationException e) {
+      complete(null, e);
+    }
+  }
+
+  void fail(IOException failure) {
+    complete(null, failure);
+  }
+
+  private synchronized void complete(Value value, Throwable failure) {
+    if (failure == null)
+      result.complete(value);
+    else
+      result.completeExceptionally(failure);
+
+    notifyAll();
+  }
+
+  /**
+   * Takes the next value streamed by the method, waiting for it to
+   * be received if need be
+   *
+   * @return the value, or null if the method has returned
+   * @throws IOException if the subscription was lost
+   * @throws InvocationException if the method failed
+   */
+  public Value next() throws IOException, InvocationException {
+    return next(0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Takes the next value streamed by the method, waiting up to the
+   * provided time for it to be received if need be
+   *
+   * @param timeout the maximum time to wait, or 0 to wait indefinitely
+   * @param unit the unit of the timeout
+   * @return the value, or null if the method has returned
+   * @throws SocketTimeoutException if no value was received in time
+   * @throws IOException if the subscription was lost
+   * @throws InvocationException if the method failed
+   */
+  public Value next(long timeout, TimeUnit unit) throws IOException, InvocationException {
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout cannot be negative");
+    if (unit == null)
+      throw new IllegalArgumentException("Unit cannot be null");
+
+    Value value;
+    int credits = 0;
+    IntConsumer creditor;
+
+    synchronized (this) {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+      while(values.isEmpty() && !result.isDone()) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (timeout != 0 && remaining <= 0)
+          throw new SocketTimeoutException(String.format("No value received after %d milliseconds", unit.toMillis(timeout)));
+
+        try {
+          wait(timeout == 0 ? 0 : Math.max(1, remaining));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted awaiting value");
+        }
+      }
+
+      if (values.isEmpty())
+        return getReturnValue();
+
+      value = values.removeFirst();
+
+      // credits are granted in batches of half a window, rather than one packet per value
+      if (++taken >= (window + 1) / 2) {
+        credits = taken;
+        taken = 0;
+      }
+      creditor = this.creditor;
+    }
+
+    if (credits != 0 && creditor != null && !result.isDone())
+      creditor.accept(credits);
+
+    return value;
+  }
+
+  private Value getReturnValue() throws IOException, InvocationException {
+    try {
+      result.get();
+      return null;
+    } catch (CancellationException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted awaiting value");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof InvocationException)
+        throw (InvocationException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * Gets the result of the call, completed with the return value of the
+   * method once it returns, and exceptionally if it fails. Values not
+   * yet taken remain available to next
+   *
+   * @return the future result
+   */
+  public CompletableFuture<Value> getResult() {
+    return result;
+  }
+
+  /**
+   * Gets the number of values received but not yet taken
+   *
+   * @return the buffered value count
+   */
+  public synchronized int getBufferedCount() {
+    return values.size();
+  }
+
+  /**
+   * Gets the greatest number of values the server may
+   * stream before the subscriber takes any of them
+   *
+   * @return the window
+   */
+  public int getWindow() {
+    return window;
+  }
+
+  /**
+   * Gets whether or not the method has returned or failed,
+   * or the subscription was closed
+   *
+   * @return true if no more values will be received
+   */
+  public boolean isDone() {
+    return result.isDone();
+  }
+
+  /**
+   * Closes the subscription, asking the server to cancel the call if
+   * the method has not yet returned. Values not yet taken are dropped
+   */
+  @Override
+  public void close() {
+    Runnable canceller;
+
+    synchronized (this) {
+      values.clear();
+      canceller = result.cancel(false) ? this.canceller : null;
+      notifyAll();
+    }
+
+    if (canceller != null)
+      canceller.run();
+  }
+
+}
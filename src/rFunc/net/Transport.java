@@ -0,0 +1,47 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The byte stream beneath a connection. Packets are framed and parsed
+ * by the connection the same way whatever the transport carrying them
+ *
+ * Author:    LeqxLeqx
+ */
+interface Transport {
+
+  InputStream getInputStream() throws IOException;
+
+  OutputStream getOutputStream() throws IOException;
+
+  /**
+   * Sets the longest time in milliseconds a read waits for data
+   * before throwing a SocketTimeoutException
+   *
+   * @param timeout the read timeout, or 0 to wait indefinitely
+   */
+  void setReadTimeout(int timeout) throws IOException;
+
+  void close() throws IOException;
+
+}
@@ -0,0 +1,42 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.io.IOException;
+
+/**
+ * Accepts the transports of incoming connections for a server
+ *
+ * Author:    LeqxLeqx
+ */
+interface TransportListener {
+
+  /**
+   * Accepts a connection, waiting at most the provided
+   * time in milliseconds for one to arrive
+   *
+   * @param timeout the accept timeout
+   * @return the transport of the connection
+   * @throws java.net.SocketTimeoutException if no connection arrived in time
+   */
+  Transport accept(int timeout) throws IOException;
+
+  void close() throws IOException;
+
+}
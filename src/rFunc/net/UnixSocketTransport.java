@@ -0,0 +1,247 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transport over a Unix domain socket, for peers on the same host.
+ *
+ * Unix domain channels have no socket timeouts, so the channel is put
+ * in non-blocking mode and waits go through a selector, one for reads
+ * and one for writes, as a reader thread and a writer may wait at once
+ *
+ * Author:    LeqxLeqx
+ */
+class UnixSocketTransport implements Transport {
+
+  /**
+   * Connects to the server listening on the socket file of the provided path
+   *
+   * @param path the path of the socket file
+   * @return the transport
+   * @throws ConnectException if no server is listening on the path
+   */
+  static UnixSocketTransport connect(Path path) throws IOException {
+    SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+
+    try {
+      channel.connect(UnixDomainSocketAddress.of(path));
+      return new UnixSocketTransport(channel, path);
+    } catch (IOException e) {
+      channel.close();
+
+      // reported as a refused connection, so that callers know the call was never sent
+      ConnectException refused = new ConnectException(String.format("Cannot connect to '%s': %s", path, e.getMessage()));
+      refused.initCause(e);
+      throw refused;
+    }
+  }
+
+
+  private final SocketChannel channel;
+  private final Path path;
+  private final Selector readSelector, writeSelector;
+  private volatile int readTimeout = 0;
+
+  private final InputStream inputStream = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return UnixSocketTransport.this.read(ByteBuffer.wrap(b, off, len));
+    }
+  };
+
+  private final OutputStream outputStream = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      UnixSocketTransport.this.write(ByteBuffer.wrap(b, off, len));
+    }
+  };
+
+  private UnixSocketTransport(SocketChannel channel, Path path) throws IOException {
+    this.channel = channel;
+    this.path = path;
+
+    channel.configureBlocking(false);
+    readSelector = Selector.open();
+    writeSelector = Selector.open();
+    channel.register(readSelector, SelectionKey.OP_READ);
+    channel.register(writeSelector, SelectionKey.OP_WRITE);
+  }
+
+  private int read(ByteBuffer buffer) throws IOException {
+    if (!buffer.hasRemaining())
+      return 0;
+
+    int timeout = readTimeout;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+    while(true) {
+      int read = channel.read(buffer);
+      if (read != 0)
+        return read;
+
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (timeout != 0 && remaining <= 0)
+        throw new SocketTimeoutException("Read timed out");
+
+      await(readSelector, timeout == 0 ? 0 : remaining);
+    }
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while(buffer.hasRemaining()) {
+      if (channel.write(buffer) == 0)
+        await(writeSelector, 0);
+    }
+  }
+
+  private void await(Selector selector, long timeout) throws IOException {
+    try {
+      selector.selectedKeys().clear();
+      selector.select(timeout);
+    } catch (ClosedSelectorException e) {
+      throw new ClosedChannelException();
+    }
+
+    if (!channel.isOpen())
+      throw new ClosedChannelException();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  @Override
+  public void setReadTimeout(int timeout) {
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout cannot be negative");
+    readTimeout = timeout;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      readSelector.close();
+      writeSelector.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return path.toString();
+  }
+
+  /**
+   * Accepts connections on a socket file
+   */
+  static class Listener implements TransportListener {
+
+    private final ServerSocketChannel channel;
+    private final Path path;
+    private final Selector selector;
+
+    /**
+     * Binds a listener to the socket file of the provided path,
+     * which must not already exist
+     *
+     * @param path the path of the socket file
+     */
+    Listener(Path path) throws IOException {
+      this.path = path;
+
+      channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      try {
+        channel.bind(UnixDomainSocketAddress.of(path));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public UnixSocketTransport accept(int timeout) throws IOException {
+      SocketChannel accepted = channel.accept();
+
+      if (accepted == null) {
+        selector.selectedKeys().clear();
+        selector.select(timeout);
+        accepted = channel.accept();
+      }
+
+      if (accepted == null)
+        throw new SocketTimeoutException("Accept timed out");
+
+      return new UnixSocketTransport(accepted, path);
+    }
+
+    /**
+     * Stops listening and removes the socket file
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        channel.close();
+        selector.close();
+      } finally {
+        Files.deleteIfExists(path);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a peer on the shared memory transport waits for the other
+ * side, as neither can wake the other across processes
+ *
+ * Author:    LeqxLeqx
+ */
+public enum WaitStrategy {
+
+  /**
+   * Spins without yielding the processor. Gives the lowest latency,
+   * at the cost of a busy core for every waiting connection
+   */
+  SPIN,
+
+  /**
+   * Spins briefly, then yields, then sleeps in short intervals, and
+   * in intervals of a millisecond once the wait has gone on for some
+   * time. Idle connections cost little, while a reply arriving soon
+   * after the call is still seen without delay
+   */
+  PARK;
+
+  // with a single processor, spinning only delays the peer it waits for
+  private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+  private static final int YIELD_LIMIT = SPIN_LIMIT + 100;
+  private static final int SHORT_PARK_LIMIT = YIELD_LIMIT + 1000;
+  private static final long SHORT_PARK_TIME = 20000, LONG_PARK_TIME = 1000000;
+
+  /**
+   * Waits once, the provided number of waits having
+   * already been made for the same condition
+   */
+  void idle(int waits) {
+    if (this == SPIN || waits < SPIN_LIMIT)
+      Thread.onSpinWait();
+    else if (waits < YIELD_LIMIT)
+      Thread.yield();
+    else
+      LockSupport.parkNanos(waits < SHORT_PARK_LIMIT ? SHORT_PARK_TIME : LONG_PARK_TIME);
+  }
+
+}
@@ -0,0 +1,564 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.method.InvocationException;
+import rFunc.net.OverloadedException;
+import rFunc.value.Value;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client of a cluster of identical servers.
+ *
+ * Each call is sent to one of the endpoints of the cluster, chosen by
+ * the load balancer from those not currently ejected for failing. A
+ * call which fails is sent on to another endpoint if it is certain
+ * the call was never run, as when the endpoint could not be connected
+ * to or refused the call as overloaded, or if the method was marked
+ * idempotent and the call failed at the transport level. Errors raised
+ * by the method itself are never retried.
+ *
+ * Calls to idempotent methods may also be hedged: a call not answered
+ * within a percentile of recent latency is sent to a second endpoint
+ * as well, and whichever reply arrives first is taken.
+ *
+ * An attempt is sent from the calling thread only if its endpoint is
+ * already connected. Attempts which must first connect to their
+ * endpoint, and attempts sent on after a failure, are sent from a
+ * pool of dispatch threads, so that neither the caller nor the thread
+ * reading replies from another endpoint waits on a connection.
+ *
+ * Author:    LeqxLeqx
+ */
+public class ClusterClient {
+
+  public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+  public static final long DEFAULT_EJECTION_TIME = 10000;
+  public static final double DEFAULT_HEDGE_BUDGET = 0.05;
+
+  private static final int LATENCY_WINDOW_SIZE = 1000;
+  private static final int MINIMUM_HEDGE_SAMPLES = 20;
+  private static final double MAXIMUM_HEDGE_TOKENS = 10;
+
+  private static final ScheduledThreadPoolExecutor HEDGE_SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+    Thread thread = new Thread(runnable, "rFunc cluster hedge");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    HEDGE_SCHEDULER.setRemoveOnCancelPolicy(true);
+  }
+
+  private static final ExecutorService DISPATCHER = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "rFunc cluster dispatch");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+
+  private final CopyOnWriteArrayList<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+  private final Set<String> idempotentMethods = Collections.synchronizedSet(new HashSet<>());
+
+  private volatile LoadBalancer loadBalancer = new PowerOfTwoChoicesBalancer();
+  private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+  private volatile long ejectionTime = DEFAULT_EJECTION_TIME;
+  private volatile int maximumAttempts = 0;
+  private volatile int callTimeout = 0;
+  private volatile double hedgePercentile = 0;
+  private volatile double hedgeBudget = DEFAULT_HEDGE_BUDGET;
+
+  private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW_SIZE);
+  private final AtomicLong hedgeCount = new AtomicLong();
+  private double hedgeTokens = 0;
+
+  public ClusterClient() {}
+
+  /**
+   * Adds a server to the cluster
+   *
+   * @param ip the IP of the server
+   * @param port the port of the server
+   * @return the endpoint of the server
+   */
+  public Endpoint addEndpoint(String ip, int port) {
+    Endpoint endpoint = new Endpoint(ip, port);
+    endpoint.client.setCallTimeout(callTimeout);
+    endpoints.add(endpoint);
+
+    return endpoint;
+  }
+
+  /**
+   * Removes a server from the cluster, closing its connection.
+   * Calls in flight to the server fail
+   *
+   * @param endpoint the endpoint of the server
+   */
+  public void removeEndpoint(Endpoint endpoint) {
+    if (endpoint == null)
+      throw new IllegalArgumentException("Endpoint cannot be null");
+
+    if (endpoints.remove(endpoint))
+      endpoint.client.close();
+  }
+
+  /**
+   * Gets the endpoints of the cluster
+   *
+   * @return the endpoints
+   */
+  public Endpoint[] getEndpoints() {
+    return endpoints.toArray(new Endpoint[0]);
+  }
+
+  /**
+   * Closes the connections to every server of the cluster
+   */
+  public void close() {
+    for(Endpoint endpoint : endpoints) {
+      endpoint.client.close();
+    }
+  }
+
+  /**
+   * Invokes the method of the provided name on one of the servers
+   * of the cluster
+   *
+   * @param name the method name
+   * @param values the value array to provide to the method as arguments
+   * @return the value returned by the method
+   * @throws IOException
+   * @throws InvocationException
+   */
+  public Value invoke(String name, Value... values) throws IOException, InvocationException {
+    try {
+      return invokeAsync(name, values).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted awaiting call");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof InvocationException)
+        throw (InvocationException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Invokes the method of the provided name on one of the servers of
+   * the cluster without waiting for its result. Cancelling the returned
+   * future cancels the call on the server it was sent to
+   *
+   * @param name the method name
+   * @param values the value array to provide to the method as arguments
+   * @return a future completed with the value returned by the method
+   */
+  public CompletableFuture<Value> invokeAsync(String name, Value... values) {
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+    if (values == null)
+      throw new IllegalArgumentException("Values array cannot be null");
+    if (Arrays.asList(values).contains(null))
+      throw new IllegalArgumentException("Values array cannot contain null");
+    if (endpoints.isEmpty())
+      throw new IllegalStateException("Cluster has no endpoints");
+
+    Call call = new Call(name, values, isIdempotent(name));
+    depositHedgeToken();
+    attempt(call, null);
+
+    if (call.idempotent && hedgePercentile != 0)
+      scheduleHedge(call);
+
+    return call.result;
+  }
+
+  /**
+   * Sends the call to an endpoint it has not yet been sent to. The call
+   * fails once no endpoint is left and no other attempt is in flight
+   */
+  private void attempt(Call call, Throwable failure) {
+    Endpoint endpoint;
+
+    synchronized (call) {
+      if (failure != null) {
+        call.pending--;
+        call.lastFailure = failure;
+      }
+      if (call.result.isDone())
+        return;
+
+      endpoint = null;
+      int limit = maximumAttempts == 0 ? endpoints.size() : maximumAttempts;
+      if (call.tried.size() < limit)
+        endpoint = select(call.name, call.values, call.tried);
+
+      if (endpoint == null) {
+        if (call.pending == 0)
+          call.result.completeExceptionally(call.lastFailure != null ? call.lastFailure : new IOException("No endpoint available"));
+        return;
+      }
+
+      call.tried.add(endpoint);
+      call.pending++;
+    }
+
+    // failures are completed on the reader thread of the failed
+    // endpoint, which must not be held up connecting to the next
+    Endpoint chosen = endpoint;
+    if (failure == null && chosen.isReady())
+      send(call, chosen);
+    else
+      DISPATCHER.execute(() -> send(call, chosen));
+  }
+
+  private void send(Call call, Endpoint endpoint) {
+    long start = System.nanoTime();
+    CompletableFuture<Value> attempt;
+    try {
+      attempt = endpoint.invokeAsync(call.name, call.values, failureThreshold, ejectionTime);
+    } catch (RuntimeException e) {
+      call.result.completeExceptionally(e);
+      return;
+    }
+
+    // once the call is decided, by this attempt or another, the
+    // attempts still in flight are cancelled on their servers
+    call.result.whenComplete((value, error) -> attempt.cancel(true));
+
+    attempt.whenComplete((value, error) -> {
+      if (error == null) {
+        latencies.record(System.nanoTime() - start);
+        call.result.complete(value);
+        return;
+      }
+
+      Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+      if (canFailOver(cause, call.idempotent))
+        attempt(call, cause);
+      else
+        call.result.completeExceptionally(cause);
+    });
+  }
+
+  private void scheduleHedge(Call call) {
+    if (latencies.getCount() < MINIMUM_HEDGE_SAMPLES)
+      return;
+
+    ScheduledFuture<?> timer = HEDGE_SCHEDULER.schedule(() -> {
+      if (!call.result.isDone() && acquireHedgeToken()) {
+        hedgeCount.incrementAndGet();
+        attempt(call, null);
+      }
+    }, latencies.getPercentile(hedgePercentile), TimeUnit.NANOSECONDS);
+
+    call.result.whenComplete((value, error) -> timer.cancel(false));
+  }
+
+  private synchronized void depositHedgeToken() {
+    hedgeTokens = Math.min(MAXIMUM_HEDGE_TOKENS, hedgeTokens + hedgeBudget);
+  }
+
+  private synchronized boolean acquireHedgeToken() {
+    if (hedgeTokens < 1)
+      return false;
+
+    hedgeTokens--;
+    return true;
+  }
+
+  private Endpoint select(String name, Value[] values, Set<Endpoint> tried) {
+    List<Endpoint> healthy = new ArrayList<>(), untried = new ArrayList<>();
+
+    for(Endpoint endpoint : endpoints) {
+      if (tried.contains(endpoint))
+        continue;
+
+      untried.add(endpoint);
+      if (!endpoint.isEjected())
+        healthy.add(endpoint);
+    }
+
+    if (untried.isEmpty())
+      return null;
+
+    // with every remaining endpoint ejected, one is tried regardless
+    return loadBalancer.select(healthy.isEmpty() ? untried : healthy, name, values);
+  }
+
+  private static boolean canFailOver(Throwable cause, boolean idempotent) {
+    if (cause instanceof CancellationException)
+      return false;
+    if (cause instanceof ConnectException || cause instanceof OverloadedException)
+      return true;
+
+    return idempotent && cause instanceof IOException;
+  }
+
+  /**
+   * Gets the number of calls for which a hedged attempt has been sent
+   *
+   * @return the hedge count
+   */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /**
+   * Gets the time after which a call to an idempotent method not yet
+   * answered is sent to a second endpoint, as currently estimated
+   *
+   * @param unit the unit of the returned delay
+   * @return the hedge delay, or 0 if calls are not being hedged
+   */
+  public long getHedgeDelay(TimeUnit unit) {
+    if (hedgePercentile == 0 || latencies.getCount() < MINIMUM_HEDGE_SAMPLES)
+      return 0;
+    return unit.convert(latencies.getPercentile(hedgePercentile), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the percentile of recent call latency after which
+   * calls to idempotent methods are hedged
+   *
+   * @return the hedge percentile, or 0 if calls are not hedged
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * Sets the percentile of recent call latency after which a call to
+   * an idempotent method not yet answered is also sent to a second
+   * endpoint, the first reply being taken and the other attempt
+   * cancelled. A percentile of 95 hedges about one call in twenty
+   *
+   * @param hedgePercentile the hedge percentile, or 0 to disable hedging
+   */
+  public void setHedgePercentile(double hedgePercentile) {
+    if (hedgePercentile < 0 || hedgePercentile > 100)
+      throw new IllegalArgumentException("Cannot set hedge percentile to: " + hedgePercentile);
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  /**
+   * Gets the largest fraction of calls which may be hedged
+   *
+   * @return the hedge budget
+   */
+  public double getHedgeBudget() {
+    return hedgeBudget;
+  }
+
+  /**
+   * Sets the largest fraction of calls which may be hedged, bounding
+   * the load hedging adds when every server is slow at once
+   *
+   * @param hedgeBudget the hedge budget, between 0 and 1
+   */
+  public void setHedgeBudget(double hedgeBudget) {
+    if (hedgeBudget < 0 || hedgeBudget > 1)
+      throw new IllegalArgumentException("Cannot set hedge budget to: " + hedgeBudget);
+    this.hedgeBudget = hedgeBudget;
+  }
+
+  /**
+   * Gets whether or not the method of the provided name
+   * is marked idempotent
+   *
+   * @param name the method name, including its namespace
+   * @return true if the method is idempotent
+   */
+  public boolean isIdempotent(String name) {
+    return idempotentMethods.contains(name);
+  }
+
+  /**
+   * Sets whether or not the method of the provided name is idempotent,
+   * and so may safely be run more than once. Calls to idempotent
+   * methods failing at the transport level are sent on to another
+   * endpoint, and are hedged if hedging is enabled
+   *
+   * @param name the method name, including its namespace
+   * @param b setting
+   */
+  public void setIdempotent(String name, boolean b) {
+    if (name == null)
+      throw new IllegalArgumentException("Name cannot be null");
+
+    if (b)
+      idempotentMethods.add(name);
+    else
+      idempotentMethods.remove(name);
+  }
+
+  /**
+   * Gets the load balancer choosing the endpoint of each call
+   *
+   * @return the load balancer
+   */
+  public LoadBalancer getLoadBalancer() {
+    return loadBalancer;
+  }
+
+  /**
+   * Sets the load balancer choosing the endpoint of each call.
+   * The default balancer uses the power of two choices
+   *
+   * @param loadBalancer the load balancer
+   */
+  public void setLoadBalancer(LoadBalancer loadBalancer) {
+    if (loadBalancer == null)
+      throw new IllegalArgumentException("Load balancer cannot be null");
+    this.loadBalancer = loadBalancer;
+  }
+
+  /**
+   * Gets the number of consecutive transport failures
+   * after which an endpoint is ejected
+   *
+   * @return the failure threshold
+   */
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /**
+   * Sets the number of consecutive transport failures
+   * after which an endpoint is ejected
+   *
+   * @param failureThreshold the failure threshold
+   */
+  public void setFailureThreshold(int failureThreshold) {
+    if (failureThreshold < 1)
+      throw new IllegalArgumentException("Cannot set failure threshold to: " + failureThreshold);
+    this.failureThreshold = failureThreshold;
+  }
+
+  /**
+   * Gets the time in milliseconds for which a failing endpoint is ejected
+   *
+   * @return the ejection time
+   */
+  public long getEjectionTime() {
+    return ejectionTime;
+  }
+
+  /**
+   * Sets the time in milliseconds for which a failing endpoint is ejected
+   *
+   * @param ejectionTime the ejection time
+   */
+  public void setEjectionTime(long ejectionTime) {
+    if (ejectionTime < 0)
+      throw new IllegalArgumentException("Cannot set ejection time to: " + ejectionTime);
+    this.ejectionTime = ejectionTime;
+  }
+
+  /**
+   * Gets the maximum number of endpoints a call is sent to
+   *
+   * @return the maximum attempts, or 0 if a call may be sent to every endpoint
+   */
+  public int getMaximumAttempts() {
+    return maximumAttempts;
+  }
+
+  /**
+   * Sets the maximum number of endpoints a call is sent to
+   * before its failure is given up on
+   *
+   * @param maximumAttempts the maximum attempts, or 0 to allow every endpoint
+   */
+  public void setMaximumAttempts(int maximumAttempts) {
+    if (maximumAttempts < 0)
+      throw new IllegalArgumentException("Cannot set maximum attempts to: " + maximumAttempts);
+    this.maximumAttempts = maximumAttempts;
+  }
+
+  /**
+   * Gets the time in milliseconds each attempt of a call waits for its reply
+   *
+   * @return the call timeout, or 0 if calls wait indefinitely
+   */
+  public int getCallTimeout() {
+    return callTimeout;
+  }
+
+  /**
+   * Sets the time in milliseconds each attempt of a call
+   * waits for its reply
+   *
+   * @param callTimeout the call timeout, or 0 to wait indefinitely
+   */
+  public void setCallTimeout(int callTimeout) {
+    if (callTimeout < 0)
+      throw new IllegalArgumentException("Cannot set call timeout to: " + callTimeout);
+
+    this.callTimeout = callTimeout;
+    for(Endpoint endpoint : endpoints) {
+      endpoint.client.setCallTimeout(callTimeout);
+    }
+  }
+
+  private static class Call {
+
+    final String name;
+    final Value[] values;
+    final boolean idempotent;
+    final CompletableFuture<Value> result = new CompletableFuture<>();
+    final Set<Endpoint> tried = new HashSet<>();
+    int pending = 0;
+    Throwable lastFailure = null;
+
+    Call(String name, Value[] values, boolean idempotent) {
+      this.name = name;
+      this.values = values;
+      this.idempotent = idempotent;
+    }
+
+  }
+
+}
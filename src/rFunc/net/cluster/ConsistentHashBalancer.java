@@ -0,0 +1,185 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.value.StringValue;
+import rFunc.value.Value;
+import rFunc.value.ValueType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Sends calls sharing a key to the same endpoint, so that servers
+ * caching per key keep their caches warm. The key is an argument of
+ * the call, by default its first string argument, hashed onto a ring
+ * on which each endpoint is placed at a number of virtual nodes.
+ *
+ * A key belongs to the first endpoint found clockwise from its hash,
+ * so adding or removing an endpoint, or its ejection, only moves the
+ * keys of the ring segments next to that endpoint. Calls without a
+ * key are left to a fallback balancer
+ *
+ * Author:    LeqxLeqx
+ */
+public class ConsistentHashBalancer implements LoadBalancer {
+
+  public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+  /**
+   * Argument index selecting the first string argument of a call as its key
+   */
+  public static final int FIRST_STRING_ARGUMENT = -1;
+
+
+  private final int argumentIndex, virtualNodes;
+  private final LoadBalancer fallback;
+
+  private volatile Ring ring = new Ring(new TreeMap<>(), new HashSet<>());
+
+  /**
+   * Creates a balancer keyed on the first string argument of each call
+   */
+  public ConsistentHashBalancer() {
+    this(FIRST_STRING_ARGUMENT, DEFAULT_VIRTUAL_NODES, new RoundRobinBalancer());
+  }
+
+  /**
+   * Creates a balancer keyed on the argument of the provided index
+   *
+   * @param argumentIndex index of the key argument, or FIRST_STRING_ARGUMENT
+   * @param virtualNodes the number of points on the ring of each endpoint
+   * @param fallback the balancer choosing the endpoint of calls without the key argument
+   */
+  public ConsistentHashBalancer(int argumentIndex, int virtualNodes, LoadBalancer fallback) {
+    if (argumentIndex < FIRST_STRING_ARGUMENT)
+      throw new IllegalArgumentException("Invalid argument index: " + argumentIndex);
+    if (virtualNodes < 1)
+      throw new IllegalArgumentException("Virtual node count must be positive");
+    if (fallback == null)
+      throw new IllegalArgumentException("Fallback balancer cannot be null");
+
+    this.argumentIndex = argumentIndex;
+    this.virtualNodes = virtualNodes;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public Endpoint select(List<Endpoint> endpoints, String name, Value[] values) {
+    byte[] key = getKey(values);
+    if (key == null)
+      return fallback.select(endpoints, name, values);
+
+    Ring ring = getRing(endpoints);
+
+    // the ring may hold endpoints not offered for this call, as when they
+    // are ejected; these are passed over for the next endpoint clockwise
+    long hash = hash(key, 0, key.length);
+    for(Map.Entry<Long, Endpoint> entry : ring.nodes.tailMap(hash).entrySet()) {
+      if (endpoints.contains(entry.getValue()))
+        return entry.getValue();
+    }
+    for(Endpoint endpoint : ring.nodes.values()) {
+      if (endpoints.contains(endpoint))
+        return endpoint;
+    }
+
+    return endpoints.get(0);
+  }
+
+  private byte[] getKey(Value[] values) {
+    if (argumentIndex == FIRST_STRING_ARGUMENT) {
+      for(Value value : values) {
+        if (value.type == ValueType.STRING)
+          return ((StringValue) value).string.getBytes(StandardCharsets.UTF_8);
+      }
+      return null;
+    }
+
+    if (argumentIndex >= values.length)
+      return null;
+    if (values[argumentIndex].type == ValueType.STRING)
+      return ((StringValue) values[argumentIndex]).string.getBytes(StandardCharsets.UTF_8);
+
+    return values[argumentIndex].getData();
+  }
+
+  private Ring getRing(List<Endpoint> endpoints) {
+    Ring ring = this.ring;
+    if (ring.members.containsAll(endpoints))
+      return ring;
+
+    synchronized (this) {
+      ring = this.ring;
+      if (ring.members.containsAll(endpoints))
+        return ring;
+
+      // the position of each node depends only on its endpoint, so
+      // rebuilding the ring places the existing endpoints as before
+      TreeMap<Long, Endpoint> nodes = new TreeMap<>();
+      Set<Endpoint> members = new HashSet<>(endpoints);
+      for(Endpoint endpoint : members) {
+        byte[] address = endpoint.toString().getBytes(StandardCharsets.UTF_8);
+        for(int i = 0; i < virtualNodes; i++) {
+          nodes.putIfAbsent(hash(address, i, address.length), endpoint);
+        }
+      }
+
+      return this.ring = new Ring(nodes, members);
+    }
+  }
+
+  /**
+   * 64-bit FNV-1a of the data, salted with a replica number,
+   * finished with the MurmurHash3 mix to spread similar keys
+   */
+  private static long hash(byte[] data, int replica, int length) {
+    long hash = 0xcbf29ce484222325L ^ replica;
+
+    for(int i = 0; i < length; i++) {
+      hash ^= data[i] & 0xff;
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+
+  private static class Ring {
+
+    final TreeMap<Long, Endpoint> nodes;
+    final Set<Endpoint> members;
+
+    Ring(TreeMap<Long, Endpoint> nodes, Set<Endpoint> members) {
+      this.nodes = nodes;
+      this.members = members;
+    }
+
+  }
+
+}
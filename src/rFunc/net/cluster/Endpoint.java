@@ -0,0 +1,199 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.net.Client;
+import rFunc.net.OverloadedException;
+import rFunc.value.Value;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of the servers of a cluster client, along with what the
+ * client has observed of it: the calls currently outstanding, a
+ * moving average of its latency and whether it is failing.
+ *
+ * An endpoint failing a number of consecutive calls at the transport
+ * level, or refusing them as overloaded, is ejected for a time, during which it is only chosen if no
+ * other endpoint is available. Once the ejection ends, a single
+ * further failure ejects it again, while a success restores it.
+ *
+ * Author:    LeqxLeqx
+ */
+public class Endpoint {
+
+  private static final double LATENCY_SMOOTHING = 0.2;
+  private static final long LATENCY_DECAY_TIME = TimeUnit.SECONDS.toNanos(1);
+
+  private final String ip;
+  private final int port;
+  final Client client = new Client();
+
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private double averageLatency = 0;
+  private long lastSampleTime = 0;
+  private int consecutiveFailures = 0;
+  private long ejectedUntil = 0;
+  private boolean ejected = false;
+
+  Endpoint(String ip, int port) {
+    if (ip == null)
+      throw new IllegalArgumentException("IP cannot be null");
+
+    client.setIp(ip);
+    client.setPort(port);
+
+    this.ip = ip;
+    this.port = port;
+  }
+
+  /**
+   * Gets whether or not a call may be sent to this endpoint without
+   * blocking, the client being initialized and connected
+   */
+  boolean isReady() {
+    return client.isInitialized() && client.isConnected();
+  }
+
+  /**
+   * Invokes the method of the provided name on this endpoint,
+   * recording the outcome. Unless the endpoint is ready, this
+   * blocks while the client connects and is initialized
+   */
+  CompletableFuture<Value> invokeAsync(String name, Value[] values, int failureThreshold, long ejectionTime) {
+    CompletableFuture<Value> call;
+
+    try {
+      synchronized (client) {
+        if (!client.isInitialized())
+          client.initialize();
+      }
+    } catch (IOException e) {
+      recordFailure(failureThreshold, ejectionTime);
+      call = new CompletableFuture<>();
+      call.completeExceptionally(e);
+      return call;
+    }
+
+    long start = System.nanoTime();
+    outstanding.incrementAndGet();
+    call = client.invokeAsync(name, values);
+
+    call.whenComplete((value, error) -> {
+      outstanding.decrementAndGet();
+
+      Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+      if (cause instanceof IOException || cause instanceof OverloadedException)
+        recordFailure(failureThreshold, ejectionTime);
+      else if (cause == null || !call.isCancelled())
+        recordSuccess(System.nanoTime() - start);
+    });
+
+    return call;
+  }
+
+  private synchronized void recordSuccess(long latency) {
+    averageLatency = averageLatency == 0
+            ? latency
+            : averageLatency + LATENCY_SMOOTHING * (latency - averageLatency);
+    lastSampleTime = System.nanoTime();
+    consecutiveFailures = 0;
+    ejected = false;
+  }
+
+  private synchronized void recordFailure(int failureThreshold, long ejectionTime) {
+    if (++consecutiveFailures >= failureThreshold) {
+      ejected = true;
+      ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+    }
+  }
+
+  /**
+   * Gets whether or not this endpoint is currently ejected
+   * for failing consecutive calls
+   *
+   * @return true if the endpoint is ejected
+   */
+  public synchronized boolean isEjected() {
+    return ejected && ejectedUntil - System.nanoTime() > 0;
+  }
+
+  /**
+   * Gets the IP of this endpoint
+   *
+   * @return the IP
+   */
+  public String getIp() {
+    return ip;
+  }
+
+  /**
+   * Gets the port of this endpoint
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Gets the number of calls to this endpoint awaiting their result
+   *
+   * @return the number of outstanding calls
+   */
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  /**
+   * Gets the moving average of the latency of calls to this endpoint.
+   * The average decays toward zero while no call completes, so that
+   * an endpoint passed over for one slow call is eventually tried again
+   *
+   * @param unit the unit of the returned latency
+   * @return the average latency, or 0 if no call has completed
+   */
+  public synchronized long getAverageLatency(TimeUnit unit) {
+    double elapsed = System.nanoTime() - lastSampleTime;
+    double latency = averageLatency * Math.exp(-elapsed / LATENCY_DECAY_TIME);
+
+    return unit.convert((long) latency, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the number of calls to this endpoint which have failed at
+   * the transport level or been refused as overloaded since the
+   * last success
+   *
+   * @return the consecutive failure count
+   */
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  @Override
+  public String toString() {
+    return ip + ":" + port;
+  }
+
+}
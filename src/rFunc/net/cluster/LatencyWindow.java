@@ -0,0 +1,74 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import java.util.Arrays;
+
+/**
+ * The latencies of the most recent calls, from which percentiles are
+ * estimated. Percentiles are recomputed once a tenth of the window
+ * has been replaced rather than on every sample
+ *
+ * Author:    LeqxLeqx
+ */
+class LatencyWindow {
+
+  private final long[] samples;
+  private int next = 0, count = 0, sinceSorted = 0;
+  private long[] sorted = new long[0];
+
+  LatencyWindow(int size) {
+    if (size < 1)
+      throw new IllegalArgumentException("Window size must be positive");
+    samples = new long[size];
+  }
+
+  synchronized void record(long latency) {
+    samples[next] = latency;
+    next = (next + 1) % samples.length;
+    if (count < samples.length)
+      count++;
+    sinceSorted++;
+  }
+
+  synchronized int getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the latency below which the provided percentage of
+   * the recorded calls completed
+   *
+   * @return the percentile, or 0 if nothing has been recorded
+   */
+  synchronized long getPercentile(double percentile) {
+    if (count == 0)
+      return 0;
+
+    if (sorted.length != count || sinceSorted > Math.max(1, count / 10)) {
+      sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      sinceSorted = 0;
+    }
+
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+
+}
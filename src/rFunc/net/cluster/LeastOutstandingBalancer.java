@@ -0,0 +1,54 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.value.Value;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends calls to the endpoint with the fewest calls outstanding,
+ * choosing at random between endpoints with equally few
+ *
+ * Author:    LeqxLeqx
+ */
+public class LeastOutstandingBalancer implements LoadBalancer {
+
+  @Override
+  public Endpoint select(List<Endpoint> endpoints, String name, Value[] values) {
+    Endpoint ret = null;
+    int least = Integer.MAX_VALUE, ties = 0;
+
+    for(Endpoint endpoint : endpoints) {
+      int outstanding = endpoint.getOutstanding();
+
+      if (outstanding < least) {
+        ret = endpoint;
+        least = outstanding;
+        ties = 1;
+      }
+      else if (outstanding == least && ThreadLocalRandom.current().nextInt(++ties) == 0)
+        ret = endpoint;
+    }
+
+    return ret;
+  }
+
+}
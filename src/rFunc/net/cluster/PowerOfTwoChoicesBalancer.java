@@ -0,0 +1,61 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.value.Value;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks two endpoints at random and sends the call to the one
+ * expected to answer sooner, judged by its average latency scaled
+ * by the calls it has outstanding. This spreads load nearly as well
+ * as always choosing the best endpoint, without every client herding
+ * onto the same one
+ *
+ * Author:    LeqxLeqx
+ */
+public class PowerOfTwoChoicesBalancer implements LoadBalancer {
+
+  @Override
+  public Endpoint select(List<Endpoint> endpoints, String name, Value[] values) {
+    int size = endpoints.size();
+    if (size == 1)
+      return endpoints.get(0);
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int a = random.nextInt(size), b = random.nextInt(size - 1);
+    if (b >= a)
+      b++;
+
+    Endpoint first = endpoints.get(a), second = endpoints.get(b);
+
+    return cost(second) < cost(first) ? second : first;
+  }
+
+  private static double cost(Endpoint endpoint) {
+    long latency = endpoint.getAverageLatency(TimeUnit.NANOSECONDS);
+
+    // endpoints without a measured latency are tried before any other
+    return (latency == 0 ? 1 : latency) * (endpoint.getOutstanding() + 1.0);
+  }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.value.Value;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends calls to each endpoint in turn
+ *
+ * Author:    LeqxLeqx
+ */
+public class RoundRobinBalancer implements LoadBalancer {
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  @Override
+  public Endpoint select(List<Endpoint> endpoints, String name, Value[] values) {
+    return endpoints.get((next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size());
+  }
+
+}
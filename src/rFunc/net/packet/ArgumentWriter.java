@@ -0,0 +1,154 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import rFunc.value.Value;
+import rFunc.value.ValueType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class ArgumentWriter {
+
+  private final ByteArrayOutputStream output;
+  private final WireFormat format;
+
+  ArgumentWriter(ByteArrayOutputStream output, WireFormat format) {
+    this.output = output;
+    this.format = format;
+  }
+
+  /**
+   * Writes a bool argument
+   *
+   * @param b the argument
+   */
+  public void writeBoolean(boolean b) {
+    writeHeader(ValueType.BOOLEAN, 1);
+    output.write(b ? 0xFF : 0);
+  }
+
+  /**
+   * Writes an int8 argument
+   *
+   * @param b the argument
+   */
+  public void writeByte(byte b) {
+    writeHeader(ValueType.INT8, 1);
+    output.write(b);
+  }
+
+  /**
+   * Writes an int16 argument
+   *
+   * @param s the argument
+   */
+  public void writeShort(short s) {
+    writeHeader(ValueType.INT16, 2);
+    writeBigEndian(s, 2);
+  }
+
+  /**
+   * Writes an int32 argument
+   *
+   * @param i the argument
+   */
+  public void writeInt(int i) {
+    writeHeader(ValueType.INT32, 4);
+    writeBigEndian(i, 4);
+  }
+
+  /**
+   * Writes an int64 argument
+   *
+   * @param l the argument
+   */
+  public void writeLong(long l) {
+    writeHeader(ValueType.INT64, 8);
+    writeBigEndian(l, 8);
+  }
+
+  /**
+   * Writes a float32 argument
+   *
+   * @param f the argument
+   */
+  public void writeFloat(float f) {
+    writeHeader(ValueType.FLOAT32, 4);
+    writeBigEndian(Float.floatToRawIntBits(f), 4);
+  }
+
+  /**
+   * Writes a float64 argument
+   *
+   * @param d the argument
+   */
+  public void writeDouble(double d) {
+    writeHeader(ValueType.FLOAT64, 8);
+    writeBigEndian(Double.doubleToRawLongBits(d), 8);
+  }
+
+  /**
+   * Writes a string argument
+   *
+   * @param string the argument
+   */
+  public void writeString(String string) {
+    if (string == null)
+      throw new IllegalArgumentException("String argument cannot be null");
+
+    byte[] data = string.getBytes(StandardCharsets.UTF_8);
+    writeHeader(ValueType.STRING, data.length);
+    output.write(data, 0, data.length);
+  }
+
+  /**
+   * Writes an argument already wrapped as a value
+   *
+   * @param value the argument
+   */
+  public void writeValue(Value value) {
+    if (value == null)
+      throw new IllegalArgumentException("Value argument cannot be null");
+
+    byte[] data = value.getData(format);
+    output.write(data, 0, data.length);
+  }
+
+
+  private void writeHeader(ValueType type, int length) {
+    output.write(type.index);
+    try {
+      format.writeLength(output, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void writeBigEndian(long l, int bytes) {
+    for(int k = bytes - 1; k >= 0; k--) {
+      output.write((int) (l >>> (k * 8)));
+    }
+  }
+
+}
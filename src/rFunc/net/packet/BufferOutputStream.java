@@ -0,0 +1,106 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * An output stream writing into buffers acquired from a pool, which
+ * grows by moving to a larger buffer. What was written is handed
+ * over as a buffer, or released with the stream when closed.
+ *
+ * Author:    LeqxLeqx
+ */
+class BufferOutputStream extends ByteArrayOutputStream {
+
+  private final BufferPool pool;
+  private PooledBuffer buffer;
+
+  BufferOutputStream(BufferPool pool, int capacity) {
+    super(0);
+
+    this.pool = pool;
+    buffer = pool.acquire(capacity).whole();
+    buf = buffer.array();
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    buf[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    if (off < 0 || len < 0 || off + len > b.length)
+      throw new IndexOutOfBoundsException();
+
+    ensureCapacity(len);
+    System.arraycopy(b, off, buf, count, len);
+    count += len;
+  }
+
+  private void ensureCapacity(int length) {
+    if (buffer == null)
+      throw new IllegalStateException("Stream already handed over its buffer");
+    if (count + length <= buf.length)
+      return;
+
+    PooledBuffer larger = pool.acquire((int) Math.min(Math.max((long) count + length, 2L * buf.length), Integer.MAX_VALUE - 8)).whole();
+    System.arraycopy(buf, 0, larger.array(), 0, count);
+    buffer.release();
+    buffer = larger;
+    buf = larger.array();
+  }
+
+  /**
+   * Gets the array written into, without copying. Only as many
+   * bytes as the size of the stream were written
+   *
+   * @return the array
+   */
+  byte[] array() {
+    return buf;
+  }
+
+  /**
+   * Hands over what was written as a buffer, which the caller
+   * must release. Nothing more may be written afterwards
+   *
+   * @return the buffer
+   */
+  PooledBuffer toBuffer() {
+    if (buffer == null)
+      throw new IllegalStateException("Stream already handed over its buffer");
+
+    PooledBuffer ret = buffer.slice(0, count);
+    buffer.release();
+    buffer = null;
+    return ret;
+  }
+
+  @Override
+  public void close() {
+    if (buffer != null) {
+      buffer.release();
+      buffer = null;
+    }
+  }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of arrays for the buffers packets are read into and written
+ * from, so that frames do not each allocate new arrays. Arrays are
+ * pooled in size classes, the powers of two from 256 bytes to 1 MiB,
+ * and a request is served by an array of the smallest class fitting
+ * it. Larger requests are allocated and left to the garbage collector.
+ *
+ * Each thread keeps a few arrays of each class up to 16 KiB for
+ * itself, so that a thread reading or writing frames in a loop
+ * reuses its arrays without contention. Arrays beyond those are kept
+ * in lists shared by all threads, up to a limit in bytes.
+ *
+ * With leak detection enabled, a buffer left to the garbage collector
+ * without having been released is counted as a leak, and where it was
+ * acquired is recorded.
+ *
+ * Author:    LeqxLeqx
+ */
+public class BufferPool {
+
+  private static final int
+          MINIMUM_CLASS_SHIFT = 8,
+          MAXIMUM_CLASS_SHIFT = 20,
+          MAXIMUM_CACHED_CLASS_SHIFT = 14,
+          CLASS_COUNT = MAXIMUM_CLASS_SHIFT - MINIMUM_CLASS_SHIFT + 1,
+          CACHED_CLASS_COUNT = MAXIMUM_CACHED_CLASS_SHIFT - MINIMUM_CLASS_SHIFT + 1,
+          THREAD_CACHE_SIZE = 4,
+          MAXIMUM_LEAKS_RECORDED = 16
+                  ;
+
+  private static final BufferPool DEFAULT = new BufferPool();
+
+  /**
+   * Gets the pool shared by all connections
+   *
+   * @return the default pool
+   */
+  public static BufferPool getDefault() {
+    return DEFAULT;
+  }
+
+
+  static final class LeakTracker extends PhantomReference<PooledBuffer.Shared> {
+    final Throwable acquisition;
+
+    LeakTracker(PooledBuffer.Shared shared, ReferenceQueue<PooledBuffer.Shared> queue, int size) {
+      super(shared, queue);
+      acquisition = new Throwable(String.format("Buffer of %d bytes acquired here", size));
+    }
+  }
+
+  private static final class ThreadCache {
+    final byte[][][] arrays = new byte[CACHED_CLASS_COUNT][THREAD_CACHE_SIZE][];
+    final int[] counts = new int[CACHED_CLASS_COUNT];
+  }
+
+
+  private final ThreadLocal<ThreadCache> caches = ThreadLocal.withInitial(ThreadCache::new);
+  private final LinkedList<byte[]>[] shared;
+  private long sharedBytes = 0, maximumSharedBytes = 16 << 20;
+
+  private volatile boolean leakDetectionEnabled = false;
+  private final ReferenceQueue<PooledBuffer.Shared> leakQueue = new ReferenceQueue<>();
+  private final Set<LeakTracker> trackers = ConcurrentHashMap.newKeySet();
+  private final LinkedList<Throwable> leaks = new LinkedList<>();
+
+  private final AtomicLong
+          acquisitions = new AtomicLong(),
+          allocations = new AtomicLong(),
+          leakCount = new AtomicLong()
+                  ;
+
+  /**
+   * Creates an empty pool
+   */
+  public BufferPool() {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    LinkedList<byte[]>[] lists = new LinkedList[CLASS_COUNT];
+    for(int k = 0; k < CLASS_COUNT; k++) {
+      lists[k] = new LinkedList<>();
+    }
+
+    shared = lists;
+  }
+
+  /**
+   * Acquires a buffer of the provided length. The buffer must be
+   * released once no longer used, for its array to be reused
+   *
+   * @param length the length of the buffer
+   * @return the buffer, whose content is undefined
+   */
+  public PooledBuffer acquire(int length) {
+    if (length < 0)
+      throw new IllegalArgumentException("Cannot acquire buffer of length: " + length);
+
+    acquisitions.incrementAndGet();
+
+    int sizeClass = sizeClassOf(length);
+    byte[] array = sizeClass == -1 ? null : take(sizeClass);
+
+    if (array == null) {
+      allocations.incrementAndGet();
+      array = new byte[sizeClass == -1 ? length : 1 << (sizeClass + MINIMUM_CLASS_SHIFT)];
+    }
+
+    PooledBuffer.Shared buffer = new PooledBuffer.Shared(this, array);
+
+    if (leakDetectionEnabled) {
+      pollLeaks();
+      buffer.tracker = new LeakTracker(buffer, leakQueue, length);
+      trackers.add(buffer.tracker);
+    }
+
+    return new PooledBuffer(buffer, 0, length);
+  }
+
+  void recycle(PooledBuffer.Shared buffer) {
+    if (buffer.tracker != null) {
+      trackers.remove(buffer.tracker);
+      buffer.tracker.clear();
+    }
+
+    int sizeClass = sizeClassOf(buffer.array.length);
+    if (sizeClass == -1 || buffer.array.length != 1 << (sizeClass + MINIMUM_CLASS_SHIFT))
+      return;
+
+    if (sizeClass < CACHED_CLASS_COUNT) {
+      ThreadCache cache = caches.get();
+      if (cache.counts[sizeClass] < THREAD_CACHE_SIZE) {
+        cache.arrays[sizeClass][cache.counts[sizeClass]++] = buffer.array;
+        return;
+      }
+    }
+
+    synchronized (shared) {
+      if (sharedBytes + buffer.array.length > maximumSharedBytes)
+        return;
+
+      shared[sizeClass].add(buffer.array);
+      sharedBytes += buffer.array.length;
+    }
+  }
+
+  private byte[] take(int sizeClass) {
+    if (sizeClass < CACHED_CLASS_COUNT) {
+      ThreadCache cache = caches.get();
+      if (cache.counts[sizeClass] > 0) {
+        int top = --cache.counts[sizeClass];
+        byte[] ret = cache.arrays[sizeClass][top];
+        cache.arrays[sizeClass][top] = null;
+        return ret;
+      }
+    }
+
+    synchronized (shared) {
+      if (shared[sizeClass].isEmpty())
+        return null;
+
+      byte[] ret = shared[sizeClass].removeLast();
+      sharedBytes -= ret.length;
+      return ret;
+    }
+  }
+
+  private static int sizeClassOf(int length) {
+    if (length > 1 << MAXIMUM_CLASS_SHIFT)
+      return -1;
+    if (length <= 1 << MINIMUM_CLASS_SHIFT)
+      return 0;
+
+    return 32 - Integer.numberOfLeadingZeros(length - 1) - MINIMUM_CLASS_SHIFT;
+  }
+
+  private void pollLeaks() {
+    LeakTracker tracker;
+    while((tracker = (LeakTracker) leakQueue.poll()) != null) {
+      if (!trackers.remove(tracker))
+        continue;
+
+      leakCount.incrementAndGet();
+      synchronized (leaks) {
+        leaks.add(tracker.acquisition);
+        if (leaks.size() > MAXIMUM_LEAKS_RECORDED)
+          leaks.removeFirst();
+      }
+    }
+  }
+
+
+  /**
+   * Gets whether or not buffers never released are detected
+   *
+   * @return true if leak detection is enabled
+   */
+  public boolean isLeakDetectionEnabled() {
+    return leakDetectionEnabled;
+  }
+
+  /**
+   * Sets whether or not buffers never released are detected. Leak
+   * detection records where each buffer is acquired, which makes
+   * acquiring buffers considerably slower, so it is meant for
+   * debugging. Only buffers acquired while it is enabled are tracked
+   *
+   * @param leakDetectionEnabled true to enable leak detection
+   */
+  public void setLeakDetectionEnabled(boolean leakDetectionEnabled) {
+    this.leakDetectionEnabled = leakDetectionEnabled;
+  }
+
+  /**
+   * Gets the number of leaked buffers detected so far. A leak is
+   * detected once the garbage collector has collected the buffer
+   *
+   * @return the leak count
+   */
+  public long getLeakCount() {
+    pollLeaks();
+    return leakCount.get();
+  }
+
+  /**
+   * Gets where the most recently detected leaked buffers were
+   * acquired, as the stack traces of the throwables returned
+   *
+   * @return the acquisitions of up to the last 16 leaked buffers
+   */
+  public List<Throwable> getLeaks() {
+    pollLeaks();
+    synchronized (leaks) {
+      return Collections.unmodifiableList(new LinkedList<>(leaks));
+    }
+  }
+
+  /**
+   * Gets the greatest number of bytes of arrays kept in the
+   * lists shared by all threads
+   *
+   * @return the maximum shared bytes
+   */
+  public long getMaximumSharedBytes() {
+    synchronized (shared) {
+      return maximumSharedBytes;
+    }
+  }
+
+  /**
+   * Sets the greatest number of bytes of arrays kept in the lists
+   * shared by all threads. Arrays released beyond this are left
+   * to the garbage collector
+   *
+   * @param maximumSharedBytes the maximum shared bytes
+   */
+  public void setMaximumSharedBytes(long maximumSharedBytes) {
+    if (maximumSharedBytes < 0)
+      throw new IllegalArgumentException("Cannot set maximum shared bytes to: " + maximumSharedBytes);
+
+    synchronized (shared) {
+      this.maximumSharedBytes = maximumSharedBytes;
+      for(int k = CLASS_COUNT - 1; k >= 0 && sharedBytes > maximumSharedBytes; k--) {
+        while(!shared[k].isEmpty() && sharedBytes > maximumSharedBytes) {
+          sharedBytes -= shared[k].removeLast().length;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the number of bytes of arrays currently kept in the
+   * lists shared by all threads
+   *
+   * @return the shared bytes
+   */
+  public long getSharedBytes() {
+    synchronized (shared) {
+      return sharedBytes;
+    }
+  }
+
+  /**
+   * Gets the number of buffers acquired from this pool
+   *
+   * @return the acquisition count
+   */
+  public long getAcquisitionCount() {
+    return acquisitions.get();
+  }
+
+  /**
+   * Gets the number of arrays allocated for buffers acquired
+   * from this pool, as none could be reused for them
+   *
+   * @return the allocation count
+   */
+  public long getAllocationCount() {
+    return allocations.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+            "%d acquired, %d allocated, %d bytes shared, %d leaked",
+            getAcquisitionCount(),
+            getAllocationCount(),
+            getSharedBytes(),
+            getLeakCount()
+      );
+  }
+
+}
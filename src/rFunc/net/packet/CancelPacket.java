@@ -0,0 +1,44 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class CancelPacket extends Packet {
+
+  /**
+   * Error message with which a server answers a call
+   * cancelled by its caller
+   */
+  public static final String CANCELLED_MESSAGE = "Call cancelled";
+
+  /**
+   * Creates a request to cancel a call. The transaction id of
+   * the cancel packet is that of the call to be cancelled
+   */
+  public CancelPacket() {
+    super(PacketType.CANCEL);
+  }
+
+  @Override
+  public byte[] getData() {
+    throw new RuntimeException();
+  }
+}
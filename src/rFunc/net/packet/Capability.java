@@ -0,0 +1,107 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.util.EnumSet;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public enum Capability {
+
+  COMPRESSION     (0x1 << 0, true),
+  COMPACT_FRAMING (0x1 << 1, true),
+  MULTIPLEXING    (0x1 << 2, true),
+  BATCHING        (0x1 << 3, false),
+  STREAMING       (0x1 << 4, true),
+  METHOD_IDS      (0x1 << 5, true),
+  DEADLINES       (0x1 << 6, true),
+  KEEPALIVE       (0x1 << 7, true),
+
+  ;
+
+  /**
+   * Gets the bit mask of all capabilities this library implements.
+   * Capabilities outside of this mask are never offered during a
+   * handshake, regardless of configuration
+   *
+   * @return the bit mask of implemented capabilities
+   */
+  public static int getSupportedMask() {
+    int ret = 0;
+    for(Capability c : values()) {
+      if (c.supported)
+        ret |= c.mask;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Gets the bit mask representing the provided capabilities
+   *
+   * @param capabilities the capabilities
+   * @return the bit mask of the capabilities
+   */
+  public static int toMask(Iterable<Capability> capabilities) {
+    int ret = 0;
+    for(Capability c : capabilities) {
+      ret |= c.mask;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Gets the set of capabilities represented by the provided bit mask.
+   * Bits not associated with any known capability are ignored
+   *
+   * @param mask the bit mask
+   * @return the set of capabilities
+   */
+  public static EnumSet<Capability> fromMask(int mask) {
+    EnumSet<Capability> ret = EnumSet.noneOf(Capability.class);
+    for(Capability c : values()) {
+      if ((mask & c.mask) != 0)
+        ret.add(c);
+    }
+
+    return ret;
+  }
+
+
+  public final int mask;
+  private final boolean supported;
+
+  Capability(int mask, boolean supported) {
+    this.mask = mask;
+    this.supported = supported;
+  }
+
+  /**
+   * Gets whether or not this capability is present in the bit mask
+   *
+   * @param mask the bit mask
+   * @return true if the capability is present
+   */
+  public boolean in(int mask) {
+    return (mask & this.mask) != 0;
+  }
+
+}
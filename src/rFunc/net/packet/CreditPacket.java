@@ -0,0 +1,75 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class CreditPacket extends Packet {
+
+  static CreditPacket parse(byte[] data, WireFormat format) throws IOException {
+    int credits = format.readLength(new ByteArrayInputStream(data));
+    if (credits == 0)
+      throw new IOException("Invalid credit grant");
+
+    return new CreditPacket(credits);
+  }
+
+
+  public final int credits;
+
+  /**
+   * Creates a grant of credits to a subscription, allowing the server
+   * to stream that many more values. The transaction id of the credit
+   * packet is that of the subscription
+   *
+   * @param credits the number of credits granted
+   */
+  public CreditPacket(int credits) {
+    super(PacketType.CREDIT);
+
+    if (credits <= 0)
+      throw new IllegalArgumentException("Credits must be positive");
+
+    this.credits = credits;
+  }
+
+  @Override
+  public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    try {
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(5);
+      format.writeLength(baos, credits);
+
+      return baos.toByteArray();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -25,10 +25,24 @@ import java.nio.charset.StandardCharsets;
  */
 public class ErrorPacket extends Packet {
 
+  public static final String OVERLOADED_PREFIX = "Server overloaded, retry after ";
+  public static final String OVERLOADED_SUFFIX = " ms";
+
   public static ErrorPacket parse(byte[] data) {
     return new ErrorPacket(new String(data, StandardCharsets.UTF_8));
   }
 
+  /**
+   * Creates an error packet refusing a call because the server is
+   * overloaded. Peers unaware of the hint see an ordinary error
+   *
+   * @param retryAfter the time in milliseconds the caller should wait before retrying
+   * @return the error packet
+   */
+  public static ErrorPacket overloaded(long retryAfter) {
+    return new ErrorPacket(OVERLOADED_PREFIX + retryAfter + OVERLOADED_SUFFIX);
+  }
+
   public final String errorMessage;
 
   public ErrorPacket(String errorMessage) {
@@ -37,6 +51,25 @@ public class ErrorPacket extends Packet {
     this.errorMessage = errorMessage;
   }
 
+  /**
+   * Gets the retry-after hint of an overloaded error
+   *
+   * @return the hint in milliseconds, or -1 if this is not an overloaded error
+   */
+  public long getRetryAfter() {
+    if (!errorMessage.startsWith(OVERLOADED_PREFIX) || !errorMessage.endsWith(OVERLOADED_SUFFIX))
+      return -1;
+
+    try {
+      return Long.parseLong(errorMessage.substring(
+              OVERLOADED_PREFIX.length(),
+              errorMessage.length() - OVERLOADED_SUFFIX.length()
+        ));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
   @Override
   public byte[] getData() {
     return errorMessage.getBytes(StandardCharsets.UTF_8);
@@ -24,7 +24,7 @@ import rFunc.value.Value;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -34,50 +34,62 @@ import java.util.LinkedList;
  */
 public class FunctionCallPacket extends Packet {
 
-  static FunctionCallPacket parse(byte[] data) throws IOException {
+  /**
+   * Error message with which a server answers a call whose
+   * deadline passed before the call could be run
+   */
+  public static final String DEADLINE_EXCEEDED_MESSAGE = "Deadline exceeded";
+
+
+  static FunctionCallPacket parse(ByteArrayInputStream bais, WireFormat format, boolean timed, PacketLimits limits) throws IOException {
 
     String namespace;
     MethodSpecification mSpec;
     LinkedList<Value> values = new LinkedList<>();
 
     byte[]
-            namespaceLengthData = new byte[4],
-            mSpecLengthData = new byte[4],
             namespaceData,
             mSpecData
             ;
 
-    int namespaceLength, mSpecLength;
-
-    ByteArrayInputStream bais = new ByteArrayInputStream(data);
+    int timeout = timed ? format.readLength(bais) : 0;
 
-    bais.read(namespaceLengthData);
-    namespaceLength = ByteBuffer.wrap(namespaceLengthData).getInt();
-    namespaceData = new byte[namespaceLength];
-    bais.read(namespaceData);
-
-    bais.read(mSpecLengthData);
-    mSpecLength = ByteBuffer.wrap(mSpecLengthData).getInt();
-    mSpecData = new byte[mSpecLength];
-    bais.read(mSpecData);
+    namespaceData = format.readBytes(bais);
+    mSpecData = format.readBytes(bais);
 
     namespace = new String(namespaceData, StandardCharsets.UTF_8);
     mSpec = MethodSpecification.parseFromBytes(mSpecData);
 
 
     while(bais.available() > 0) {
-      values.add(Value.parseFromStream(bais));
+      limits.checkArgumentCount(values.size() + 1);
+      values.add(Value.parseFromStream(bais, format, limits));
     }
 
-    return new FunctionCallPacket(namespace, mSpec, values.toArray(new Value[values.size()]));
+    return new FunctionCallPacket(namespace, mSpec, values.toArray(new Value[values.size()]), timeout);
   }
 
   public final String namespace;
   public final MethodSpecification methodSpecification;
   public final Value[] arguments;
+  public final int timeout;
 
   public FunctionCallPacket(String namespace, MethodSpecification methodSpec, Value[] arguments) {
-    super(PacketType.FUNCTION_CALL);
+    this(namespace, methodSpec, arguments, 0);
+  }
+
+  /**
+   * Creates a function call packet. A call with a timeout is sent as a
+   * timed function call, which only peers which agreed upon the
+   * deadlines capability can parse
+   *
+   * @param namespace the namespace of the method
+   * @param methodSpec the method specification
+   * @param arguments arguments to the method
+   * @param timeout the time in milliseconds the caller will wait for a reply, or 0 for no limit
+   */
+  public FunctionCallPacket(String namespace, MethodSpecification methodSpec, Value[] arguments, int timeout) {
+    super(timeout == 0 ? PacketType.FUNCTION_CALL : PacketType.TIMED_FUNCTION_CALL);
 
     if (namespace == null)
       throw new IllegalArgumentException("Namespace cannot be null");
@@ -87,36 +99,54 @@ public class FunctionCallPacket extends Packet {
       throw new IllegalArgumentException("Arguments cannot be null");
     if (Arrays.asList(arguments).contains(null))
       throw new IllegalArgumentException("Arguments cannot contain null");
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout cannot be negative");
 
     this.namespace = namespace;
     methodSpecification = methodSpec;
     this.arguments = arguments.clone();
+    this.timeout = timeout;
   }
 
   @Override
   public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
     try {
 
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      writeInstanceData(baos, format);
+      return baos.toByteArray();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-      byte[] namespaceData = namespace.getBytes(StandardCharsets.UTF_8);
+  @Override
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    if (timeout != 0)
+      format.writeLength(os, timeout);
 
-      baos.write(ByteBuffer.allocate(4).putInt(namespaceData.length).array());
-      baos.write(namespaceData);
+    writeHeader(os, namespace, methodSpecification, format);
 
-      byte[] methodSpecData = methodSpecification.getByteData();
+    for(Value v : arguments) {
+      v.writeData(os, format);
+    }
+  }
 
-      baos.write(ByteBuffer.allocate(4).putInt(methodSpecData.length).array());
-      baos.write(methodSpecData);
+  static void writeHeader(OutputStream os, String namespace, MethodSpecification methodSpecification, WireFormat format) throws IOException {
+    byte[] namespaceData = namespace.getBytes(StandardCharsets.UTF_8);
 
-      for(Value v : arguments) {
-        baos.write(v.getData());
-      }
+    format.writeLength(os, namespaceData.length);
+    os.write(namespaceData);
 
-      return baos.toByteArray();
+    byte[] methodSpecData = methodSpecification.getByteData();
 
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    format.writeLength(os, methodSpecData.length);
+    os.write(methodSpecData);
   }
 }
@@ -20,9 +20,9 @@ package rFunc.net.packet;
 
 import rFunc.method.MethodSpecification;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -31,18 +31,14 @@ import java.util.LinkedList;
  */
 public class FunctionListPacket extends Packet {
 
-  static FunctionListPacket parse(byte[] data) {
+  static FunctionListPacket parse(byte[] data, WireFormat format) throws IOException {
 
-    ByteBuffer bb = ByteBuffer.wrap(data);
+    ByteArrayInputStream bais = new ByteArrayInputStream(data);
     LinkedList<MethodSpecification> specs = new LinkedList<>();
 
-    int length;
+    while(bais.available() > 0) {
 
-    while(bb.position() < data.length) {
-
-      length = bb.getInt();
-      byte[] mSpecData = new byte[length];
-      bb.get(mSpecData);
+      byte[] mSpecData = format.readBytes(bais);
 
       specs.add(MethodSpecification.parseFromBytes(mSpecData));
     }
@@ -69,13 +65,18 @@ public class FunctionListPacket extends Packet {
 
   @Override
   public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     try {
 
       for(MethodSpecification mSpec : methods) {
         byte[] data = mSpec.getByteData();
 
-        baos.write(ByteBuffer.allocate(4).putInt(data.length).array());
+        format.writeLength(baos, data.length);
         baos.write(data);
 
       }
@@ -21,6 +21,7 @@ package rFunc.net.packet;
 import rFunc.value.Value;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 /**
@@ -29,14 +30,19 @@ import java.io.IOException;
 public class FunctionReturnPacket extends Packet {
 
   public static FunctionReturnPacket parse(byte[] data) {
-    ByteArrayInputStream bais = new ByteArrayInputStream(data);
+    return parse(data, WireFormat.LEGACY);
+  }
+
+  public static FunctionReturnPacket parse(byte[] data, WireFormat format) {
     try {
-      return new FunctionReturnPacket(Value.parseFromStream(bais));
+      return parse(new ByteArrayInputStream(data), format, new PacketLimits());
     } catch (IOException e) {
-      throw new RuntimeException();
+      throw new RuntimeException(e);
     }
+  }
 
-
+  static FunctionReturnPacket parse(ByteArrayInputStream bais, WireFormat format, PacketLimits limits) throws IOException {
+    return new FunctionReturnPacket(Value.parseFromStream(bais, format, limits));
   }
 
 
@@ -51,4 +57,14 @@ public class FunctionReturnPacket extends Packet {
   public byte[] getData() {
     return value.getData();
   }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    return value.getData(format);
+  }
+
+  @Override
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    value.writeData(os, format);
+  }
 }
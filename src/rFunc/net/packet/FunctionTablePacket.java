@@ -0,0 +1,129 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import rFunc.method.MethodSpecification;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class FunctionTablePacket extends Packet {
+
+  static FunctionTablePacket parse(byte[] data, WireFormat format) throws IOException {
+
+    ByteArrayInputStream bais = new ByteArrayInputStream(data);
+    LinkedList<MethodSpecification> specs = new LinkedList<>();
+    LinkedList<Integer> ids = new LinkedList<>();
+
+    int tableIdentifier = format.readLength(bais);
+
+    while(bais.available() > 0) {
+
+      ids.add(format.readLength(bais));
+
+      byte[] mSpecData = format.readBytes(bais);
+
+      specs.add(MethodSpecification.parseFromBytes(mSpecData));
+    }
+
+    int[] idArray = new int[ids.size()];
+    int top = 0;
+    for(int id : ids) {
+      idArray[top++] = id;
+    }
+
+    return new FunctionTablePacket(tableIdentifier, idArray, specs.toArray(new MethodSpecification[specs.size()]));
+  }
+
+  public final int tableIdentifier;
+  private final int[] ids;
+  private final MethodSpecification[] methods;
+
+  /**
+   * Creates a function table packet, listing the methods of a
+   * namespace alongside the ids the server assigned them
+   *
+   * @param tableIdentifier identifier of the server's method table
+   * @param ids the method ids
+   * @param methods the method specifications, in the same order as the ids
+   */
+  public FunctionTablePacket(int tableIdentifier, int[] ids, MethodSpecification[] methods) {
+    super(PacketType.FUNCTION_TABLE);
+
+    if (tableIdentifier < 0)
+      throw new IllegalArgumentException("Table identifier cannot be negative");
+    if (ids == null)
+      throw new IllegalArgumentException("Method ids cannot be null");
+    if (methods == null)
+      throw new IllegalArgumentException("Method specifications cannot be null");
+    if (Arrays.asList(methods).contains(null))
+      throw new IllegalArgumentException("Method specifications cannot contain a null");
+    if (ids.length != methods.length)
+      throw new IllegalArgumentException("Array length mismatch");
+    for(int id : ids) {
+      if (id < 0)
+        throw new IllegalArgumentException("Method ids cannot be negative");
+    }
+
+    this.tableIdentifier = tableIdentifier;
+    this.ids = ids.clone();
+    this.methods = methods.clone();
+  }
+
+  public int[] getIDs() {
+    return ids.clone();
+  }
+
+  public MethodSpecification[] getMethods() {
+    return methods.clone();
+  }
+
+  @Override
+  public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try {
+
+      format.writeLength(baos, tableIdentifier);
+
+      for(int k = 0; k < methods.length; k++) {
+        byte[] data = methods[k].getByteData();
+
+        format.writeLength(baos, ids[k]);
+        format.writeLength(baos, data.length);
+        baos.write(data);
+      }
+
+      return baos.toByteArray();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -23,33 +23,144 @@ import rFunc.RFunc;
 import java.nio.charset.StandardCharsets;
 
 /**
+ * The first packet sent by either peer of a connection.
+ *
+ * Its data is the library version string alone, as it always was,
+ * since peers predating protocol negotiation compare it exactly.
+ * The range of protocol versions and the capabilities offered are
+ * carried in the transaction id instead, which those peers ignore.
+ * A handshake whose transaction id holds no such offer, as that of
+ * an older peer, offers protocol version 1 and no capabilities.
+ *
  * Author:    LeqxLeqx
  */
 public class HandshakePacket extends Packet {
 
-  static HandshakePacket parse(byte[] data) {
+  private static final long LEGACY_TRANSACTION_ID = -2;
+
+  static HandshakePacket parse(byte[] data, long transactionID) {
     String string = new String(data, StandardCharsets.UTF_8);
 
-    return new HandshakePacket(string);
+    int
+            minimumProtocolVersion = (int) (transactionID >>> 48) & 0xFFFF,
+            maximumProtocolVersion = (int) (transactionID >>> 32) & 0xFFFF,
+            capabilities = (int) transactionID
+                    ;
+
+    if (transactionID < 0 || minimumProtocolVersion < 1 || minimumProtocolVersion > maximumProtocolVersion)
+      return new HandshakePacket(string, 1, 1, 0);
+
+    return new HandshakePacket(string, minimumProtocolVersion, maximumProtocolVersion, capabilities);
   }
 
 
   public final String version;
+  public final int minimumProtocolVersion, maximumProtocolVersion;
+  public final int capabilities;
 
-  private HandshakePacket(String ver) {
+  private HandshakePacket(String ver, int minimumProtocolVersion, int maximumProtocolVersion, int capabilities) {
     super(PacketType.HANDSHAKE);
 
     version = ver;
-    setTransactionID(-2);
+    this.minimumProtocolVersion = minimumProtocolVersion;
+    this.maximumProtocolVersion = maximumProtocolVersion;
+    this.capabilities = capabilities;
+
+    if (maximumProtocolVersion < 2)
+      setTransactionID(LEGACY_TRANSACTION_ID);
+    else
+      setTransactionID(
+              ((long) minimumProtocolVersion << 48) |
+              ((long) maximumProtocolVersion << 32) |
+              (capabilities & 0xFFFFFFFFL)
+        );
   }
 
   public HandshakePacket() {
-    this(RFunc.getVersion());
+    this(Capability.getSupportedMask());
+  }
+
+  /**
+   * Creates a handshake packet offering the range of protocol
+   * versions this library speaks and the provided capabilities.
+   * Capabilities this library does not implement are never offered.
+   * The handshake itself is always sent in the legacy wire format
+   *
+   * @param capabilities bit mask of the capabilities to offer
+   */
+  public HandshakePacket(int capabilities) {
+    this(
+            RFunc.getVersion(),
+            RFunc.getMinimumProtocolVersion(),
+            RFunc.getProtocolVersion(),
+            capabilities & Capability.getSupportedMask()
+      );
   }
 
+  /**
+   * Creates a handshake packet identical to that of a peer predating
+   * protocol negotiation, offering protocol version 1 alone
+   *
+   * @return the handshake packet
+   */
+  public static HandshakePacket createLegacy() {
+    return new HandshakePacket(RFunc.getVersion(), 1, 1, 0);
+  }
 
+  /**
+   * Gets whether or not the protocol versions offered by
+   * the sender of this handshake overlap with those spoken
+   * by this library
+   *
+   * @return true if a common protocol version exists
+   */
   public boolean isValid() {
-    return version.equals(RFunc.getVersion());
+    return negotiateProtocolVersion(
+            RFunc.getMinimumProtocolVersion(),
+            RFunc.getProtocolVersion()
+      ) != -1;
+  }
+
+  /**
+   * Gets the newest protocol version within both the range
+   * offered by this handshake and the provided range
+   *
+   * @param minimum oldest version of the provided range
+   * @param maximum newest version of the provided range
+   * @return the newest common version, or -1 if the ranges do not overlap
+   */
+  public int negotiateProtocolVersion(int minimum, int maximum) {
+    int
+            low = Math.max(minimum, minimumProtocolVersion),
+            high = Math.min(maximum, maximumProtocolVersion)
+                    ;
+
+    return low <= high ? high : -1;
+  }
+
+  /**
+   * Gets the capabilities offered by both this handshake and
+   * the provided one
+   *
+   * @param other the other handshake
+   * @return bit mask of the capabilities common to both
+   */
+  public int commonCapabilities(HandshakePacket other) {
+    if (other == null)
+      throw new IllegalArgumentException("Handshake cannot be null");
+
+    return capabilities & other.capabilities;
+  }
+
+
+  /**
+   * Gets whether or not this handshake offers protocol version 1
+   * alone, as does that of a peer predating protocol negotiation
+   *
+   * @return true if this handshake offers nothing newer
+   */
+  public boolean isLegacy() {
+    return maximumProtocolVersion < 2;
   }
 
 
@@ -0,0 +1,135 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import rFunc.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class IndexedFunctionCallPacket extends Packet {
+
+  /**
+   * Error message with which a server answers a call made against
+   * a method table other than its own, such as one obtained from
+   * the server before it was restarted, or against the id of a
+   * method since removed. Ids are never reused, so a client
+   * receiving it should drop the id and call the method by name
+   */
+  public static final String STALE_TABLE_MESSAGE = "Stale method table";
+
+
+  static IndexedFunctionCallPacket parse(ByteArrayInputStream bais, WireFormat format, boolean timed, PacketLimits limits) throws IOException {
+
+    LinkedList<Value> values = new LinkedList<>();
+
+    int
+            timeout = timed ? format.readLength(bais) : 0,
+            tableIdentifier = format.readLength(bais),
+            methodID = format.readLength(bais)
+                    ;
+
+    while(bais.available() > 0) {
+      limits.checkArgumentCount(values.size() + 1);
+      values.add(Value.parseFromStream(bais, format, limits));
+    }
+
+    return new IndexedFunctionCallPacket(tableIdentifier, methodID, values.toArray(new Value[values.size()]), timeout);
+  }
+
+  public final int tableIdentifier, methodID, timeout;
+  public final Value[] arguments;
+
+  /**
+   * Creates a call to the method of the provided id
+   *
+   * @param tableIdentifier identifier of the method table which assigned the id
+   * @param methodID the method id
+   * @param arguments arguments to the method
+   */
+  public IndexedFunctionCallPacket(int tableIdentifier, int methodID, Value[] arguments) {
+    this(tableIdentifier, methodID, arguments, 0);
+  }
+
+  /**
+   * Creates a call to the method of the provided id. A call with a
+   * timeout is sent as a timed call, which only peers which agreed
+   * upon the deadlines capability can parse
+   *
+   * @param tableIdentifier identifier of the method table which assigned the id
+   * @param methodID the method id
+   * @param arguments arguments to the method
+   * @param timeout the time in milliseconds the caller will wait for a reply, or 0 for no limit
+   */
+  public IndexedFunctionCallPacket(int tableIdentifier, int methodID, Value[] arguments, int timeout) {
+    super(timeout == 0 ? PacketType.INDEXED_FUNCTION_CALL : PacketType.TIMED_INDEXED_FUNCTION_CALL);
+
+    if (tableIdentifier < 0)
+      throw new IllegalArgumentException("Table identifier cannot be negative");
+    if (methodID < 0)
+      throw new IllegalArgumentException("Method id cannot be negative");
+    if (arguments == null)
+      throw new IllegalArgumentException("Arguments cannot be null");
+    if (Arrays.asList(arguments).contains(null))
+      throw new IllegalArgumentException("Arguments cannot contain null");
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout cannot be negative");
+
+    this.tableIdentifier = tableIdentifier;
+    this.methodID = methodID;
+    this.arguments = arguments.clone();
+    this.timeout = timeout;
+  }
+
+  @Override
+  public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    try {
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      writeInstanceData(baos, format);
+      return baos.toByteArray();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    if (timeout != 0)
+      format.writeLength(os, timeout);
+    format.writeLength(os, tableIdentifier);
+    format.writeLength(os, methodID);
+
+    for(Value v : arguments) {
+      v.writeData(os, format);
+    }
+  }
+}
@@ -18,36 +18,98 @@
 
 package rFunc.net.packet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 
 /**
  * Author:    LeqxLeqx
  */
 public abstract class Packet {
 
+  private static final int
+          FRAME_RAW = 0,
+          FRAME_DEFLATE = 1
+                  ;
+
+  private static final int
+          FRAME_HEADER_SIZE = 17,
+          INSTANCE_DATA_SIZE = 256
+                  ;
+
+
   public static Packet parse(InputStream is) throws IOException {
+    return parse(is, WireFormat.LEGACY);
+  }
+
+  /**
+   * Parses a packet from a data stream encoded in the provided wire format
+   *
+   * @param is input stream
+   * @param format the wire format of the packet
+   * @return the packet parsed
+   * @throws IOException
+   */
+  public static Packet parse(InputStream is, WireFormat format) throws IOException {
+    return parse(is, format, null);
+  }
+
+  /**
+   * Parses a packet from a data stream encoded in the provided wire
+   * format. If a compressor is provided, every frame carrying data is
+   * expected to state whether or not its data is compressed
+   *
+   * @param is input stream
+   * @param format the wire format of the packet
+   * @param compressor the compressor of the connection, or null if compression is not in use
+   * @return the packet parsed
+   * @throws IOException
+   */
+  public static Packet parse(InputStream is, WireFormat format, PacketCompressor compressor) throws IOException {
+    return parse(is, format, compressor, new PacketLimits());
+  }
+
+  /**
+   * Parses a packet from a data stream encoded in the provided wire
+   * format, checking every length it declares against the provided
+   * limits before allocating anything for it. A packet breaking the
+   * limits is left partly unread, so the stream cannot be parsed
+   * any further
+   *
+   * @param is input stream
+   * @param format the wire format of the packet
+   * @param compressor the compressor of the connection, or null if compression is not in use
+   * @param limits the limits of the connection
+   * @return the packet parsed
+   * @throws PacketLimitException if the packet breaks the limits
+   * @throws IOException
+   */
+  public static Packet parse(InputStream is, WireFormat format, PacketCompressor compressor, PacketLimits limits) throws IOException {
     Packet ret;
 
     long transID;
-    int instanceDataLength;
-    String typeString;
     PacketType type;
-    byte[] transactionIDData = new byte[8], typeData = new byte[3], instanceDataLengthData = new byte[4], instanceData;
 
-    is.read(transactionIDData);
-    is.read(typeData);
+    transID = format.readTransactionID(is);
+    type = format.readType(is);
 
+    try {
+      ret = parseData(is, transID, type, format, compressor, limits);
+    } catch (PacketLimitException e) {
+      throw new PacketLimitException(e.getMessage(), transID);
+    }
 
-    transID = ByteBuffer.wrap(transactionIDData).getLong();
-    typeString = new String(typeData, StandardCharsets.US_ASCII);
+    ret.setTransactionID(transID);
+
+    return ret;
+  }
+
+  private static Packet parseData(InputStream is, long transID, PacketType type, WireFormat format, PacketCompressor compressor, PacketLimits limits) throws IOException {
+    Packet ret;
 
-    type = PacketType.parse(typeString);
-    if (type == null)
-      throw new RuntimeException(String.format("Un-parsable type string '%s'", typeString));
+    int instanceDataLength;
 
     if (!type.containsData()) {
       switch(type) {
@@ -60,6 +122,18 @@ public abstract class Packet {
           ret = new TerminatePacket();
           break;
 
+        case CANCEL:
+          ret = new CancelPacket();
+          break;
+
+        case PING:
+          ret = new PingPacket();
+          break;
+
+        case PONG:
+          ret = new PongPacket();
+          break;
+
         default:
           throw new RuntimeException();
 
@@ -67,54 +141,127 @@ public abstract class Packet {
     }
     else {
 
-      is.read(instanceDataLengthData);
-      instanceDataLength = ByteBuffer.wrap(instanceDataLengthData).getInt();
+      int frameType = compressor == null ? FRAME_RAW : is.read();
 
-      instanceData = new byte[instanceDataLength];
-      is.read(instanceData);
+      instanceDataLength = format.readLength(is);
+      limits.checkFrameSize(instanceDataLength);
 
-      switch (type) {
+      PooledBuffer instanceData = BufferPool.getDefault().acquire(instanceDataLength);
 
-        case FUNCTION_CALL:
-          ret = FunctionCallPacket.parse(instanceData);
-          break;
+      try {
 
-        case FUNCTION_LIST:
-          ret = FunctionListPacket.parse(instanceData);
-          break;
+        WireFormat.readFully(is, instanceData.array(), 0, instanceDataLength);
 
-        case FUNCTION_LIST_REQUEST:
-          ret = FunctionListRequestPacket.parse(instanceData);
-          break;
+        if (frameType == FRAME_DEFLATE) {
+          PooledBuffer compressedFrame = instanceData;
+          instanceData = null;
 
-        case FUNCTION_RETURN:
-          ret = FunctionReturnPacket.parse(instanceData);
-          break;
+          try {
+            ByteArrayInputStream bais = compressedFrame.inputStream();
+            int originalLength = format.readLength(bais);
+            limits.checkFrameSize(originalLength);
 
-        case HANDSHAKE:
-          ret = HandshakePacket.parse(instanceData);
-          break;
+            int compressedLength = bais.available();
+            instanceData = compressor.decompress(compressedFrame.array(), instanceDataLength - compressedLength, compressedLength, originalLength);
+          } finally {
+            compressedFrame.release();
+          }
+        }
+        else if (frameType != FRAME_RAW)
+          throw new IOException("Un-parsable frame type: " + frameType);
 
-        case NAMESPACE_LIST:
-          ret = NamespaceListPacket.parse(instanceData);
-          break;
+        ret = parseInstanceData(instanceData, transID, type, format, limits);
 
-        case ERROR:
-          ret = ErrorPacket.parse(instanceData);
-          break;
+      } finally {
+        if (instanceData != null)
+          instanceData.release();
+      }
 
+    }
 
-        case NAMESPACE_LIST_REQUEST:
-        case TERMINATE:
-        default:
-          throw new RuntimeException();
+    return ret;
+  }
 
-      }
+  /**
+   * Parses the data of a packet from the buffer it was read into.
+   * The buffer is released once this returns, so nothing parsed
+   * may keep a reference to its array
+   */
+  private static Packet parseInstanceData(PooledBuffer instanceData, long transID, PacketType type, WireFormat format, PacketLimits limits) throws IOException {
+    Packet ret;
 
-    }
+    switch (type) {
 
+      case FUNCTION_CALL:
+        ret = FunctionCallPacket.parse(instanceData.inputStream(), format, false, limits);
+        break;
 
-    ret.setTransactionID(transID);
+      case TIMED_FUNCTION_CALL:
+        ret = FunctionCallPacket.parse(instanceData.inputStream(), format, true, limits);
+        break;
+
+      case FUNCTION_LIST:
+        ret = FunctionListPacket.parse(instanceData.toByteArray(), format);
+        break;
+
+      case FUNCTION_LIST_REQUEST:
+        ret = FunctionListRequestPacket.parse(instanceData.toByteArray());
+        break;
+
+      case FUNCTION_RETURN:
+        ret = FunctionReturnPacket.parse(instanceData.inputStream(), format, limits);
+        break;
+
+      case HANDSHAKE:
+        ret = HandshakePacket.parse(instanceData.toByteArray(), transID);
+        break;
+
+      case NAMESPACE_LIST:
+        ret = NamespaceListPacket.parse(instanceData.toByteArray());
+        break;
+
+      case ERROR:
+        ret = ErrorPacket.parse(instanceData.toByteArray());
+        break;
+
+      case FUNCTION_TABLE_REQUEST:
+        ret = FunctionTableRequestPacket.parse(instanceData.toByteArray());
+        break;
+
+      case FUNCTION_TABLE:
+        ret = FunctionTablePacket.parse(instanceData.toByteArray(), format);
+        break;
+
+      case INDEXED_FUNCTION_CALL:
+        ret = IndexedFunctionCallPacket.parse(instanceData.inputStream(), format, false, limits);
+        break;
+
+      case TIMED_INDEXED_FUNCTION_CALL:
+        ret = IndexedFunctionCallPacket.parse(instanceData.inputStream(), format, true, limits);
+        break;
+
+      case SUBSCRIBE:
+        ret = SubscribePacket.parse(instanceData.inputStream(), format, limits);
+        break;
+
+      case STREAM_VALUE:
+        ret = StreamValuePacket.parse(instanceData.inputStream(), format, limits);
+        break;
+
+      case CREDIT:
+        ret = CreditPacket.parse(instanceData.toByteArray(), format);
+        break;
+
+
+      case NAMESPACE_LIST_REQUEST:
+      case TERMINATE:
+      case CANCEL:
+      case PING:
+      case PONG:
+      default:
+        throw new RuntimeException();
+
+    }
 
     return ret;
   }
@@ -144,29 +291,143 @@ public abstract class Packet {
 
   public abstract byte[] getData();
 
+  /**
+   * Gets the data of this packet encoded in the provided wire
+   * format. Packets whose data does not depend on the wire
+   * format need not override this
+   *
+   * @param format the wire format
+   * @return the data of this packet
+   */
+  public byte[] getData(WireFormat format) {
+    return getData();
+  }
+
   public void writeData(OutputStream os) throws IOException {
+    writeData(os, WireFormat.LEGACY);
+  }
+
+  /**
+   * Writes this packet to the stream in the provided wire format.
+   * The frame is assembled in full before being written so that
+   * it is handed to the stream in a single write
+   *
+   * @param os output stream
+   * @param format the wire format
+   * @throws IOException
+   */
+  public void writeData(OutputStream os, WireFormat format) throws IOException {
+    writeData(os, format, null);
+  }
+
+  /**
+   * Writes this packet to the stream in the provided wire format,
+   * compressing its data if a compressor is provided and it
+   * deems the data worth compressing
+   *
+   * @param os output stream
+   * @param format the wire format
+   * @param compressor the compressor of the connection, or null if compression is not in use
+   * @throws IOException
+   */
+  public void writeData(OutputStream os, WireFormat format, PacketCompressor compressor) throws IOException {
+    PooledBuffer frame = encode(format, compressor);
+
+    try {
+      os.write(frame.array(), frame.getOffset(), frame.getLength());
+      os.flush();
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * Writes the data of this packet encoded in the provided wire format
+   * to the stream. Packets sent often override this to write their
+   * data directly rather than through getData
+   *
+   * @param os output stream
+   * @param format the wire format
+   * @throws IOException
+   */
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    byte[] data = getData(format);
+    os.write(data, 0, data.length);
+  }
+
+  /**
+   * Encodes this packet as a frame in the provided wire format, as
+   * written by writeData, so that it may be written later or by
+   * another thread. The frame is encoded into a buffer from the
+   * default pool, which the caller must release
+   *
+   * @param format the wire format
+   * @param compressor the compressor of the connection, or null if compression is not in use
+   * @return the frame
+   * @throws IOException
+   */
+  public PooledBuffer encode(WireFormat format, PacketCompressor compressor) throws IOException {
 
     if (transactionID == -1)
       throw new RuntimeException();
 
+    if (!type.containsData()) {
+      BufferOutputStream frame = new BufferOutputStream(BufferPool.getDefault(), FRAME_HEADER_SIZE);
+      try {
+        format.writeTransactionID(frame, transactionID);
+        format.writeType(frame, type);
+        return frame.toBuffer();
+      } finally {
+        frame.close();
+      }
+    }
+
+    BufferOutputStream instanceData = new BufferOutputStream(BufferPool.getDefault(), INSTANCE_DATA_SIZE);
+    PooledBuffer compressedData = null;
 
-    byte[]
-        instanceData,
-        transactionIDArray = ByteBuffer.allocate(8).putLong(transactionID).array(),
-        typeBytes = type.getBytes()
-                    ;
+    try {
 
-    os.write(transactionIDArray);
-    os.write(typeBytes);
+      writeInstanceData(instanceData, format);
+      int length = instanceData.size();
 
-    if (type.containsData()) {
+      if (compressor != null)
+        compressedData = compressor.compress(instanceData.array(), 0, length);
 
-      instanceData = getData();
+      int payloadLength = compressedData == null
+              ? length
+              : format.sizeOfLength(length) + compressedData.getLength();
 
-      os.write(ByteBuffer.allocate(4).putInt(instanceData.length).array());
-      os.write(instanceData);
-    }
+      BufferOutputStream frame = new BufferOutputStream(BufferPool.getDefault(), FRAME_HEADER_SIZE + payloadLength);
+
+      try {
+
+        format.writeTransactionID(frame, transactionID);
+        format.writeType(frame, type);
 
+        if (compressedData != null) {
+          frame.write(FRAME_DEFLATE);
+          format.writeLength(frame, payloadLength);
+          format.writeLength(frame, length);
+          frame.write(compressedData.array(), compressedData.getOffset(), compressedData.getLength());
+        }
+        else {
+          if (compressor != null)
+            frame.write(FRAME_RAW);
+          format.writeLength(frame, length);
+          instanceData.writeTo(frame);
+        }
+
+        return frame.toBuffer();
+
+      } finally {
+        frame.close();
+      }
+
+    } finally {
+      instanceData.close();
+      if (compressedData != null)
+        compressedData.release();
+    }
   }
 
 }
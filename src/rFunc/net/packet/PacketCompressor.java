@@ -0,0 +1,364 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class PacketCompressor {
+
+  public static final int DEFAULT_THRESHOLD = 512;
+
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+
+  private static final int MAXIMUM_POOLED = 4, SCRATCH_SIZE = 4096;
+
+  private final LinkedList<Deflater> deflaters = new LinkedList<>();
+  private final LinkedList<Inflater> inflaters = new LinkedList<>();
+  private final int threshold;
+  private boolean ended = false;
+
+  private long
+          framesCompressed = 0,
+          framesSkipped = 0,
+          framesDecompressed = 0,
+          bytesBeforeCompression = 0,
+          bytesAfterCompression = 0,
+          compressionTime = 0,
+          decompressionTime = 0
+                  ;
+
+  /**
+   * Creates a compressor which compresses only those
+   * frames whose data is at least as long as the threshold.
+   * Deflaters and inflaters are pooled and reused, so that
+   * frames may be compressed and decompressed by several
+   * threads at once, each with an instance of its own
+   *
+   * @param threshold the minimum length of data to compress
+   */
+  public PacketCompressor(int threshold) {
+    if (threshold < 0)
+      throw new IllegalArgumentException("Threshold cannot be negative");
+
+    this.threshold = threshold;
+  }
+
+  /**
+   * Compresses the provided data if it is at least as long as the
+   * threshold and compression makes it smaller
+   *
+   * @param data the data to compress
+   * @return the compressed data, or null if the data should be sent as is
+   * @throws IOException if the compressor was ended
+   */
+  public byte[] compress(byte[] data) throws IOException {
+    PooledBuffer compressed = compress(data, 0, data.length);
+    if (compressed == null)
+      return null;
+
+    try {
+      return compressed.toByteArray();
+    } finally {
+      compressed.release();
+    }
+  }
+
+  /**
+   * Compresses the provided region of an array if it is at least as
+   * long as the threshold and compression makes it smaller. The data
+   * is compressed into a buffer from the default pool
+   *
+   * @param data the array
+   * @param offset the offset of the data to compress
+   * @param length the length of the data to compress
+   * @return the compressed data, to be released by the caller, or null if the data should be sent as is
+   * @throws IOException if the compressor was ended
+   */
+  public PooledBuffer compress(byte[] data, int offset, int length) throws IOException {
+    if (length < threshold || length == 0) {
+      synchronized (this) {
+        framesSkipped++;
+      }
+      return null;
+    }
+
+    long start = cpuTime();
+
+    Deflater deflater = acquireDeflater();
+    PooledBuffer scratch = BufferPool.getDefault().acquire(SCRATCH_SIZE);
+    BufferOutputStream compressed = new BufferOutputStream(BufferPool.getDefault(), length / 2);
+
+    try {
+
+      deflater.reset();
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+
+      while(!deflater.finished() && compressed.size() < length) {
+        int top = deflater.deflate(scratch.array(), 0, scratch.getLength());
+        compressed.write(scratch.array(), 0, top);
+      }
+
+      boolean smaller = deflater.finished() && compressed.size() < length;
+
+      synchronized (this) {
+        compressionTime += cpuTime() - start;
+
+        if (!smaller) {
+          framesSkipped++;
+          return null;
+        }
+
+        framesCompressed++;
+        bytesBeforeCompression += length;
+        bytesAfterCompression += compressed.size();
+      }
+
+      return compressed.toBuffer();
+
+    } finally {
+      compressed.close();
+      scratch.release();
+      releaseDeflater(deflater);
+    }
+  }
+
+  /**
+   * Decompresses data previously compressed by a compressor
+   *
+   * @param data the compressed data
+   * @param originalLength the length of the data before compression
+   * @return the decompressed data
+   * @throws IOException if the data cannot be decompressed, or the compressor was ended
+   */
+  public byte[] decompress(byte[] data, int originalLength) throws IOException {
+    PooledBuffer decompressed = decompress(data, 0, data.length, originalLength);
+
+    try {
+      return decompressed.toByteArray();
+    } finally {
+      decompressed.release();
+    }
+  }
+
+  /**
+   * Decompresses data previously compressed by a compressor from the
+   * provided region of an array, into a buffer from the default pool
+   *
+   * @param data the array
+   * @param offset the offset of the compressed data
+   * @param length the length of the compressed data
+   * @param originalLength the length of the data before compression
+   * @return the decompressed data, to be released by the caller
+   * @throws IOException if the data cannot be decompressed, or the compressor was ended
+   */
+  public PooledBuffer decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+    long start = cpuTime();
+
+    Inflater inflater = acquireInflater();
+    PooledBuffer ret = BufferPool.getDefault().acquire(originalLength);
+    byte[] array = ret.array();
+
+    try {
+
+      inflater.reset();
+      inflater.setInput(data, offset, length);
+
+      int top = 0;
+      while(top < originalLength && !inflater.finished()) {
+        int inflated = inflater.inflate(array, top, originalLength - top);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        top += inflated;
+      }
+
+      if (top != originalLength || !inflater.finished())
+        throw new IOException("Compressed frame does not match its declared length");
+
+    } catch (DataFormatException e) {
+      ret.release();
+      throw new IOException("Malformed compressed frame", e);
+    } catch (IOException | RuntimeException e) {
+      ret.release();
+      throw e;
+    } finally {
+      releaseInflater(inflater);
+
+      synchronized (this) {
+        decompressionTime += cpuTime() - start;
+      }
+    }
+
+    synchronized (this) {
+      framesDecompressed++;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Releases the native resources held by this compressor. Frames
+   * compressed or decompressed afterwards fail with an IOException
+   */
+  public synchronized void end() {
+    ended = true;
+
+    for(Deflater deflater : deflaters) {
+      deflater.end();
+    }
+    for(Inflater inflater : inflaters) {
+      inflater.end();
+    }
+
+    deflaters.clear();
+    inflaters.clear();
+  }
+
+  private synchronized Deflater acquireDeflater() throws IOException {
+    if (ended)
+      throw new IOException("Compressor closed");
+
+    return deflaters.isEmpty() ? new Deflater(Deflater.BEST_SPEED) : deflaters.removeFirst();
+  }
+
+  /**
+   * Returns a deflater to the pool, or ends it if the pool is full
+   * or the compressor was ended while the deflater was in use
+   */
+  private synchronized void releaseDeflater(Deflater deflater) {
+    if (ended || deflaters.size() >= MAXIMUM_POOLED)
+      deflater.end();
+    else
+      deflaters.addFirst(deflater);
+  }
+
+  private synchronized Inflater acquireInflater() throws IOException {
+    if (ended)
+      throw new IOException("Compressor closed");
+
+    return inflaters.isEmpty() ? new Inflater() : inflaters.removeFirst();
+  }
+
+  private synchronized void releaseInflater(Inflater inflater) {
+    if (ended || inflaters.size() >= MAXIMUM_POOLED)
+      inflater.end();
+    else
+      inflaters.addFirst(inflater);
+  }
+
+
+  private static long cpuTime() {
+    return THREAD_BEAN.isCurrentThreadCpuTimeSupported()
+            ? THREAD_BEAN.getCurrentThreadCpuTime()
+            : System.nanoTime();
+  }
+
+
+  /**
+   * Gets the minimum length of data this compressor compresses
+   *
+   * @return the threshold
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Gets the number of frames sent compressed
+   *
+   * @return the number of frames compressed
+   */
+  public synchronized long getFramesCompressed() {
+    return framesCompressed;
+  }
+
+  /**
+   * Gets the number of frames sent uncompressed, either for being
+   * under the threshold or for not benefiting from compression
+   *
+   * @return the number of frames skipped
+   */
+  public synchronized long getFramesSkipped() {
+    return framesSkipped;
+  }
+
+  /**
+   * Gets the number of compressed frames received
+   *
+   * @return the number of frames decompressed
+   */
+  public synchronized long getFramesDecompressed() {
+    return framesDecompressed;
+  }
+
+  /**
+   * Gets the ratio of the length of compressed frames before
+   * compression to their length after compression
+   *
+   * @return the compression ratio, or 1 if no frames have been compressed
+   */
+  public synchronized double getCompressionRatio() {
+    if (bytesAfterCompression == 0)
+      return 1;
+
+    return (double) bytesBeforeCompression / bytesAfterCompression;
+  }
+
+  /**
+   * Gets the CPU time spent compressing, in nanoseconds
+   *
+   * @return the time spent compressing
+   */
+  public synchronized long getCompressionTime() {
+    return compressionTime;
+  }
+
+  /**
+   * Gets the CPU time spent decompressing, in nanoseconds
+   *
+   * @return the time spent decompressing
+   */
+  public synchronized long getDecompressionTime() {
+    return decompressionTime;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+            "%d compressed (ratio %.2f, %.3f ms), %d skipped, %d decompressed (%.3f ms)",
+            framesCompressed,
+            getCompressionRatio(),
+            compressionTime / 1e6,
+            framesSkipped,
+            framesDecompressed,
+            decompressionTime / 1e6
+      );
+  }
+
+}
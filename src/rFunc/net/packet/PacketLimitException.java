@@ -0,0 +1,50 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a packet breaks the limits of the connection it is
+ * read from. The rest of the frame is left unread, so the connection
+ * cannot be read from any further
+ *
+ * Author:    LeqxLeqx
+ */
+public class PacketLimitException extends IOException {
+
+  public final long transactionID;
+
+  public PacketLimitException(String message) {
+    this(message, -1);
+  }
+
+  /**
+   * Creates an exception for a packet of a known transaction id
+   *
+   * @param message the message
+   * @param transactionID the transaction id of the packet, or -1 if unknown
+   */
+  public PacketLimitException(String message, long transactionID) {
+    super(message);
+
+    this.transactionID = transactionID;
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+/**
+ * Limits on the size of what a peer may send, checked as packets are
+ * parsed and before anything is allocated for them, so that a corrupt
+ * or hostile frame cannot exhaust memory by declaring a huge length.
+ * Packets breaking a limit fail to parse with a PacketLimitException.
+ *
+ * Author:    LeqxLeqx
+ */
+public class PacketLimits {
+
+  private volatile int
+          maximumFrameSize = 16 << 20,
+          maximumValueSize = 16 << 20,
+          maximumStringLength = 16 << 20,
+          maximumArgumentCount = 256
+                  ;
+
+  /**
+   * Creates packet limits with the default of 16 MiB for
+   * frames, values and strings, and 256 arguments per call
+   */
+  public PacketLimits() {}
+
+  /**
+   * Gets the greatest length of the data of a frame, before and
+   * after decompression
+   *
+   * @return the maximum frame size in bytes
+   */
+  public int getMaximumFrameSize() {
+    return maximumFrameSize;
+  }
+
+  /**
+   * Sets the greatest length of the data of a frame. Compressed
+   * frames are also limited in the length they decompress to
+   *
+   * @param maximumFrameSize the maximum frame size in bytes
+   */
+  public void setMaximumFrameSize(int maximumFrameSize) {
+    if (maximumFrameSize <= 0)
+      throw new IllegalArgumentException("Cannot set maximum frame size to: " + maximumFrameSize);
+    this.maximumFrameSize = maximumFrameSize;
+  }
+
+  /**
+   * Gets the greatest length of the data of a single value
+   *
+   * @return the maximum value size in bytes
+   */
+  public int getMaximumValueSize() {
+    return maximumValueSize;
+  }
+
+  /**
+   * Sets the greatest length of the data of a single value
+   *
+   * @param maximumValueSize the maximum value size in bytes
+   */
+  public void setMaximumValueSize(int maximumValueSize) {
+    if (maximumValueSize <= 0)
+      throw new IllegalArgumentException("Cannot set maximum value size to: " + maximumValueSize);
+    this.maximumValueSize = maximumValueSize;
+  }
+
+  /**
+   * Gets the greatest length of a string value, in bytes of UTF-8
+   *
+   * @return the maximum string length
+   */
+  public int getMaximumStringLength() {
+    return maximumStringLength;
+  }
+
+  /**
+   * Sets the greatest length of a string value, in bytes of UTF-8
+   *
+   * @param maximumStringLength the maximum string length
+   */
+  public void setMaximumStringLength(int maximumStringLength) {
+    if (maximumStringLength < 0)
+      throw new IllegalArgumentException("Cannot set maximum string length to: " + maximumStringLength);
+    this.maximumStringLength = maximumStringLength;
+  }
+
+  /**
+   * Gets the greatest number of arguments of a call
+   *
+   * @return the maximum argument count
+   */
+  public int getMaximumArgumentCount() {
+    return maximumArgumentCount;
+  }
+
+  /**
+   * Sets the greatest number of arguments of a call
+   *
+   * @param maximumArgumentCount the maximum argument count
+   */
+  public void setMaximumArgumentCount(int maximumArgumentCount) {
+    if (maximumArgumentCount < 0)
+      throw new IllegalArgumentException("Cannot set maximum argument count to: " + maximumArgumentCount);
+    this.maximumArgumentCount = maximumArgumentCount;
+  }
+
+  void checkFrameSize(int size) throws PacketLimitException {
+    if (size > maximumFrameSize)
+      throw new PacketLimitException(String.format("Frame of %d bytes exceeds the limit of %d", size, maximumFrameSize));
+  }
+
+  void checkArgumentCount(int count) throws PacketLimitException {
+    if (count > maximumArgumentCount)
+      throw new PacketLimitException(String.format("Call of more than %d arguments exceeds the limit", maximumArgumentCount));
+  }
+
+  /**
+   * Checks the length of the data of a value about to be parsed
+   *
+   * @param string whether or not the value is a string
+   * @param size the length of the data of the value
+   * @throws PacketLimitException if the value is too large
+   */
+  public void checkValueSize(boolean string, int size) throws PacketLimitException {
+    if (size > maximumValueSize)
+      throw new PacketLimitException(String.format("Value of %d bytes exceeds the limit of %d", size, maximumValueSize));
+    if (string && size > maximumStringLength)
+      throw new PacketLimitException(String.format("String of %d bytes exceeds the limit of %d", size, maximumStringLength));
+  }
+
+}
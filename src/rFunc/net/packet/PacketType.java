@@ -18,33 +18,55 @@
 
 package rFunc.net.packet;
 
+import java.util.HashMap;
+
 /**
  * Author:    LeqxLeqx
  */
 public enum PacketType {
 
-  HANDSHAKE ("hds"),
-  TERMINATE ("trm"),
+  HANDSHAKE ("hds", 0x01),
+  TERMINATE ("trm", 0x02),
+
+  FUNCTION_LIST_REQUEST ("flr", 0x03),
+  NAMESPACE_LIST_REQUEST   ("nlr", 0x04),
+
+  FUNCTION_LIST ("fls", 0x05),
+  NAMESPACE_LIST ("nls", 0x06),
+
+  FUNCTION_CALL ("fcl", 0x07),
+  FUNCTION_RETURN ("ret", 0x08),
+
+  ERROR ("err", 0x09),
 
-  FUNCTION_LIST_REQUEST ("flr"),
-  NAMESPACE_LIST_REQUEST   ("nlr"),
+  FUNCTION_TABLE_REQUEST ("ftr", 0x0A),
+  FUNCTION_TABLE ("ftb", 0x0B),
+  INDEXED_FUNCTION_CALL ("icl", 0x0C),
 
-  FUNCTION_LIST ("fls"),
-  NAMESPACE_LIST ("nls"),
+  TIMED_FUNCTION_CALL ("tfc", 0x0D),
+  TIMED_INDEXED_FUNCTION_CALL ("tic", 0x0E),
 
-  FUNCTION_CALL ("fcl"),
-  FUNCTION_RETURN ("ret"),
+  CANCEL ("cnc", 0x0F),
 
-  ERROR ("err"),
+  SUBSCRIBE ("sub", 0x10),
+  STREAM_VALUE ("svl", 0x11),
+  CREDIT ("crd", 0x12),
+
+  PING ("png", 0x13),
+  PONG ("pon", 0x14),
 
   ;
 
+  private static final PacketType[] BY_CODE = new PacketType[0x100];
+  private static final HashMap<Integer, PacketType> BY_IDENTIFIER = new HashMap<>();
+
   static {
-    for(int k = 0; k < values().length - 1; k++) {
-      for(int i = k + 1; i < values().length; i++) {
-        if (values()[k].identifier.equals(values()[i]))
-          throw new RuntimeException();
-      }
+    for(PacketType pt : values()) {
+      if (BY_CODE[pt.code] != null || BY_IDENTIFIER.containsKey(pt.packedIdentifier()))
+        throw new RuntimeException();
+
+      BY_CODE[pt.code] = pt;
+      BY_IDENTIFIER.put(pt.packedIdentifier(), pt);
     }
   }
 
@@ -55,18 +77,43 @@ public enum PacketType {
     if (id.length() != 3)
       throw new IllegalArgumentException("Id length must be 3");
 
-    for(PacketType pt : values()) {
-      if (pt.identifier.equals(id))
-        return pt;
-    }
+    return getFromIdentifier((byte) id.charAt(0), (byte) id.charAt(1), (byte) id.charAt(2));
+  }
+
+  /**
+   * Gets the packet type of the provided three byte identifier
+   *
+   * @param a first identifier byte
+   * @param b second identifier byte
+   * @param c third identifier byte
+   * @return the packet type, or null if none exists
+   */
+  public static PacketType getFromIdentifier(byte a, byte b, byte c) {
+    return BY_IDENTIFIER.get(pack(a, b, c));
+  }
+
+  /**
+   * Gets the packet type of the provided single byte code
+   *
+   * @param code the code
+   * @return the packet type, or null if none exists
+   */
+  public static PacketType getFromCode(int code) {
+    if (code < 0 || code >= BY_CODE.length)
+      return null;
+
+    return BY_CODE[code];
+  }
 
-    return null;
+  private static int pack(byte a, byte b, byte c) {
+    return ((a & 0xFF) << 16) | ((b & 0xFF) << 8) | (c & 0xFF);
   }
 
 
   public final String identifier;
+  public final int code;
 
-  PacketType(String identifier) {
+  PacketType(String identifier, int code) {
     if (identifier.length() != 3)
       throw new RuntimeException();
     if (
@@ -76,18 +123,29 @@ public enum PacketType {
             )
       throw new RuntimeException();
 
+    if (code < 0 || code > 0xFF)
+      throw new RuntimeException();
+
     this.identifier = identifier;
+    this.code = code;
   }
 
 
   public boolean containsData() {
     return
             this != NAMESPACE_LIST_REQUEST &&
-            this != TERMINATE
+            this != TERMINATE &&
+            this != CANCEL &&
+            this != PING &&
+            this != PONG
             ;
   }
 
 
+  private int packedIdentifier() {
+    return pack((byte) identifier.charAt(0), (byte) identifier.charAt(1), (byte) identifier.charAt(2));
+  }
+
   public byte[] getBytes() {
     return new byte[] {
             (byte) identifier.charAt(0),
@@ -0,0 +1,40 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class PingPacket extends Packet {
+
+  /**
+   * Creates a ping, which the peer answers with a pong of the same
+   * transaction id. Sent to learn whether a quiet peer is still
+   * there, and only to peers which agreed upon the keepalive
+   * capability
+   */
+  public PingPacket() {
+    super(PacketType.PING);
+  }
+
+  @Override
+  public byte[] getData() {
+    throw new RuntimeException();
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted region of an array taken from a buffer pool.
+ * Slices of a buffer share its array and its count of references,
+ * so that the array returns to the pool only once the buffer and
+ * every slice of it have been released. A buffer must not be used
+ * after its last reference is released, as its array may already
+ * hold another buffer.
+ *
+ * Author:    LeqxLeqx
+ */
+public class PooledBuffer implements AutoCloseable {
+
+  static final class Shared {
+    final BufferPool pool;
+    final byte[] array;
+    final AtomicInteger references = new AtomicInteger(1);
+    BufferPool.LeakTracker tracker;
+
+    Shared(BufferPool pool, byte[] array) {
+      this.pool = pool;
+      this.array = array;
+    }
+  }
+
+  /**
+   * Wraps an array in a buffer belonging to no pool, which
+   * is left to the garbage collector once released
+   *
+   * @param array the array
+   * @return the buffer
+   */
+  public static PooledBuffer wrap(byte[] array) {
+    if (array == null)
+      throw new IllegalArgumentException("Array cannot be null");
+
+    return new PooledBuffer(new Shared(null, array), 0, array.length);
+  }
+
+
+  private final Shared shared;
+  private final int offset, length;
+
+  PooledBuffer(Shared shared, int offset, int length) {
+    this.shared = shared;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Gets the array backing this buffer. Only the region of the
+   * array starting at the offset and of the length of this buffer
+   * belongs to it
+   *
+   * @return the array
+   */
+  public byte[] array() {
+    return shared.array;
+  }
+
+  /**
+   * Gets the offset in the array at which this buffer starts
+   *
+   * @return the offset
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Gets the length of this buffer
+   *
+   * @return the length in bytes
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the number of references to the array of this
+   * buffer held by it and its slices
+   *
+   * @return the reference count
+   */
+  public int getReferenceCount() {
+    return shared.references.get();
+  }
+
+  /**
+   * Adds a reference to this buffer, which must be
+   * released separately
+   *
+   * @return this buffer
+   * @throws IllegalStateException if the buffer was already released
+   */
+  public PooledBuffer retain() {
+    int references;
+    do {
+      references = shared.references.get();
+      if (references <= 0)
+        throw new IllegalStateException("Buffer already released");
+    } while(!shared.references.compareAndSet(references, references + 1));
+
+    return this;
+  }
+
+  /**
+   * Creates a slice of this buffer sharing its array, without copying.
+   * The slice holds a reference of its own and must be released
+   * separately
+   *
+   * @param offset the offset of the slice within this buffer
+   * @param length the length of the slice
+   * @return the slice
+   * @throws IllegalStateException if the buffer was already released
+   */
+  public PooledBuffer slice(int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > this.length)
+      throw new IllegalArgumentException(String.format("Slice of %d bytes at %d is outside buffer of %d bytes", length, offset, this.length));
+
+    retain();
+    return new PooledBuffer(shared, this.offset + offset, length);
+  }
+
+  /**
+   * Gets a buffer of the whole array of this one, which takes
+   * over its reference in place of this buffer
+   *
+   * @return the buffer of the whole array
+   */
+  PooledBuffer whole() {
+    return new PooledBuffer(shared, 0, shared.array.length);
+  }
+
+  /**
+   * Releases a reference to this buffer, returning its array to
+   * its pool if this was the last
+   *
+   * @throws IllegalStateException if the buffer was already released
+   */
+  public void release() {
+    int references = shared.references.decrementAndGet();
+    if (references < 0) {
+      shared.references.incrementAndGet();
+      throw new IllegalStateException("Buffer already released");
+    }
+
+    if (references == 0 && shared.pool != null)
+      shared.pool.recycle(shared);
+  }
+
+  /**
+   * Releases a reference to this buffer, as release does
+   */
+  @Override
+  public void close() {
+    release();
+  }
+
+  /**
+   * Gets a stream reading the content of this buffer
+   *
+   * @return the input stream
+   */
+  public ByteArrayInputStream inputStream() {
+    return new ByteArrayInputStream(shared.array, offset, length);
+  }
+
+  /**
+   * Copies the content of this buffer into a new array
+   *
+   * @return the copy
+   */
+  public byte[] toByteArray() {
+    byte[] ret = new byte[length];
+    System.arraycopy(shared.array, offset, ret, 0, length);
+    return ret;
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import rFunc.method.ArgumentSpecification;
+import rFunc.method.MethodSpecification;
+import rFunc.value.ValueType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class PreparedCall {
+
+  public final String namespace;
+  public final MethodSpecification methodSpecification;
+
+  private final byte[][] headers = new byte[WireFormat.values().length][];
+
+  /**
+   * Creates a prepared call to the method of the provided namespace,
+   * name and argument types. The namespace and method specification
+   * are encoded once for every wire format, so that calls made through
+   * this need only encode their arguments
+   *
+   * @param namespace the namespace name
+   * @param name the method name
+   * @param valueTypes the ordered value types of the method's arguments
+   */
+  public PreparedCall(String namespace, String name, ValueType[] valueTypes) {
+    if (namespace == null)
+      throw new IllegalArgumentException("Namespace cannot be null");
+    if (valueTypes == null)
+      throw new IllegalArgumentException("Value types array cannot be null");
+
+    String[] names = new String[valueTypes.length];
+    for(int k = 0; k < names.length; k++) {
+      names[k] = String.format("arg%d", k);
+    }
+
+    this.namespace = namespace;
+    this.methodSpecification = new MethodSpecification(new ArgumentSpecification(valueTypes, names), name, "");
+
+    try {
+
+      for(WireFormat format : WireFormat.values()) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FunctionCallPacket.writeHeader(baos, namespace, methodSpecification, format);
+        headers[format.ordinal()] = baos.toByteArray();
+      }
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  byte[] getHeader(WireFormat format) {
+    return headers[format.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    return namespace.isEmpty()
+            ? methodSpecification.toString()
+            : String.format("%s.%s", namespace, methodSpecification);
+  }
+
+}
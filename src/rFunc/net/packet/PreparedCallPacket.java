@@ -0,0 +1,113 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class PreparedCallPacket extends Packet {
+
+  public final PreparedCall call;
+  public final int timeout;
+  private final ArgumentEncoder encoder;
+
+  /**
+   * Creates a function call packet from a prepared call, without a timeout
+   *
+   * @param call the prepared call
+   * @param encoder the encoder writing the arguments of the call
+   */
+  public PreparedCallPacket(PreparedCall call, ArgumentEncoder encoder) {
+    this(call, encoder, 0);
+  }
+
+  /**
+   * Creates a function call packet from a prepared call. The arguments
+   * are written by the encoder directly into the frame once the wire
+   * format of the connection is known. The receiving peer parses this
+   * as an ordinary function call packet
+   *
+   * @param call the prepared call
+   * @param encoder the encoder writing the arguments of the call
+   * @param timeout the time in milliseconds the caller will wait for a reply, or 0 for no limit
+   */
+  public PreparedCallPacket(PreparedCall call, ArgumentEncoder encoder, int timeout) {
+    super(timeout == 0 ? PacketType.FUNCTION_CALL : PacketType.TIMED_FUNCTION_CALL);
+
+    if (call == null)
+      throw new IllegalArgumentException("Call cannot be null");
+    if (encoder == null)
+      throw new IllegalArgumentException("Encoder cannot be null");
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout cannot be negative");
+
+    this.call = call;
+    this.encoder = encoder;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(call.getHeader(format).length + 32);
+
+    try {
+      writeInstanceData(baos, format);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    return baos.toByteArray();
+  }
+
+  @Override
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    byte[] header = call.getHeader(format);
+
+    if (timeout != 0)
+      format.writeLength(os, timeout);
+
+    os.write(header, 0, header.length);
+
+    encoder.encode(new ArgumentWriter(os, format));
+  }
+
+  /**
+   * Gets the function call packet the receiving peer parses this as,
+   * for a call made without a connection. As the encoder writes the
+   * arguments of the call in encoded form, these are decoded
+   *
+   * @return the function call packet
+   */
+  public FunctionCallPacket toFunctionCall() {
+    try {
+      return FunctionCallPacket.parse(new ByteArrayInputStream(getData(WireFormat.COMPACT)), WireFormat.COMPACT, timeout != 0, new PacketLimits());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import rFunc.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class StreamValuePacket extends Packet {
+
+  static StreamValuePacket parse(ByteArrayInputStream bais, WireFormat format, PacketLimits limits) throws IOException {
+    return new StreamValuePacket(Value.parseFromStream(bais, format, limits));
+  }
+
+
+  public final Value value;
+
+  /**
+   * Creates one of the values streamed to a subscriber. The transaction
+   * id is that of the subscription. The stream ends with the reply
+   * to the call subscribed to, as a function return or error packet
+   *
+   * @param value the value
+   */
+  public StreamValuePacket(Value value) {
+    super(PacketType.STREAM_VALUE);
+
+    if (value == null)
+      throw new IllegalArgumentException("Value cannot be null");
+
+    this.value = value;
+  }
+
+  @Override
+  public byte[] getData() {
+    return value.getData();
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    return value.getData(format);
+  }
+
+  @Override
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    value.writeData(os, format);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class SubscribePacket extends Packet {
+
+  static SubscribePacket parse(ByteArrayInputStream bais, WireFormat format, PacketLimits limits) throws IOException {
+    int credits = format.readLength(bais);
+    PacketType callType = format.readType(bais);
+
+    Packet call;
+    switch (callType) {
+
+      case FUNCTION_CALL:
+        call = FunctionCallPacket.parse(bais, format, false, limits);
+        break;
+
+      case INDEXED_FUNCTION_CALL:
+        call = IndexedFunctionCallPacket.parse(bais, format, false, limits);
+        break;
+
+      default:
+        throw new IOException("Cannot subscribe to call of type: " + callType);
+
+    }
+
+    return new SubscribePacket(call, credits);
+  }
+
+
+  public final Packet call;
+  public final int credits;
+
+  /**
+   * Creates a subscription to the results of a call. The method called
+   * may stream any number of values back before it returns, each
+   * tagged with the transaction id of this packet, but never more than
+   * the subscriber has granted credits for. Only peers which agreed
+   * upon the streaming capability can parse this
+   *
+   * @param call the call, either by name or by id and without a timeout
+   * @param credits the number of values the server may stream before awaiting more credits
+   */
+  public SubscribePacket(Packet call, int credits) {
+    super(PacketType.SUBSCRIBE);
+
+    if (call == null)
+      throw new IllegalArgumentException("Call cannot be null");
+    if (call.type != PacketType.FUNCTION_CALL && call.type != PacketType.INDEXED_FUNCTION_CALL)
+      throw new IllegalArgumentException("Cannot subscribe to call of type: " + call.type);
+    if (credits < 0)
+      throw new IllegalArgumentException("Credits cannot be negative");
+
+    this.call = call;
+    this.credits = credits;
+  }
+
+  @Override
+  public void setTransactionID(long l) {
+    super.setTransactionID(l);
+    call.setTransactionID(l);
+  }
+
+  @Override
+  public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  @Override
+  public byte[] getData(WireFormat format) {
+    try {
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      writeInstanceData(baos, format);
+      return baos.toByteArray();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  void writeInstanceData(ByteArrayOutputStream os, WireFormat format) throws IOException {
+    format.writeLength(os, credits);
+    format.writeType(os, call.type);
+    call.writeInstanceData(os, format);
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.packet;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public enum WireFormat {
+
+  /**
+   * Eight byte transaction ids, three character ASCII type
+   * identifiers and four byte lengths
+   */
+  LEGACY,
+
+  /**
+   * Variable length transaction ids and lengths, and
+   * single byte type codes
+   */
+  COMPACT,
+
+  ;
+
+
+  /**
+   * Writes a transaction id in this format
+   *
+   * @param os output stream
+   * @param transactionID the transaction id
+   * @throws IOException
+   */
+  public void writeTransactionID(OutputStream os, long transactionID) throws IOException {
+    if (this == LEGACY)
+      os.write(ByteBuffer.allocate(8).putLong(transactionID).array());
+    else
+      writeVarLong(os, (transactionID << 1) ^ (transactionID >> 63));
+  }
+
+  /**
+   * Reads a transaction id in this format
+   *
+   * @param is input stream
+   * @return the transaction id
+   * @throws IOException
+   */
+  public long readTransactionID(InputStream is) throws IOException {
+    if (this == LEGACY) {
+      byte[] data = new byte[8];
+      readFully(is, data);
+      return ByteBuffer.wrap(data).getLong();
+    }
+    else {
+      long l = readVarLong(is);
+      return (l >>> 1) ^ -(l & 1);
+    }
+  }
+
+  /**
+   * Writes a packet type in this format
+   *
+   * @param os output stream
+   * @param type the packet type
+   * @throws IOException
+   */
+  public void writeType(OutputStream os, PacketType type) throws IOException {
+    if (this == LEGACY)
+      os.write(type.getBytes());
+    else
+      os.write(type.code);
+  }
+
+  /**
+   * Reads a packet type in this format
+   *
+   * @param is input stream
+   * @return the packet type
+   * @throws IOException
+   */
+  public PacketType readType(InputStream is) throws IOException {
+    PacketType ret;
+
+    if (this == LEGACY) {
+      byte[] data = new byte[3];
+      readFully(is, data);
+      ret = PacketType.getFromIdentifier(data[0], data[1], data[2]);
+      if (ret == null)
+        throw new IOException(String.format("Un-parsable type identifier '%c%c%c'", (char) data[0], (char) data[1], (char) data[2]));
+    }
+    else {
+      int code = read(is);
+      ret = PacketType.getFromCode(code);
+      if (ret == null)
+        throw new IOException(String.format("Un-parsable type code '%d'", code));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Writes a length in this format
+   *
+   * @param os output stream
+   * @param length a non-negative length
+   * @throws IOException
+   */
+  public void writeLength(OutputStream os, int length) throws IOException {
+    if (length < 0)
+      throw new IllegalArgumentException("Length cannot be negative");
+
+    if (this == LEGACY)
+      os.write(ByteBuffer.allocate(4).putInt(length).array());
+    else
+      writeVarLong(os, length);
+  }
+
+  /**
+   * Gets the number of bytes a length takes in this format
+   *
+   * @param length a non-negative length
+   * @return the size of the length once written
+   */
+  int sizeOfLength(int length) {
+    if (this == LEGACY)
+      return 4;
+
+    return length < 0x80 ? 1 : (38 - Integer.numberOfLeadingZeros(length)) / 7;
+  }
+
+  /**
+   * Reads a length in this format
+   *
+   * @param is input stream
+   * @return the length
+   * @throws IOException
+   */
+  public int readLength(InputStream is) throws IOException {
+    int ret;
+
+    if (this == LEGACY) {
+      byte[] data = new byte[4];
+      readFully(is, data);
+      ret = ByteBuffer.wrap(data).getInt();
+    }
+    else {
+      long l = readVarLong(is);
+      if (l > Integer.MAX_VALUE)
+        throw new IOException("Length out of range: " + l);
+      ret = (int) l;
+    }
+
+    if (ret < 0)
+      throw new IOException("Negative length: " + ret);
+
+    return ret;
+  }
+
+
+  /**
+   * Reads a length in this format followed by that many bytes. The
+   * length is checked against the bytes remaining in the stream
+   * before anything is allocated for them
+   *
+   * @param is input stream over the data of a packet
+   * @return the bytes read
+   * @throws IOException if the length exceeds the bytes remaining
+   */
+  public byte[] readBytes(ByteArrayInputStream is) throws IOException {
+    int length = readLength(is);
+    if (length > is.available())
+      throw new EOFException(String.format("Length %d exceeds the %d bytes remaining", length, is.available()));
+
+    byte[] data = new byte[length];
+    readFully(is, data);
+    return data;
+  }
+
+  /**
+   * Reads exactly enough bytes from the stream to fill the provided array
+   *
+   * @param is input stream
+   * @param data the array to fill
+   * @throws IOException if the stream ends before the array is filled
+   */
+  public static void readFully(InputStream is, byte[] data) throws IOException {
+    readFully(is, data, 0, data.length);
+  }
+
+  /**
+   * Reads exactly enough bytes from the stream to fill the
+   * provided region of an array
+   *
+   * @param is input stream
+   * @param data the array
+   * @param offset the offset of the region
+   * @param length the length of the region
+   * @throws IOException if the stream ends before the region is filled
+   */
+  public static void readFully(InputStream is, byte[] data, int offset, int length) throws IOException {
+    int top = 0, read;
+    while(top < length) {
+      read = is.read(data, offset + top, length - top);
+      if (read < 0)
+        throw new EOFException();
+      top += read;
+    }
+  }
+
+  private static int read(InputStream is) throws IOException {
+    int ret = is.read();
+    if (ret < 0)
+      throw new EOFException();
+    return ret;
+  }
+
+  private static void writeVarLong(OutputStream os, long l) throws IOException {
+    while((l & ~0x7FL) != 0) {
+      os.write((int) ((l & 0x7F) | 0x80));
+      l >>>= 7;
+    }
+    os.write((int) l);
+  }
+
+  private static long readVarLong(InputStream is) throws IOException {
+    long ret = 0;
+    int b;
+
+    for(int shift = 0; shift < 64; shift += 7) {
+      b = read(is);
+      ret |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return ret;
+    }
+
+    throw new IOException("Malformed variable length integer");
+  }
+
+}
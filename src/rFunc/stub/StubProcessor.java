@@ -0,0 +1,319 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.stub;
+
+import rFunc.method.RemoteFunction;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Generates a client stub for every interface marked with RemoteInterface.
+ *
+ * Each method of the interface must take and return only primitive types,
+ * Strings, or rFunc values, and must declare that it throws both IOException
+ * and InvocationException. The method is called under its own name unless
+ * it is marked with RemoteFunction providing another. Both annotations are
+ * claimed by this processor.
+ *
+ * The generated stub prepares each call once, so that the namespace and
+ * method are encoded a single time, writes primitive arguments directly
+ * into the outgoing packet, and unwraps the return value by its type
+ * without reflection
+ *
+ * Author:    LeqxLeqx
+ */
+@SupportedAnnotationTypes({ "rFunc.stub.RemoteInterface", "rFunc.method.RemoteFunction" })
+public class StubProcessor extends AbstractProcessor {
+
+  private static final String[][] TYPES = {
+          // java type, value type, value class, writer method
+          { "boolean", "BOOLEAN", "BooleanValue", "writeBoolean" },
+          { "byte", "INT8", "Int8", "writeByte" },
+          { "short", "INT16", "Int16", "writeShort" },
+          { "int", "INT32", "Int32", "writeInt" },
+          { "long", "INT64", "Int64", "writeLong" },
+          { "float", "FLOAT32", "Float32", "writeFloat" },
+          { "double", "FLOAT64", "Float64", "writeDouble" },
+          { "java.lang.String", "STRING", "StringValue", "writeString" },
+  };
+
+  private static final String VALUE_PACKAGE = "rFunc.value.";
+
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+
+    for(Element element : roundEnvironment.getElementsAnnotatedWith(RemoteInterface.class)) {
+
+      if (element.getKind() != ElementKind.INTERFACE) {
+        error(element, "RemoteInterface may only be applied to interfaces");
+        continue;
+      }
+
+      try {
+        generate((TypeElement) element);
+      } catch (IOException e) {
+        error(element, "Cannot write stub: " + e.getMessage());
+      }
+    }
+
+    return true;
+  }
+
+
+  private void generate(TypeElement type) throws IOException {
+
+    if (!type.getTypeParameters().isEmpty()) {
+      error(type, "RemoteInterface cannot be applied to generic interfaces");
+      return;
+    }
+
+    String namespace = type.getAnnotation(RemoteInterface.class).namespace();
+    String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    String stubName = stubName(type);
+
+    LinkedList<ExecutableElement> methods = new LinkedList<>();
+    for(Element e : processingEnv.getElementUtils().getAllMembers(type)) {
+      if (
+              e.getKind() == ElementKind.METHOD &&
+              e.getModifiers().contains(Modifier.ABSTRACT) &&
+              e.getEnclosingElement().getKind() == ElementKind.INTERFACE
+              )
+        methods.add((ExecutableElement) e);
+    }
+
+    StringBuilder calls = new StringBuilder(), bodies = new StringBuilder();
+    boolean valid = true;
+    int index = 0;
+
+    for(ExecutableElement method : methods) {
+      if (!validate(method)) {
+        valid = false;
+        continue;
+      }
+
+      String callName = "CALL_" + index++;
+      RemoteFunction remoteFunction = method.getAnnotation(RemoteFunction.class);
+      String name = remoteFunction != null && !remoteFunction.name().isEmpty()
+              ? remoteFunction.name()
+              : method.getSimpleName().toString();
+
+      StringJoiner valueTypes = new StringJoiner(", ", "{ ", " }").setEmptyValue("{}");
+      for(VariableElement parameter : method.getParameters()) {
+        valueTypes.add("ValueType." + typeRow(parameter.asType())[1]);
+      }
+
+      calls.append(String.format(
+              "  private static final PreparedCall %s = new PreparedCall(%s, %s, new ValueType[] %s);%n",
+              callName,
+              literal(namespace),
+              literal(name),
+              valueTypes
+        ));
+
+      bodies.append(body(method, callName));
+    }
+
+    if (!valid)
+      return;
+
+    try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+            packageName.isEmpty() ? stubName : packageName + "." + stubName, type).openWriter())) {
+
+      if (!packageName.isEmpty())
+        out.printf("package %s;%n%n", packageName);
+
+      out.println("import rFunc.method.InvocationException;");
+      out.println("import rFunc.net.Client;");
+      out.println("import rFunc.net.packet.PreparedCall;");
+      out.println("import rFunc.value.Value;");
+      out.println("import rFunc.value.ValueType;");
+      out.println();
+      out.println("import java.io.IOException;");
+      out.println();
+      out.println("/**");
+      out.printf(" * Client stub for %s, generated by %s%n", type.getQualifiedName(), StubProcessor.class.getName());
+      out.println(" */");
+      out.printf("public final class %s implements %s {%n%n", stubName, type.getQualifiedName());
+      out.print(calls);
+      out.println();
+      out.println();
+      out.println("  private final Client client;");
+      out.println();
+      out.printf("  public %s(Client client) {%n", stubName);
+      out.println("    if (client == null)");
+      out.println("      throw new IllegalArgumentException(\"Client cannot be null\");");
+      out.println();
+      out.println("    this.client = client;");
+      out.println("  }");
+      out.print(bodies);
+      out.println();
+      out.println("}");
+    }
+  }
+
+  private String body(ExecutableElement method, String callName) {
+    StringBuilder sb = new StringBuilder();
+    TypeMirror returnType = method.getReturnType();
+
+    sb.append("\n  @Override\n");
+    sb.append(String.format("  public %s %s(", returnType, method.getSimpleName()));
+
+    boolean first = true;
+    for(VariableElement parameter : method.getParameters()) {
+      if (!first)
+        sb.append(", ");
+      sb.append(String.format("final %s %s", parameter.asType(), parameter.getSimpleName()));
+      first = false;
+    }
+
+    sb.append(") throws IOException, InvocationException {\n");
+    sb.append(String.format("    Value ret = client.invoke(%s, writer -> {\n", callName));
+
+    for(VariableElement parameter : method.getParameters()) {
+      String[] row = typeRow(parameter.asType());
+      sb.append(String.format(
+              "      writer.%s(%s);\n",
+              isValueClass(parameter.asType()) ? "writeValue" : row[3],
+              parameter.getSimpleName()
+        ));
+    }
+
+    sb.append("    });\n");
+
+    String[] returnRow = typeRow(returnType);
+
+    if (returnRow == null) {
+      sb.append("    return ret;\n");
+    }
+    else {
+      sb.append(String.format("    if (ret.type != ValueType.%s)\n", returnRow[1]));
+      sb.append(String.format("      throw new InvocationException(\"Method '%%s' returned '%%s' rather than '%%s'\", %s, ret.type, ValueType.%s);\n", callName, returnRow[1]));
+      sb.append(isValueClass(returnType)
+              ? String.format("    return (%s%s) ret;\n", VALUE_PACKAGE, returnRow[2])
+              : String.format("    return ((%s%s) ret).%s;\n", VALUE_PACKAGE, returnRow[2], returnRow[1].equals("STRING") ? "string" : "value"));
+    }
+
+    sb.append("  }\n");
+
+    return sb.toString();
+  }
+
+  private boolean validate(ExecutableElement method) {
+    boolean valid = true;
+
+    if (!method.getTypeParameters().isEmpty()) {
+      error(method, "Remote methods cannot be generic");
+      valid = false;
+    }
+
+    if (typeRow(method.getReturnType()) == null && !method.getReturnType().toString().equals(VALUE_PACKAGE + "Value")) {
+      error(method, "Remote methods must return a primitive, a String or an rFunc value");
+      valid = false;
+    }
+
+    for(VariableElement parameter : method.getParameters()) {
+      if (typeRow(parameter.asType()) == null) {
+        error(parameter, "Remote method parameters must be primitives, Strings or concrete rFunc values");
+        valid = false;
+      }
+    }
+
+    if (!throwsType(method, "java.io.IOException") || !throwsType(method, "rFunc.method.InvocationException")) {
+      error(method, "Remote methods must declare IOException and InvocationException");
+      valid = false;
+    }
+
+    return valid;
+  }
+
+  private boolean throwsType(ExecutableElement method, String typeName) {
+    TypeMirror type = processingEnv.getElementUtils().getTypeElement(typeName).asType();
+    for(TypeMirror thrown : method.getThrownTypes()) {
+      if (processingEnv.getTypeUtils().isAssignable(type, thrown))
+        return true;
+    }
+
+    return false;
+  }
+
+  private static String[] typeRow(TypeMirror type) {
+    String name = type.toString();
+    for(String[] row : TYPES) {
+      if (row[0].equals(name) || (VALUE_PACKAGE + row[2]).equals(name))
+        return row;
+    }
+
+    return null;
+  }
+
+  private static boolean isValueClass(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED && type.toString().startsWith(VALUE_PACKAGE);
+  }
+
+  private static String stubName(TypeElement type) {
+    StringBuilder sb = new StringBuilder(type.getSimpleName());
+    for(Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+      sb.insert(0, '_').insert(0, e.getSimpleName());
+    }
+
+    return sb.append("Stub").toString();
+  }
+
+  private static String literal(String string) {
+    StringBuilder sb = new StringBuilder("\"");
+    for(char c : string.toCharArray()) {
+      if (c == '"' || c == '\\')
+        sb.append('\\').append(c);
+      else if (c < 0x20 || c > 0x7E)
+        sb.append(String.format("\\u%04x", (int) c));
+      else
+        sb.append(c);
+    }
+
+    return sb.append('"').toString();
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+}
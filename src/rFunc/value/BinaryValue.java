@@ -0,0 +1,53 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rFunc.value;
+
+import java.util.Base64;
+
+/**
+ * Author:    LeqxLeqx
+ */
+public class BinaryValue extends Value {
+
+  static BinaryValue parseFromBytes(byte[] data) {
+    return new BinaryValue(data);
+  }
+
+
+  public final byte[] bytes;
+
+  public BinaryValue(byte[] bytes) {
+    super(ValueType.BINARY);
+
+    if (bytes == null)
+      throw new IllegalArgumentException("Bytes cannot be null");
+
+    this.bytes = bytes;
+  }
+
+  @Override
+  byte[] generateData() {
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return Base64.getEncoder().encodeToString(bytes);
+  }
+
+}
@@ -18,8 +18,14 @@
 
 package rFunc.value;
 
+import rFunc.net.packet.PacketLimits;
+import rFunc.net.packet.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -56,6 +62,8 @@ public abstract class Value {
       return get(((Long) object).longValue());
     else if (object instanceof String)
       return get(((String) object));
+    else if (object instanceof byte[])
+      return get(((byte[]) object));
     else
       return null;
 
@@ -134,6 +142,15 @@ public abstract class Value {
     return new StringValue(value);
   }
 
+  /**
+   * Gets a 'BinaryValue' wrapper for the provided byte array
+   * @param value the value to wrap
+   * @return the wrapped value
+   */
+  public static BinaryValue get(byte[] value) {
+    return new BinaryValue(value);
+  }
+
 
   /**
    * Parses a value from a data stream
@@ -143,16 +160,47 @@ public abstract class Value {
    * @throws IOException
    */
   public static Value parseFromStream(InputStream is) throws IOException {
+    return parseFromStream(is, WireFormat.LEGACY);
+  }
+
+  /**
+   * Parses a value from a data stream encoded in the provided wire format
+   *
+   * @param is input stream
+   * @param format the wire format of the value
+   * @return a value parsed from the input stream
+   * @throws IOException
+   */
+  public static Value parseFromStream(InputStream is, WireFormat format) throws IOException {
+    return parseFromStream(is, format, new PacketLimits());
+  }
+
+  /**
+   * Parses a value from a data stream encoded in the provided wire
+   * format, checking its length against the provided limits before
+   * allocating anything for it
+   *
+   * @param is input stream
+   * @param format the wire format of the value
+   * @param limits the limits of the connection
+   * @return a value parsed from the input stream
+   * @throws IOException
+   */
+  public static Value parseFromStream(InputStream is, WireFormat format, PacketLimits limits) throws IOException {
     int typeInteger = is.read(), length;
-    byte[] lengthData = new byte[4];
-    is.read(lengthData);
+    if (typeInteger < 0)
+      throw new EOFException();
 
-    length = ByteBuffer.wrap(lengthData).getInt();
     ValueType type = ValueType.getFromIndex(typeInteger);
+    if (type == null)
+      throw new IOException("Un-parsable value type: " + typeInteger);
+
+    length = format.readLength(is);
+    limits.checkValueSize(type == ValueType.STRING, length);
 
     byte[] data = new byte[length];
 
-    is.read(data);
+    WireFormat.readFully(is, data);
 
     switch(type) {
 
@@ -172,6 +220,8 @@ public abstract class Value {
         return Int64.parseFromBytes(data);
       case STRING:
         return StringValue.parseFromBytes(data);
+      case BINARY:
+        return BinaryValue.parseFromBytes(data);
 
       default:
         throw new RuntimeException();
@@ -196,15 +246,57 @@ public abstract class Value {
    * @return The data representation of this value
    */
   public byte[] getData() {
+    return getData(WireFormat.LEGACY);
+  }
+
+  /**
+   * Gets the data representation of this value in the provided wire format
+   *
+   * @param format the wire format
+   * @return The data representation of this value
+   */
+  public byte[] getData(WireFormat format) {
     byte[] instanceData = generateData();
 
-    ByteBuffer bb = ByteBuffer.allocate(instanceData.length + 5);
+    if (format == WireFormat.LEGACY) {
+      ByteBuffer bb = ByteBuffer.allocate(instanceData.length + 5);
+
+      bb.put((byte) type.index);
+      bb.putInt(instanceData.length);
+      bb.put(instanceData);
+
+      return bb.array();
+    }
+
+    try {
 
-    bb.put((byte) type.index);
-    bb.putInt(instanceData.length);
-    bb.put(instanceData);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(instanceData.length + 6);
+
+      baos.write(type.index);
+      format.writeLength(baos, instanceData.length);
+      baos.write(instanceData);
+
+      return baos.toByteArray();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the data representation of this value in the provided
+   * wire format to the stream, without first collecting it in an array
+   *
+   * @param os output stream
+   * @param format the wire format
+   * @throws IOException
+   */
+  public void writeData(OutputStream os, WireFormat format) throws IOException {
+    byte[] instanceData = generateData();
 
-    return bb.array();
+    os.write(type.index);
+    format.writeLength(os, instanceData.length);
+    os.write(instanceData, 0, instanceData.length);
   }
 
 }
@@ -38,6 +38,7 @@ public enum ValueType {
   // complex values
 
   STRING ("string", 0x81),
+  BINARY ("binary", 0x82),
 
   ;
 
@@ -0,0 +1,157 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net;
+
+import rFunc.RFunc;
+import rFunc.net.packet.PacketLimits;
+import rFunc.net.packet.PacketType;
+import rFunc.net.packet.WireFormat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs peers of this library against a peer predating protocol
+ * negotiation, in both directions. The older peer is played out
+ * byte for byte: it sends a handshake holding only the library
+ * version string, under transaction id -2, and rejects any handshake
+ * whose data is not exactly that string.
+ *
+ * Run with assertions enabled (java -ea).
+ *
+ * Author:    LeqxLeqx
+ */
+public class HandshakeCompatibilityTest {
+
+  private static final int PORT = 47900;
+
+  public static void main(String[] args) throws Exception {
+    legacyClientAgainstServer();
+    clientAgainstLegacyServer();
+
+    System.out.println("HandshakeCompatibilityTest passed");
+  }
+
+  /**
+   * A server of this library answers an older client with a handshake
+   * the client accepts, then serves it in the legacy wire format
+   */
+  static void legacyClientAgainstServer() throws Exception {
+    Server server = new Server();
+    server.log.setTraceSuppressed(true);
+    server.log.setVerboseSuppressed(true);
+    server.log.setInfoSuppressed(true);
+    server.start(PORT);
+
+    try (Socket socket = new Socket("127.0.0.1", PORT)) {
+      socket.setSoTimeout(5000);
+      DataOutputStream os = new DataOutputStream(socket.getOutputStream());
+      DataInputStream is = new DataInputStream(socket.getInputStream());
+
+      writeLegacyHandshake(os);
+      readLegacyHandshake(is);
+
+      os.writeLong(0);
+      os.write(PacketType.NAMESPACE_LIST_REQUEST.getBytes());
+      os.flush();
+
+      assert is.readLong() == 0 : "Reply to the older client has the wrong transaction id";
+      assert Arrays.equals(readType(is), PacketType.NAMESPACE_LIST.getBytes()) : "Reply to the older client is not a namespace list";
+    } finally {
+      server.terminate();
+    }
+  }
+
+  /**
+   * A client of this library is accepted by an older server, and
+   * settles upon protocol version 1 without any capabilities
+   */
+  static void clientAgainstLegacyServer() throws Exception {
+    try (ServerSocket serverSocket = new ServerSocket(0)) {
+
+      CompletableFuture<Void> legacyServer = CompletableFuture.runAsync(() -> {
+        try (Socket socket = serverSocket.accept()) {
+          socket.setSoTimeout(5000);
+          DataOutputStream os = new DataOutputStream(socket.getOutputStream());
+          DataInputStream is = new DataInputStream(socket.getInputStream());
+
+          writeLegacyHandshake(os);
+          readLegacyHandshake(is);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+
+      ClientConnection connection = new ClientConnection(
+              new SocketTransport(new Socket("127.0.0.1", serverSocket.getLocalPort())),
+              0xFFFFFFFF,
+              0,
+              new PacketLimits()
+        );
+
+      try {
+        connection.shakeHands();
+        legacyServer.get(5, TimeUnit.SECONDS);
+
+        assert connection.protocolVersion == 1 : "Protocol version with an older server is " + connection.protocolVersion;
+        assert connection.capabilities == 0 : "Capabilities with an older server are " + connection.capabilities;
+        assert connection.wireFormat == WireFormat.LEGACY : "Wire format with an older server is " + connection.wireFormat;
+      } finally {
+        connection.close();
+      }
+    }
+  }
+
+  private static void writeLegacyHandshake(DataOutputStream os) throws IOException {
+    byte[] version = RFunc.getVersion().getBytes(StandardCharsets.UTF_8);
+
+    os.writeLong(-2);
+    os.write(PacketType.HANDSHAKE.getBytes());
+    os.writeInt(version.length);
+    os.write(version);
+    os.flush();
+  }
+
+  private static void readLegacyHandshake(DataInputStream is) throws IOException {
+    is.readLong();
+    if (!Arrays.equals(readType(is), PacketType.HANDSHAKE.getBytes()))
+      throw new IOException("Older peer expected a handshake");
+
+    byte[] data = new byte[is.readInt()];
+    is.readFully(data);
+
+    String version = new String(data, StandardCharsets.UTF_8);
+    if (!version.equals(RFunc.getVersion()))
+      throw new IOException(String.format("Older peer rejects the handshake (%s != %s)", RFunc.getVersion(), version));
+  }
+
+  private static byte[] readType(DataInputStream is) throws IOException {
+    byte[] type = new byte[3];
+    is.readFully(type);
+    return type;
+  }
+
+}
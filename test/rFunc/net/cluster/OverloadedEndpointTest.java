@@ -0,0 +1,149 @@
+/*
+ * rFunc: Remote function call library
+ * Copyright (C) 2017  LeqxLeqx
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package rFunc.net.cluster;
+
+import rFunc.method.ArgumentSpecification;
+import rFunc.method.JavaMethod;
+import rFunc.method.MethodSpecification;
+import rFunc.net.AdmissionController;
+import rFunc.net.Client;
+import rFunc.net.Server;
+import rFunc.value.Int32;
+import rFunc.value.Value;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a cluster client against two servers, one of which refuses
+ * every call as overloaded. The overloaded replies come back sooner
+ * than any real answer, which takes the working server tens of
+ * milliseconds, and must not make the shedding server look
+ * like the fastest endpoint to the power of two choices balancer.
+ *
+ * Run with assertions enabled (java -ea).
+ *
+ * Author:    LeqxLeqx
+ */
+public class OverloadedEndpointTest {
+
+  private static final int PORT = 47910;
+  private static final int CALLS = 100;
+  private static final long SERVICE_TIME = 20;
+
+  public static void main(String[] args) throws Exception {
+    trafficMovesAwayFromOverloadedEndpoint();
+
+    System.out.println("OverloadedEndpointTest passed");
+  }
+
+  /**
+   * The server holding its only admission slot with a call which never
+   * ends answers every other call as overloaded. Those calls are sent
+   * on to the other server, and the shedding server is soon ejected
+   * rather than chosen for every call
+   */
+  static void trafficMovesAwayFromOverloadedEndpoint() throws Exception {
+    CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+
+    Server working = createServer(1, null);
+    Server shedding = createServer(2, () -> {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    AdmissionController admission = new AdmissionController(1, 1, 1, TimeUnit.MINUTES.toMillis(1));
+    shedding.setAdmissionController(admission);
+
+    working.start(PORT);
+    shedding.start(PORT + 1);
+
+    Client blocker = new Client();
+    ClusterClient cluster = new ClusterClient();
+
+    try {
+      blocker.setIp("127.0.0.1");
+      blocker.setPort(PORT + 1);
+      blocker.initialize();
+
+      CompletableFuture<Value> blocked = blocker.invokeAsync("n.block");
+      assert entered.await(5, TimeUnit.SECONDS) : "Blocking call never started";
+
+      cluster.addEndpoint("127.0.0.1", PORT);
+      Endpoint overloaded = cluster.addEndpoint("127.0.0.1", PORT + 1);
+
+      for(int k = 0; k < CALLS; k++) {
+        Int32 tag = (Int32) cluster.invoke("n.tag", new Int32(k));
+        assert tag.value == 1 : "Call answered by the overloaded server";
+      }
+
+      long rejected = admission.getRejectedCount();
+      assert rejected <= cluster.getFailureThreshold()
+              : "Overloaded server was sent " + rejected + " of " + CALLS + " calls";
+      assert overloaded.isEjected() : "Overloaded server was not ejected";
+
+      release.countDown();
+      blocked.get(5, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+      cluster.close();
+      blocker.close();
+      working.terminate();
+      shedding.terminate();
+    }
+  }
+
+  private static Server createServer(int tag, Runnable block) {
+    Server server = new Server();
+    server.log.setTraceSuppressed(true);
+    server.log.setVerboseSuppressed(true);
+    server.log.setInfoSuppressed(true);
+    server.log.setWarningSuppressed(true);
+
+    server.environment.addNamespace("n");
+    server.environment.getNamespace("n").add(new JavaMethod(
+            new MethodSpecification(ArgumentSpecification.parse("int32 a"), "tag", ""),
+            values -> {
+              try {
+                Thread.sleep(SERVICE_TIME);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return new Int32(tag);
+            }
+      ));
+
+    if (block != null)
+      server.environment.getNamespace("n").add(new JavaMethod(
+              new MethodSpecification(ArgumentSpecification.parse(""), "block", ""),
+              values -> {
+                block.run();
+                return new Int32(0);
+              }
+        ));
+
+    return server;
+  }
+
+}